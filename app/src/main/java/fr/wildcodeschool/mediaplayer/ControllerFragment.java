@@ -2,33 +2,53 @@ package fr.wildcodeschool.mediaplayer;
 
 import android.media.MediaPlayer;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
+import android.support.v4.view.ViewCompat;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.SeekBar;
+import android.widget.Toast;
 
+import fr.wildcodeschool.mediaplayer.player.PlaybackAnchor;
 import fr.wildcodeschool.mediaplayer.player.WildOnPlayerListener;
-import fr.wildcodeschool.mediaplayer.player.WildPlayer;
+import fr.wildcodeschool.mediaplayer.player.WildOnPositionListener;
+import fr.wildcodeschool.mediaplayer.service.CommandQueue;
+import fr.wildcodeschool.mediaplayer.service.MediaService;
 
 @SuppressWarnings("unused")
 public class ControllerFragment extends Fragment
-  implements SeekBar.OnSeekBarChangeListener, WildOnPlayerListener {
+  implements SeekBar.OnSeekBarChangeListener, WildOnPlayerListener, WildOnPositionListener {
+  // TAG
+  private static final String TAG = "ControllerFragment";
   // Const
   private static final int UNDEFINED = -1;
 
   // SeekBar
   private SeekBar mSeekBar = null;
   private int mMaxValue = UNDEFINED;
-  // SeekBar update delay
-  private static final int SEEKBAR_DELAY = 1000;
-  // Thread used to update the SeekBar position
-  private final Handler mSeekBarHandler = new Handler();
-  private Runnable mSeekBarThread;
+  // Last position published by the player
+  private PlaybackAnchor mAnchor = PlaybackAnchor.NONE;
+  // SeekBar is animated only while the fragment is resumed and the user doesn't drag it
+  private boolean isResumed = false;
+  private boolean isTracking = false;
+  // Update of the SeekBar position at each display frame
+  private final Runnable mFrameCallback = new Runnable() {
+    @Override
+    public void run() {
+      if (!isAnimating()) return;
+      mSeekBar.setProgress(mAnchor.getPositionAt(SystemClock.elapsedRealtime()));
+      ViewCompat.postOnAnimation(mSeekBar, this);
+    }
+  };
+  // Result of the button commands, received once the playback thread ran them
+  private final CommandQueue.Callback mCommandCallback = (boolean isDone) -> {
+    if (!isDone) Log.d(TAG, "Command refused or superseded");
+  };
 
   /**
    * Default constructor
@@ -63,35 +83,6 @@ public class ControllerFragment extends Fragment
     return lView;
   }
 
-  /**
-   * Called immediately after onCreateView(LayoutInflater, ViewGroup, Bundle) has returned,
-   * but before any saved state has been restored in to the view. This gives subclasses a chance
-   * to initialize themselves once they know their view hierarchy has been completely created.
-   * The fragment's view hierarchy is not however attached to its parent at this point.
-   * @param view View: The View returned by onCreateView(LayoutInflater, ViewGroup, Bundle).
-   * @param savedInstanceState Bundle: If non-null, this fragment is being re-constructed from
-   *                           a previous saved state as given here.
-   */
-  @Override
-  public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
-    super.onViewCreated(view, savedInstanceState);
-
-    // Thread used to update the SeekBar position according to the audio player
-    mSeekBarThread = new Runnable() {
-      @Override
-      public void run() {
-        // Widget should only be manipulated in UI thread
-        mSeekBar.post(() -> {
-          if (null != getPlayer()) {
-            mSeekBar.setProgress(getPlayer().getCurrentPosition());
-          }
-        });
-        // Launch a new request
-        mSeekBarHandler.postDelayed(this, SEEKBAR_DELAY);
-      }
-    };
-  }
-
   /**
    * Called when the fragment is visible to the user and actively running. This is generally
    * tied to Activity.onResume of the containing Activity's lifecycle.
@@ -99,13 +90,8 @@ public class ControllerFragment extends Fragment
   @Override
   public void onResume() {
     super.onResume();
-    // Check player validity
-    if (null != getPlayer()) {
-      // Update seekbar position
-      mSeekBar.setProgress(getPlayer().getCurrentPosition());
-      // Launch a new request
-      mSeekBarHandler.postDelayed(mSeekBarThread, SEEKBAR_DELAY);
-    }
+    isResumed = true;
+    updateSeekBar();
   }
 
   /**
@@ -115,7 +101,9 @@ public class ControllerFragment extends Fragment
   @Override
   public void onPause() {
     super.onPause();
-    mSeekBarHandler.removeCallbacks(mSeekBarThread);
+    isResumed = false;
+    // No more wakeup while hidden
+    if (null != mSeekBar) mSeekBar.removeCallbacks(mFrameCallback);
   }
 
   // --------------------------------------------------------------------------
@@ -124,15 +112,12 @@ public class ControllerFragment extends Fragment
 
   /**
    * Called when the media file is ready for playback.
+   * The player belongs to the playback thread, the duration comes with the position anchors.
    * @param mp MediaPlayer: the MediaPlayer that is ready for playback
    */
   @Override
   public void onPrepared(MediaPlayer mp) {
-    if (null != mSeekBar) {
-      mSeekBar.setMax(mp.getDuration());
-    }
-    // Store data in class
-    mMaxValue = mp.getDuration();
+    updateSeekBar();
   }
 
   /**
@@ -141,12 +126,66 @@ public class ControllerFragment extends Fragment
    */
   @Override
   public void onCompletion(MediaPlayer mp) {
-    if (null != mSeekBarThread) {
-      mSeekBarHandler.removeCallbacks(mSeekBarThread);
+    mAnchor = PlaybackAnchor.NONE;
+    updateSeekBar();
+  }
+
+  /**
+   * Called when the next song of the queue starts, its duration comes with the next anchor
+   * @param mp MediaPlayer: the MediaPlayer of the new song
+   * @param index int: the position of the song in the queue
+   */
+  @Override
+  public void onTrackChanged(MediaPlayer mp, int index) {
+    if (null != mSeekBar) mSeekBar.setProgress(0);
+  }
+
+  /**
+   * Called when the current song can't be played, the player skips it or starts it over
+   * at the next play request
+   * @param mp MediaPlayer: the MediaPlayer that failed
+   * @param what int: the type of error
+   * @param extra int: an implementation specific error code
+   */
+  @Override
+  public void onError(MediaPlayer mp, int what, int extra) {
+    mAnchor = PlaybackAnchor.NONE;
+    updateSeekBar();
+    if (null != getContext()) {
+      Toast.makeText(getContext(), R.string.playback_error, Toast.LENGTH_SHORT).show();
     }
-    if (null != mSeekBar) {
-      mSeekBar.setProgress(0);
+  }
+
+  /**
+   * Called when the playback state or position changes
+   * @param anchor PlaybackAnchor: The position of the playback at a given date
+   */
+  @Override
+  public void onPositionChanged(PlaybackAnchor anchor) {
+    mAnchor = anchor;
+    if (anchor.getDuration() > 0 && anchor.getDuration() != mMaxValue) {
+      mMaxValue = anchor.getDuration();
+      if (null != mSeekBar) mSeekBar.setMax(mMaxValue);
     }
+    updateSeekBar();
+  }
+
+  /**
+   * Check if the SeekBar must follow the playback at each frame
+   * @return boolean: true if the playback runs and the SeekBar is visible
+   */
+  private boolean isAnimating() {
+    return null != mSeekBar && isResumed && !isTracking && mAnchor.isRunning();
+  }
+
+  /**
+   * Show the current position, then follow the playback at display refresh rate if it runs
+   */
+  private void updateSeekBar() {
+    if (null == mSeekBar || isTracking) return;
+    mSeekBar.removeCallbacks(mFrameCallback);
+    mSeekBar.setProgress(mAnchor.getPositionAt(SystemClock.elapsedRealtime()));
+    if (isAnimating()) ViewCompat.postOnAnimation(mSeekBar, mFrameCallback);
   }
 
   // --------------------------------------------------------------------------
@@ -161,8 +200,9 @@ public class ControllerFragment extends Fragment
    */
   @Override
   public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-    if (fromUser && null != getPlayer()) {
-      getPlayer().seekTo(progress);
+    if (fromUser && null != getService()) {
+      // Fast seeks while dragging, coalesced by the service and the player
+      getService().seekTo(progress, !isTracking);
     }
   }
 
@@ -173,7 +213,8 @@ public class ControllerFragment extends Fragment
   @Override
   public void onStartTrackingTouch(SeekBar seekBar) {
     // Stop seekBarUpdate here
-    mSeekBarHandler.removeCallbacks(mSeekBarThread);
+    isTracking = true;
+    seekBar.removeCallbacks(mFrameCallback);
   }
 
   /**
@@ -182,10 +223,10 @@ public class ControllerFragment extends Fragment
    */
   @Override
   public void onStopTrackingTouch(SeekBar seekBar) {
-    // Restart seekBarUpdate here
-    if (null != getPlayer() && getPlayer().isPlaying()) {
-      mSeekBarHandler.postDelayed(mSeekBarThread, SEEKBAR_DELAY);
-    }
+    // Exact position on release
+    isTracking = false;
+    if (null != getService()) getService().seekTo(seekBar.getProgress(), true);
+    updateSeekBar();
   }
 
   // --------------------------------------------------------------------------
@@ -196,47 +237,41 @@ public class ControllerFragment extends Fragment
    * On play button click
    * Launch the playback of the media
    */
-  public void playMedia(WildPlayer player) {
-    if (null != mSeekBarThread && null != player && player.play()) {
-      mSeekBarHandler.postDelayed(mSeekBarThread, SEEKBAR_DELAY);
-    }
+  public void playMedia(MediaService service) {
+    // SeekBar follows the published position anchors
+    if (null != service) service.playMedia(mCommandCallback);
   }
 
   /**
    * On pause button click
    * Pause the playback of the media
    */
-  public void pauseMedia(WildPlayer player) {
-    if (null != mSeekBarThread && null != player && player.pause()) {
-      mSeekBarHandler.removeCallbacks(mSeekBarThread);
-    }
+  public void pauseMedia(MediaService service) {
+    if (null != service) service.pauseMedia(mCommandCallback);
   }
 
   /**
    * On reset button click
    * Stop the playback of the media
    */
-  public void stopMedia(WildPlayer player)
+  public void stopMedia(MediaService service)
   {
-    if ( null != mSeekBarThread && null != mSeekBar
-      && null != player && player.stop() ) {
-      mSeekBarHandler.removeCallbacks(mSeekBarThread);
-      mSeekBar.setProgress(0);
-    }
+    // The stopped player publishes a rewound anchor
+    if (null != service) service.stopMedia(mCommandCallback);
   }
 
   // --------------------------------------------------------------------------
-  // Service WildPlayer
+  // Service
   // --------------------------------------------------------------------------
 
   /**
-   * Get the wildPlayer instance
-   * @return The WildPlayer instance or null.
+   * Get the service which runs the player commands
+   * @return The MediaService instance or null.
    */
-  private WildPlayer getPlayer() {
+  private MediaService getService() {
     FragmentActivity lActivity = getActivity();
     if (lActivity instanceof MainActivity)
-      return ((MainActivity)getActivity()).getPlayer();
+      return ((MainActivity)getActivity()).getService();
     return null;
   }
 }
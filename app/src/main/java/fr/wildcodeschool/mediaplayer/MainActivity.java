@@ -5,43 +5,65 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.media.MediaPlayer;
 import android.os.IBinder;
+import android.os.StrictMode;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
-import android.widget.Toast;
+import android.widget.EditText;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-import fr.wildcodeschool.mediaplayer.json.JsonParser;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogLoader;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogSnapshot;
+import fr.wildcodeschool.mediaplayer.cover.CoverLoader;
 import fr.wildcodeschool.mediaplayer.list.Item;
 import fr.wildcodeschool.mediaplayer.list.ItemFragment;
 import fr.wildcodeschool.mediaplayer.notification.MediaNotification;
 import fr.wildcodeschool.mediaplayer.notification.NotificationReceiver;
 import fr.wildcodeschool.mediaplayer.obb.ObbManager;
 import fr.wildcodeschool.mediaplayer.obb.ObbManagerListener;
-import fr.wildcodeschool.mediaplayer.player.WildPlayer;
+import fr.wildcodeschool.mediaplayer.obb.ObbOverlay;
+import fr.wildcodeschool.mediaplayer.player.MediaSources;
+import fr.wildcodeschool.mediaplayer.player.PlayQueue;
+import fr.wildcodeschool.mediaplayer.player.PlaybackAnchor;
+import fr.wildcodeschool.mediaplayer.player.WildOnPlayerListener;
+import fr.wildcodeschool.mediaplayer.player.WildOnPositionListener;
+import fr.wildcodeschool.mediaplayer.search.SearchIndex;
 import fr.wildcodeschool.mediaplayer.service.MediaService;
 
 import static android.os.storage.OnObbStateChangeListener.*;
 
 @SuppressWarnings("unused")
 public class MainActivity extends AppCompatActivity
-  implements ServiceConnection, ItemFragment.OnItemClickListener, ObbManagerListener {
+  implements ServiceConnection, ItemFragment.OnItemClickListener,
+  ItemFragment.OnItemsVisibleListener, ObbManagerListener, CatalogLoader.CatalogLoaderListener {
   // TAG
   private static final String TAG = "MainActivity";
+  // Compiled catalog file name
+  private static final String CATALOG_NAME = "data.catalog";
+  // Maximum number of search results
+  private static final int SEARCH_LIMIT = 1000;
 
   // Fragments
   private ControllerFragment mControllerFragment;
 
   // OBB
   private ObbManager mObbManager;
+  // Catalog loading pipeline
+  private CatalogLoader mCatalogLoader;
+  // Search
+  private SearchIndex mSearchIndex = null;
+  private String mQuery = "";
 
   // Bound service
   MediaService mService;
@@ -49,6 +71,11 @@ public class MainActivity extends AppCompatActivity
 
   // Notification
   private MediaNotification mNotification = null;
+  // Receiver of the position anchors, the SeekBar and the notification follow them
+  private final WildOnPositionListener mPositionListener = (PlaybackAnchor anchor) -> {
+    mControllerFragment.onPositionChanged(anchor);
+    if (null != mNotification) mNotification.onPositionChanged(anchor);
+  };
 
   /**
    * Application context accessor
@@ -67,6 +94,13 @@ public class MainActivity extends AppCompatActivity
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    // Report the disk and network accesses of the UI thread, the player runs elsewhere
+    if (BuildConfig.DEBUG) {
+      StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+        .detectAll()
+        .penaltyLog()
+        .build());
+    }
     setContentView(R.layout.activity_main);
 
     // Get fragment instance
@@ -79,13 +113,32 @@ public class MainActivity extends AppCompatActivity
 
     // mount the OBB file
     mObbManager = new ObbManager(this, this);
+    // Covers are stored in the OBB
+    CoverLoader.getInstance().setSource(mObbManager::getFilePath,
+      mObbManager.getObbFile(), mObbManager.getPatchFile());
+    // Load the catalog in background, the OBB is mounted first
+    mCatalogLoader = new CatalogLoader(mObbManager, new File(getCacheDir(), CATALOG_NAME), this);
     if (RESULT_OK == mObbManager.requestReadObbPermission()) {
       // Permission has been granted
-      if (!mObbManager.isObbMounted()) {
-        mObbManager.mountMainObb();
-      }
+      mCatalogLoader.start();
     }
 
+    // Filter the list while the user types
+    EditText lSearch = findViewById(R.id.search);
+    lSearch.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+      @Override
+      public void afterTextChanged(Editable s) {
+        mQuery = s.toString().trim();
+        applySearch();
+      }
+    });
+
     // Bind to MediaService
     Intent intent = new Intent(this, MediaService.class);
     bindService(intent, this, Context.BIND_AUTO_CREATE);
@@ -116,7 +169,7 @@ public class MainActivity extends AppCompatActivity
       if (grantResults.length > 0
         && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
         // Permission has been granted
-        mObbManager.mountMainObb();
+        mCatalogLoader.start();
         Log.i(TAG, "OBB_PERMISSION GRANTED");
       } else {
         Log.e(TAG, "OBB_PERMISSION REFUSED");
@@ -134,37 +187,43 @@ public class MainActivity extends AppCompatActivity
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    // Release the service
+    // Stop the catalog loading
+    if (null != mCatalogLoader)
+      mCatalogLoader.cancel();
+    // Release the cover resolver which refers to this activity
+    CoverLoader.getInstance().setSource(null);
+    CoverLoader.getInstance().setArchive(null, null);
+    // Release the service, the OBB archives are closed below
+    if (null != mService) {
+      mService.setPositionListener(null);
+      mService.setObbArchive(null);
+    }
     unbindService(this);
     mBound = false;
     // Release the notification
-    if (null != mNotification)
+    if (null != mNotification) {
+      Log.i(TAG, mNotification.toString());
       mNotification.unregister();
+    }
+    if (null != mObbManager)
+      mObbManager.logMetrics();
     // If obbManager always exists and is always mounted
     if (null != mObbManager && mObbManager.isObbMounted())
-      mObbManager.unmountMainObb();
+      mObbManager.unmountObb();
+    if (null != mObbManager)
+      mObbManager.closeArchive();
   }
 
   // --------------------------------------------------------------------------
-  // Player validity
+  // Service
   // --------------------------------------------------------------------------
 
   /**
-   * Get the validity of mediaPlayer instance
-   * @return boolean: Returns the validity of th WildPlayer
+   * Return the bound service, which runs the player commands in its playback thread
+   * @return MediaService: The service, null if it is not bound
    */
-  private boolean isPlayerReady() {
-    return mBound
-      && (null != mService)
-      && (null != mService.getPlayer());
-  }
-
-  /**
-   * Return the instance of the WildPlayer stored in the service
-   * @return WildPlayer: The instance of the WildPlayer
-   */
-  public WildPlayer getPlayer() {
-    return isPlayerReady() ? mService.getPlayer() : null;
+  public MediaService getService() {
+    return (mBound && null != mService) ? mService : null;
   }
 
   // --------------------------------------------------------------------------
@@ -176,7 +235,7 @@ public class MainActivity extends AppCompatActivity
    * Launch the playback of the media
    */
   public void playMedia(View v) {
-    mControllerFragment.playMedia(getPlayer());
+    mControllerFragment.playMedia(getService());
   }
 
   /**
@@ -184,7 +243,7 @@ public class MainActivity extends AppCompatActivity
    * Pause the playback of the media
    */
   public void pauseMedia(View v) {
-    mControllerFragment.pauseMedia(getPlayer());
+    mControllerFragment.pauseMedia(getService());
   }
 
   /**
@@ -192,7 +251,7 @@ public class MainActivity extends AppCompatActivity
    * Stop the playback of the media
    */
   public void stopMedia(View v) {
-    mControllerFragment.stopMedia(getPlayer());
+    mControllerFragment.stopMedia(getService());
   }
 
   // --------------------------------------------------------------------------
@@ -212,7 +271,9 @@ public class MainActivity extends AppCompatActivity
     mService = binder.getService();
     mBound = true;
 
-    mService.createMediaPlayer(R.string.song, mControllerFragment);
+    mService.setPositionListener(mPositionListener);
+    mService.setObbArchive(mObbManager.getArchive());
+    mService.createMediaPlayer(R.array.song_variants, mControllerFragment);
   }
 
   /**
@@ -237,33 +298,92 @@ public class MainActivity extends AppCompatActivity
   @Override
   public void onObbStateChange(String path, int state) {
     if (MOUNTED == state) {
-      // Get the file from OBB mounted path
-      File file = new File(mObbManager.getFilePath("data.json"));
-
-      // try with statement works here because FileInputStream
-      // implement Closeable interface.
-      try (FileInputStream lFileInputStream = new FileInputStream(file)) {
-        // Parse JSON content and update the recyclerView
-        JsonParser.getInstance().readJsonStream(lFileInputStream);
-        addRecyclerViewItems();
-      } catch (IOException e) { e.printStackTrace(); }
+      // Parse the catalog in the loader thread
+      mCatalogLoader.onObbMounted();
     }
   }
 
+  /**
+   * Called in UI thread when the whole OBB has been checked against its manifest
+   * @param isIntact boolean: false if the OBB is truncated or corrupted
+   */
+  @Override
+  public void onObbVerified(boolean isIntact) {
+    if (!isIntact) Log.e(TAG, "Corrupted OBB " + mObbManager.getObbFile());
+  }
+
+  /**
+   * Give the OBB archives opened by the catalog loader to the covers and to the players.
+   * The archives are mapped once, their songs and covers are read in place.
+   */
+  private void shareObbArchive() {
+    ObbOverlay lArchive = mObbManager.getArchive();
+    CoverLoader.getInstance().setArchive(lArchive, mObbManager::verifyEntry);
+    if (mBound && null != mService) mService.setObbArchive(lArchive);
+  }
+
   // --------------------------------------------------------------------------
   // RecyclerView
   // --------------------------------------------------------------------------
 
   /**
-   * update the content of RecyclerView
+   * Called in UI thread when the catalog loading starts
+   * @param searchIndex SearchIndex: The index filled while the catalog is loaded
+   */
+  @Override
+  public void onCatalogStarted(SearchIndex searchIndex) {
+    shareObbArchive();
+    mSearchIndex = searchIndex;
+    ItemFragment.clearItems();
+  }
+
+  /**
+   * Called in UI thread with the next items of the catalog
+   * @param batch List: The new items
+   * @param loaded int: Number of items loaded so far
+   */
+  @Override
+  public void onCatalogProgress(List<Item> batch, int loaded) {
+    ItemFragment.addItems(batch);
+    if (!mQuery.isEmpty()) applySearch();
+  }
+
+  /**
+   * Called in UI thread when the whole catalog is loaded
+   * @param snapshot CatalogSnapshot: The immutable content of the catalog
+   */
+  @Override
+  public void onCatalogLoaded(CatalogSnapshot snapshot) {
+    shareObbArchive();
+    // Batches may have been dropped if the fragment was recreated meanwhile
+    if (ItemFragment.getItemCount() != snapshot.getItems().size()) {
+      ItemFragment.setItems(snapshot.getItems());
+    }
+    mSearchIndex = snapshot.getSearchIndex();
+    applySearch();
+    Log.i(TAG, snapshot.getItems().size() + " songs loaded");
+    // Hash the rest of the OBB once the startup is over
+    mObbManager.verifyInBackground();
+  }
+
+  /**
+   * Called in UI thread when the catalog can't be read
+   * @param e IOException: The reading error
+   */
+  @Override
+  public void onCatalogFailed(IOException e) {
+    Log.e(TAG, "Unable to load the catalog", e);
+  }
+
+  /**
+   * Filter the list with the current query
    */
-  private void addRecyclerViewItems() {
-    // Loop on the Json items
-    for (JsonParser.Song item: JsonParser.getInstance().getSongList()) {
-      Bitmap lBitmap = BitmapFactory.decodeFile(mObbManager.getFilePath(item.cover));
-      ItemFragment.addItem(new Item(item.artist, item.title, lBitmap));
+  private void applySearch() {
+    if (mQuery.isEmpty() || null == mSearchIndex) {
+      ItemFragment.setFilter(null);
+    } else {
+      ItemFragment.setFilter(mSearchIndex.search(mQuery, SEARCH_LIMIT));
     }
-    ItemFragment.notifyDataSetChanged();
   }
 
   /**
@@ -272,6 +392,70 @@ public class MainActivity extends AppCompatActivity
    */
   @Override
   public void onItemClick(Item item) {
-    Toast.makeText(this, item.getArtist(), Toast.LENGTH_SHORT).show();
+    if (!mBound || null == mService) return;
+    // The displayed items after the clicked one are played without gap
+    List<Item> lItems = ItemFragment.getDisplayedItems();
+    int lIndex = lItems.indexOf(item);
+    if (lIndex < 0) return;
+    showTrack(item);
+    mService.playQueue(new PlayQueue(sourcesOf(lItems), lIndex), new WildOnPlayerListener() {
+      @Override
+      public void onPrepared(MediaPlayer mp) {
+        mControllerFragment.onPrepared(mp);
+      }
+
+      @Override
+      public void onCompletion(MediaPlayer mp) {
+        mControllerFragment.onCompletion(mp);
+      }
+
+      @Override
+      public void onTrackChanged(MediaPlayer mp, int index) {
+        mControllerFragment.onTrackChanged(mp, index);
+        showTrack(lItems.get(index));
+      }
+
+      @Override
+      public void onError(MediaPlayer mp, int what, int extra) {
+        mControllerFragment.onError(mp, what, extra);
+      }
+    });
+  }
+
+  /**
+   * Show the title and the cover of the playing song in the notification
+   * @param item Item: The playing song
+   */
+  private void showTrack(Item item) {
+    if (null == mNotification) return;
+    mNotification.setTrack(item.getTitle(), item.getArtist(), item.getCover());
+    if (null != item.getCover()) {
+      CoverLoader.getInstance().load(item.getCover(), mNotification.getLargeIconWidth(),
+        mNotification.getLargeIconHeight(), mNotification::setCover);
+    }
+  }
+
+  /**
+   * Called when the list stops scrolling, the visible songs are prepared in advance
+   * @param items List: The items displayed on screen
+   */
+  @Override
+  public void onItemsVisible(List<Item> items) {
+    if (mBound && null != mService) mService.warmUp(sourcesOf(items));
+  }
+
+  /**
+   * Returns the data sources of the songs, resolved before they are given to the service
+   * which may read them after the activity is destroyed
+   * @param items List: The songs
+   * @return List: OBB entries played in place, or paths of the media files in the mounted OBB
+   */
+  private List<String> sourcesOf(List<Item> items) {
+    List<String> lSources = new ArrayList<>(items.size());
+    for (Item lItem : items) {
+      String lSource = MediaSources.obbSourceOf(lItem.getPath());
+      lSources.add((null != lSource) ? lSource : mObbManager.getFilePath(lItem.getPath()));
+    }
+    return lSources;
   }
 }
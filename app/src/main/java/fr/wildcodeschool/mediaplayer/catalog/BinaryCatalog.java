@@ -0,0 +1,138 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read only view of a catalog compiled by CatalogWriter.
+ * The file is memory-mapped and the song fields are decoded on demand,
+ * opening the catalog only checks the offsets against the pool.
+ *
+ * Layout, big-endian:
+ *   header  : magic, version, songCount, numberOfSongs, sourceSize, sourceDate, sourceHash
+ *   offsets : songCount * FIELD_COUNT * (poolOffset, byteLength)
+ *   pool    : UTF-8 bytes, identical strings are stored once
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class BinaryCatalog implements Catalog {
+  // File format
+  static final int MAGIC   = 0x57434154; // "WCAT"
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 40;
+  static final int ENTRY_SIZE  = 8;
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer mBuffer;
+  private final int mSongCount;
+  private final int mNumberOfSongs;
+  private final long mSourceSize;
+  private final long mSourceDate;
+  private final long mSourceHash;
+  private final int mPoolOffset;
+
+  private BinaryCatalog(ByteBuffer buffer) throws IOException {
+    mBuffer = buffer;
+    if (buffer.capacity() < HEADER_SIZE
+      || MAGIC != buffer.getInt(0)
+      || VERSION != buffer.getInt(4)) {
+      throw new IOException("Not a compiled catalog");
+    }
+    mSongCount     = buffer.getInt(8);
+    mNumberOfSongs = buffer.getInt(12);
+    mSourceSize    = buffer.getLong(16);
+    mSourceDate    = buffer.getLong(24);
+    mSourceHash    = buffer.getLong(32);
+    // Checked before the offsets size is computed, a corrupt count would overflow it
+    if (mSongCount < 0 || mSongCount > (buffer.capacity() - HEADER_SIZE) / (FIELD_COUNT * ENTRY_SIZE)) {
+      throw new IOException("Truncated catalog");
+    }
+    mPoolOffset    = HEADER_SIZE + mSongCount * FIELD_COUNT * ENTRY_SIZE;
+    checkFields();
+  }
+
+  /**
+   * Check that every field lies in the pool, getField never reads outside of it
+   * @throws IOException If an offset or a length is corrupt
+   */
+  private void checkFields() throws IOException {
+    int lPoolSize = mBuffer.capacity() - mPoolOffset;
+    for (int lEntry = HEADER_SIZE; lEntry < mPoolOffset; lEntry += ENTRY_SIZE) {
+      int lOffset = mBuffer.getInt(lEntry);
+      int lLength = mBuffer.getInt(lEntry + 4);
+      if (lOffset < 0 || lLength < 0 || lOffset > lPoolSize - lLength) {
+        throw new IOException("Field out of the pool at " + lEntry);
+      }
+    }
+  }
+
+  /**
+   * Map a compiled catalog in memory
+   * @param file File: The compiled catalog
+   * @return BinaryCatalog: The catalog view
+   * @throws IOException If the file can't be read or is not a valid catalog
+   */
+  public static BinaryCatalog open(File file) throws IOException {
+    try (RandomAccessFile lFile = new RandomAccessFile(file, "r");
+         FileChannel lChannel = lFile.getChannel()) {
+      // The mapping stays valid once the channel is closed
+      MappedByteBuffer lBuffer = lChannel.map(FileChannel.MapMode.READ_ONLY, 0, lChannel.size());
+      return new BinaryCatalog(lBuffer);
+    }
+  }
+
+  /**
+   * Wrap a compiled catalog already in memory
+   * @param buffer ByteBuffer: The compiled catalog content
+   * @return BinaryCatalog: The catalog view
+   * @throws IOException If the buffer is not a valid catalog
+   */
+  public static BinaryCatalog wrap(ByteBuffer buffer) throws IOException {
+    return new BinaryCatalog(buffer.slice());
+  }
+
+  // Accessors / Getters
+  @Override
+  public int getSongCount()     { return mSongCount; }
+  public int getNumberOfSongs() { return mNumberOfSongs; }
+  public long getSourceSize()   { return mSourceSize; }
+  public long getSourceDate()   { return mSourceDate; }
+  public long getSourceHash()   { return mSourceHash; }
+
+  /**
+   * Check if the catalog has been compiled from this source
+   * @param source CatalogFingerprint: Fingerprint of the JSON catalog
+   * @return boolean: true if the source is unchanged
+   */
+  public boolean isCompiledFrom(CatalogFingerprint source) {
+    return source.equals(new CatalogFingerprint(mSourceSize, mSourceDate, mSourceHash));
+  }
+
+  /**
+   * Decode a field of a song
+   * @param index int: The song index
+   * @param field int: One of the FIELD_* constants
+   * @return String: The field value
+   */
+  @Override
+  public String getField(int index, int field) {
+    if (index < 0 || index >= mSongCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSongCount);
+    }
+    int lEntry  = HEADER_SIZE + (index * FIELD_COUNT + field) * ENTRY_SIZE;
+    int lOffset = mBuffer.getInt(lEntry);
+    int lLength = mBuffer.getInt(lEntry + 4);
+    if (0 == lLength) return "";
+
+    byte[] lBytes = new byte[lLength];
+    // Duplicate keeps the shared buffer position untouched between threads
+    ByteBuffer lView = mBuffer.duplicate();
+    lView.position(mPoolOffset + lOffset);
+    lView.get(lBytes);
+    return new String(lBytes, UTF_8);
+  }
+}
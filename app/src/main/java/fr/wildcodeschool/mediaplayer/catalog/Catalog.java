@@ -0,0 +1,27 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+/**
+ * Read access to the songs of a catalog, field by field.
+ */
+public interface Catalog {
+  // Song fields
+  int FIELD_ARTIST = 0;
+  int FIELD_TITLE  = 1;
+  int FIELD_PATH   = 2;
+  int FIELD_COVER  = 3;
+  int FIELD_COUNT  = 4;
+
+  /**
+   * Returns the number of songs
+   * @return int: Number of songs in the catalog
+   */
+  int getSongCount();
+
+  /**
+   * Returns a field of a song
+   * @param index int: The song index
+   * @param field int: One of the FIELD_* constants
+   * @return String: The field value, never null
+   */
+  String getField(int index, int field);
+}
@@ -0,0 +1,113 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Cheap identity of a catalog file: its size, its modification date and a checksum
+ * of its first and last blocks. Two files with the same fingerprint are considered identical.
+ */
+@SuppressWarnings("unused")
+public final class CatalogFingerprint {
+  // Size of the hashed blocks at the start and at the end of the file
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  private final long mSize;
+  private final long mDate;
+  private final long mHash;
+
+  /**
+   * Constructor
+   * @param size long: File size in bytes
+   * @param date long: File modification date
+   * @param hash long: Checksum of the first and last blocks
+   */
+  public CatalogFingerprint(long size, long date, long hash) {
+    mSize = size;
+    mDate = date;
+    mHash = hash;
+  }
+
+  /**
+   * Compute the fingerprint of a file, at most 2 * BLOCK_SIZE bytes are read
+   * @param file File: The catalog file
+   * @return CatalogFingerprint: The file fingerprint
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public static CatalogFingerprint of(File file) throws IOException {
+    try (RandomAccessFile lFile = new RandomAccessFile(file, "r")) {
+      long lSize = lFile.length();
+      CRC32 lCrc = new CRC32();
+      byte[] lBlock = new byte[(int) Math.min(BLOCK_SIZE, lSize)];
+
+      // First block
+      lFile.readFully(lBlock);
+      lCrc.update(lBlock);
+      // Last block, skipped when it overlaps the first one
+      if (lSize > BLOCK_SIZE) {
+        lFile.seek(Math.max(BLOCK_SIZE, lSize - BLOCK_SIZE));
+        int lLength = (int) (lSize - lFile.getFilePointer());
+        lFile.readFully(lBlock, 0, lLength);
+        lCrc.update(lBlock, 0, lLength);
+      }
+      return new CatalogFingerprint(lSize, file.lastModified(), lCrc.getValue());
+    }
+  }
+
+  /**
+   * Compute the fingerprint of a catalog held in memory, the same blocks as a file are hashed
+   * @param buffer ByteBuffer: The catalog content, from its position to its limit
+   * @param date long: Modification date of the container of the catalog
+   * @return CatalogFingerprint: The catalog fingerprint
+   */
+  public static CatalogFingerprint of(ByteBuffer buffer, long date) {
+    ByteBuffer lBuffer = buffer.duplicate();
+    int lStart = lBuffer.position();
+    int lSize = lBuffer.remaining();
+    CRC32 lCrc = new CRC32();
+    byte[] lBlock = new byte[Math.min(BLOCK_SIZE, lSize)];
+
+    // First block
+    lBuffer.get(lBlock);
+    lCrc.update(lBlock);
+    // Last block, skipped when it overlaps the first one
+    if (lSize > BLOCK_SIZE) {
+      lBuffer.position(lStart + Math.max(BLOCK_SIZE, lSize - BLOCK_SIZE));
+      int lLength = lBuffer.remaining();
+      lBuffer.get(lBlock, 0, lLength);
+      lCrc.update(lBlock, 0, lLength);
+    }
+    return new CatalogFingerprint(lSize, date, lCrc.getValue());
+  }
+
+  // Accessors / Getters
+  public long getSize() { return mSize; }
+  public long getDate() { return mDate; }
+  public long getHash() { return mHash; }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof CatalogFingerprint)) return false;
+    CatalogFingerprint lOther = (CatalogFingerprint) o;
+    return mSize == lOther.mSize && mDate == lOther.mDate && mHash == lOther.mHash;
+  }
+
+  @Override
+  public int hashCode() {
+    int lResult = (int) (mSize ^ (mSize >>> 32));
+    lResult = 31 * lResult + (int) (mDate ^ (mDate >>> 32));
+    lResult = 31 * lResult + (int) (mHash ^ (mHash >>> 32));
+    return lResult;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "CatalogFingerprint[size=%d, date=%d, hash=%08x]",
+      mSize, mDate, mHash);
+  }
+}
@@ -0,0 +1,354 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.wildcodeschool.mediaplayer.json.JsonParser;
+import fr.wildcodeschool.mediaplayer.list.Item;
+import fr.wildcodeschool.mediaplayer.obb.ObbArchive;
+import fr.wildcodeschool.mediaplayer.obb.ObbManager;
+import fr.wildcodeschool.mediaplayer.obb.ObbOverlay;
+import fr.wildcodeschool.mediaplayer.search.SearchIndex;
+
+/**
+ * Load the catalog as a pipeline: mount the OBB, parse the songs in the loader thread,
+ * then publish the result in the UI thread.
+ * When the OBB is a zip archive, it is read in place and the mount stage is skipped.
+ * Listener callbacks are always called in the UI thread and only receive immutable data.
+ * The last loaded snapshot is kept for the process lifetime and reused as long as the
+ * catalog fingerprint does not change.
+ */
+@SuppressWarnings("unused")
+public final class CatalogLoader implements JsonParser.OnSongBatchListener {
+  // TAG
+  private static final String TAG = "CatalogLoader";
+  // Catalog file name in the OBB
+  private static final String CATALOG_SOURCE = "data.json";
+
+  // Loader thread
+  private final ExecutorService mExecutor =
+    Executors.newSingleThreadExecutor((Runnable r) -> {
+      Thread lThread = new Thread(r, TAG);
+      lThread.setDaemon(true);
+      return lThread;
+    });
+  // Used to publish the results in UI thread
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  private final ObbManager mObbManager;
+  private final File mCompiledFile;
+  private final CatalogLoaderListener mListener;
+
+  // Current load, only accessed in UI thread
+  private Future<?> mFuture = null;
+  private boolean isMountRequested = false;
+  private volatile boolean isCancelled = false;
+
+  // Items built by the loader thread, only accessed in loader thread
+  private List<Item> mItems = new ArrayList<>();
+  private SearchIndex mSearchIndex = null;
+  private CatalogFingerprint mFingerprint = null;
+
+  // Last loaded catalog, shared by the loader instances
+  private static volatile LoadedCatalog mLastCatalog = null;
+
+  // Metrics
+  private static final AtomicInteger mParseCount    = new AtomicInteger();
+  private static final AtomicInteger mCompiledCount = new AtomicInteger();
+  private static final AtomicInteger mSkipCount     = new AtomicInteger();
+
+  /**
+   * Receive the loading events in UI thread
+   */
+  public interface CatalogLoaderListener {
+    void onCatalogStarted(SearchIndex searchIndex);
+    void onCatalogProgress(List<Item> batch, int loaded);
+    void onCatalogLoaded(CatalogSnapshot snapshot);
+    void onCatalogFailed(IOException e);
+  }
+
+  /**
+   * Constructor
+   * @param obbManager ObbManager: The OBB which contains the catalog
+   * @param compiledFile File: The compiled catalog
+   * @param listener CatalogLoaderListener: Receiver of the loading events
+   */
+  public CatalogLoader(@NonNull ObbManager obbManager, @NonNull File compiledFile,
+                       @NonNull CatalogLoaderListener listener) {
+    mObbManager   = obbManager;
+    mCompiledFile = compiledFile;
+    mListener     = listener;
+  }
+
+  /**
+   * Start the pipeline. The OBB is read in place if it is a zip archive, otherwise
+   * it is mounted first and the parsing starts when onObbMounted is called.
+   */
+  @MainThread
+  public void start() {
+    if (isCancelled || null != mFuture) return;
+    if (mObbManager.isObbMounted()) {
+      onObbMounted();
+    } else if (!isMountRequested) {
+      // The archive is indexed in the loader thread, the OBB is mounted if it is not a zip
+      mFuture = mExecutor.submit(this::loadArchive);
+    }
+  }
+
+  /**
+   * Mount stage is over, start the parsing stage
+   */
+  @MainThread
+  public void onObbMounted() {
+    isMountRequested = false;
+    if (isCancelled || null != mFuture) return;
+
+    final File lSource = new File(mObbManager.getFilePath(CATALOG_SOURCE));
+    mFuture = mExecutor.submit(() -> load(lSource));
+  }
+
+  /**
+   * Cancel the current load, no more callback is called afterwards.
+   * Must be called when the activity is destroyed.
+   */
+  @MainThread
+  public void cancel() {
+    isCancelled = true;
+    if (null != mFuture) mFuture.cancel(true);
+    mMainHandler.removeCallbacksAndMessages(null);
+    mExecutor.shutdownNow();
+  }
+
+  // --------------------------------------------------------------------------
+  // Parsing stage
+  // --------------------------------------------------------------------------
+
+  // Accessors / Getters
+  public static int getParseCount()    { return mParseCount.get(); }
+  public static int getCompiledCount() { return mCompiledCount.get(); }
+  public static int getSkipCount()     { return mSkipCount.get(); }
+
+  /**
+   * Reuse the last snapshot if the catalog is unchanged, parse it otherwise
+   * @param source File: The JSON catalog
+   */
+  @WorkerThread
+  private void load(File source) {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    long lStart = System.nanoTime();
+    try {
+      mFingerprint = CatalogFingerprint.of(source);
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    load(lStart, () -> parse(source));
+  }
+
+  /**
+   * Read the catalog from the OBB zip archive without mounting it.
+   * Fall back to the mount stage when the OBB is not a zip or lacks the catalog.
+   * The catalog of the patch OBB replaces the main one.
+   */
+  @WorkerThread
+  private void loadArchive() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    long lStart = System.nanoTime();
+    ObbOverlay lArchive = mObbManager.openArchive();
+    ObbArchive.Entry lEntry = (null == lArchive) ? null : lArchive.getEntry(CATALOG_SOURCE);
+    ByteBuffer lSource = null;
+    if (null != lEntry) {
+      try {
+        lSource = lEntry.getArchive().getBuffer(lEntry);
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to read the catalog from " + lEntry.getArchive().getFile(), e);
+      }
+    }
+    if (null == lSource) {
+      publish(() -> {
+        mFuture = null;
+        isMountRequested = true;
+        mObbManager.mountObb();
+      });
+      return;
+    }
+
+    // Only the leaves of the catalog are hashed here
+    if (!mObbManager.verifyEntry(lEntry)) {
+      fail(new IOException("Corrupted catalog in " + lEntry.getArchive().getFile()));
+      return;
+    }
+
+    // The catalog may come from the patch OBB
+    final ByteBuffer lCatalog = lSource;
+    mFingerprint = CatalogFingerprint.of(lCatalog, lEntry.getArchive().getFile().lastModified());
+    load(lStart, () -> parse(lCatalog));
+  }
+
+  /**
+   * Reuse the last snapshot if the catalog is unchanged, parse it otherwise
+   * @param start long: Start date of the load in ns
+   * @param parser Runnable: Parse the catalog whose fingerprint is mFingerprint
+   */
+  @WorkerThread
+  private void load(long start, Runnable parser) {
+    // Unchanged catalog, zero parse work
+    final LoadedCatalog lLast = mLastCatalog;
+    if (null != lLast && lLast.mFingerprint.equals(mFingerprint)) {
+      mSkipCount.incrementAndGet();
+      logMetrics("skipped", start);
+      publish(() -> {
+        mFuture = null;
+        mListener.onCatalogLoaded(lLast.mSnapshot);
+      });
+      return;
+    }
+
+    // The index is filled while the songs are streamed, it can be queried meanwhile
+    mSearchIndex = new SearchIndex();
+    final SearchIndex lSearchIndex = mSearchIndex;
+    publish(() -> mListener.onCatalogStarted(lSearchIndex));
+    parser.run();
+    logMetrics("loaded", start);
+  }
+
+  /**
+   * Parse the catalog and build the playlist items
+   * @param source File: The JSON catalog
+   */
+  @WorkerThread
+  private void parse(File source) {
+    mItems = new ArrayList<>();
+    try {
+      boolean isParsed = JsonParser.getInstance().load(
+        source, mFingerprint, mCompiledFile, JsonParser.DEFAULT_BATCH_SIZE, this);
+      (isParsed ? mParseCount : mCompiledCount).incrementAndGet();
+    } catch (IOException e) {
+      fail(e);
+    } catch (CancellationException e) {
+      Log.i(TAG, "Catalog loading cancelled");
+    }
+  }
+
+  /**
+   * Parse the catalog read from the archive and build the playlist items
+   * @param source ByteBuffer: The JSON catalog
+   */
+  @WorkerThread
+  private void parse(ByteBuffer source) {
+    mItems = new ArrayList<>();
+    try {
+      boolean isParsed = JsonParser.getInstance().load(
+        source, mFingerprint, mCompiledFile, JsonParser.DEFAULT_BATCH_SIZE, this);
+      (isParsed ? mParseCount : mCompiledCount).incrementAndGet();
+    } catch (IOException e) {
+      fail(e);
+    } catch (CancellationException e) {
+      Log.i(TAG, "Catalog loading cancelled");
+    }
+  }
+
+  /**
+   * Log the loader metrics
+   * @param event String: What happened to the catalog
+   * @param start long: Start date of the load in ns
+   */
+  private static void logMetrics(String event, long start) {
+    Log.i(TAG, String.format(Locale.US,
+      "Catalog %s in %d ms (parsed=%d, compiled=%d, skipped=%d)",
+      event, (System.nanoTime() - start) / 1000000,
+      mParseCount.get(), mCompiledCount.get(), mSkipCount.get()));
+  }
+
+  /**
+   * Called from the loader thread with the next songs of the catalog
+   * @param batch List: The parsed songs
+   */
+  @Override @WorkerThread
+  public void onSongBatch(List<JsonParser.Song> batch) {
+    // Stop the parser when the activity is gone
+    if (isCancelled || Thread.currentThread().isInterrupted()) throw new CancellationException();
+
+    // Covers are decoded later by the RecyclerView adapter
+    List<Item> lBatch = new ArrayList<>(batch.size());
+    for (JsonParser.Song lSong : batch) {
+      mSearchIndex.addSong(mItems.size() + lBatch.size(), lSong.artist, lSong.title);
+      lBatch.add(new Item(lSong.artist, lSong.title, lSong.path, lSong.cover));
+    }
+    mItems.addAll(lBatch);
+
+    final List<Item> lPublished = Collections.unmodifiableList(lBatch);
+    final int lLoaded = mItems.size();
+    publish(() -> mListener.onCatalogProgress(lPublished, lLoaded));
+  }
+
+  /**
+   * Called from the loader thread when the whole catalog is read
+   * @param count int: Number of songs in the catalog
+   */
+  @Override @WorkerThread
+  public void onSongsLoaded(int count) {
+    final CatalogSnapshot lSnapshot =
+      new CatalogSnapshot(mItems, JsonParser.getInstance().getNumberOfSongs(), mSearchIndex);
+    // The loader thread never touches this list again
+    mItems = new ArrayList<>();
+    mLastCatalog = new LoadedCatalog(mFingerprint, lSnapshot);
+    publish(() -> {
+      mFuture = null;
+      mListener.onCatalogLoaded(lSnapshot);
+    });
+  }
+
+  /**
+   * Called from the loader thread when the catalog can't be read
+   * @param e IOException: The reading error
+   */
+  @WorkerThread
+  private void fail(IOException e) {
+    publish(() -> {
+      mFuture = null;
+      mListener.onCatalogFailed(e);
+    });
+  }
+
+  /**
+   * Run an event in UI thread unless the loader has been cancelled
+   * @param event Runnable: The listener call
+   */
+  private void publish(Runnable event) {
+    mMainHandler.post(() -> {
+      if (!isCancelled) event.run();
+    });
+  }
+
+  /**
+   * Snapshot and fingerprint of the catalog it has been loaded from
+   */
+  private static final class LoadedCatalog {
+    private final CatalogFingerprint mFingerprint;
+    private final CatalogSnapshot mSnapshot;
+
+    private LoadedCatalog(CatalogFingerprint fingerprint, CatalogSnapshot snapshot) {
+      mFingerprint = fingerprint;
+      mSnapshot    = snapshot;
+    }
+  }
+}
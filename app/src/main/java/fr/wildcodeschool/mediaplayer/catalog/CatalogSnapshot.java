@@ -0,0 +1,34 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import java.util.Collections;
+import java.util.List;
+
+import fr.wildcodeschool.mediaplayer.list.Item;
+import fr.wildcodeschool.mediaplayer.search.SearchIndex;
+
+/**
+ * Immutable result of a catalog load, safe to share between threads.
+ */
+@SuppressWarnings("unused")
+public final class CatalogSnapshot {
+  private final List<Item> mItems;
+  private final int mNumberOfSongs;
+  private final SearchIndex mSearchIndex;
+
+  /**
+   * Constructor
+   * @param items List: The playlist items, the list must not be modified afterwards
+   * @param numberOfSongs int: Value of the numberOfSongs JSON field
+   * @param searchIndex SearchIndex: Index of the items, no more songs are added to it
+   */
+  CatalogSnapshot(List<Item> items, int numberOfSongs, SearchIndex searchIndex) {
+    mItems = Collections.unmodifiableList(items);
+    mNumberOfSongs = numberOfSongs;
+    mSearchIndex = searchIndex;
+  }
+
+  // Accessors / Getters
+  public List<Item> getItems()          { return mItems; }
+  public int getNumberOfSongs()         { return mNumberOfSongs; }
+  public SearchIndex getSearchIndex()   { return mSearchIndex; }
+}
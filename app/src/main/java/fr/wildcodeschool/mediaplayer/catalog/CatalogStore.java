@@ -0,0 +1,104 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory catalog stored by column.
+ * Each field of each song is an index in a table of distinct strings,
+ * so an artist or a cover path shared by many songs is stored once.
+ * Songs are added by a single thread, then the store can be read from any thread.
+ */
+@SuppressWarnings("unused")
+public final class CatalogStore implements Catalog {
+  // Initial capacity of the columns
+  private static final int INITIAL_CAPACITY = 64;
+
+  // Distinct strings, index 0 is the empty string
+  private String[] mStrings = new String[INITIAL_CAPACITY];
+  private int mStringCount = 0;
+  // String to index, only used while the store is built
+  private Map<String, Integer> mStringIndex = new HashMap<>();
+
+  // One column per field, each cell is an index in mStrings
+  private final int[][] mColumns = new int[FIELD_COUNT][INITIAL_CAPACITY];
+  private int mSongCount = 0;
+
+  /**
+   * Constructor
+   */
+  public CatalogStore() {
+    intern("");
+  }
+
+  /**
+   * Add a song at the end of the store
+   * @param artist String: Artist name
+   * @param title String: Song title
+   * @param path String: Media path
+   * @param cover String: Cover path
+   * @return int: Index of the new song
+   */
+  public int addSong(String artist, String title, String path, String cover) {
+    if (mSongCount == mColumns[0].length) {
+      for (int lField = 0; lField < FIELD_COUNT; lField++) {
+        mColumns[lField] = Arrays.copyOf(mColumns[lField], mSongCount * 2);
+      }
+    }
+    mColumns[FIELD_ARTIST][mSongCount] = intern(artist);
+    mColumns[FIELD_TITLE][mSongCount]  = intern(title);
+    mColumns[FIELD_PATH][mSongCount]   = intern(path);
+    mColumns[FIELD_COVER][mSongCount]  = intern(cover);
+    return mSongCount++;
+  }
+
+  /**
+   * Release the building structures and the unused capacity.
+   * No song can be added afterwards.
+   */
+  public void trimToSize() {
+    mStringIndex = null;
+    mStrings = Arrays.copyOf(mStrings, mStringCount);
+    for (int lField = 0; lField < FIELD_COUNT; lField++) {
+      mColumns[lField] = Arrays.copyOf(mColumns[lField], mSongCount);
+    }
+  }
+
+  // Accessors / Getters
+  @Override
+  public int getSongCount()   { return mSongCount; }
+  public int getStringCount() { return mStringCount; }
+
+  /**
+   * Returns a field of a song
+   * @param index int: The song index
+   * @param field int: One of the FIELD_* constants
+   * @return String: The shared field value
+   */
+  @Override
+  public String getField(int index, int field) {
+    if (index < 0 || index >= mSongCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSongCount);
+    }
+    return mStrings[mColumns[field][index]];
+  }
+
+  /**
+   * Returns the index of the string in the table, the string is added if unknown
+   * @param value String: The string to store
+   * @return int: Index of the string in mStrings
+   */
+  private int intern(String value) {
+    if (null == value) value = "";
+    Integer lIndex = mStringIndex.get(value);
+    if (null != lIndex) return lIndex;
+
+    if (mStringCount == mStrings.length) {
+      mStrings = Arrays.copyOf(mStrings, mStringCount * 2);
+    }
+    mStrings[mStringCount] = value;
+    mStringIndex.put(value, mStringCount);
+    return mStringCount++;
+  }
+}
@@ -0,0 +1,128 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static fr.wildcodeschool.mediaplayer.catalog.BinaryCatalog.*;
+
+/**
+ * Build the binary catalog read by BinaryCatalog.
+ */
+@SuppressWarnings("unused")
+public final class CatalogWriter {
+  // Offset and length of each field of each song
+  private int[] mEntries = new int[16 * FIELD_COUNT * 2];
+  private int mSongCount = 0;
+  // String pool, identical strings are stored once
+  private final ByteArrayOutputStream mPool = new ByteArrayOutputStream();
+  private final Map<String, Integer> mPoolOffsets = new HashMap<>();
+
+  /**
+   * Add a song at the end of the catalog
+   * @param artist String: Artist name
+   * @param title String: Song title
+   * @param path String: Media path
+   * @param cover String: Cover path
+   */
+  public void addSong(String artist, String title, String path, String cover) {
+    int lRequired = (mSongCount + 1) * FIELD_COUNT * 2;
+    if (lRequired > mEntries.length) {
+      mEntries = Arrays.copyOf(mEntries, Math.max(lRequired, mEntries.length * 2));
+    }
+    int lBase = mSongCount * FIELD_COUNT * 2;
+    addField(lBase + FIELD_ARTIST * 2, artist);
+    addField(lBase + FIELD_TITLE * 2,  title);
+    addField(lBase + FIELD_PATH * 2,   path);
+    addField(lBase + FIELD_COVER * 2,  cover);
+    mSongCount++;
+  }
+
+  /**
+   * Add all the songs of a catalog
+   * @param catalog Catalog: The songs to add
+   */
+  public void addSongs(Catalog catalog) {
+    for (int i = 0; i < catalog.getSongCount(); i++) {
+      addSong(catalog.getField(i, FIELD_ARTIST), catalog.getField(i, FIELD_TITLE),
+        catalog.getField(i, FIELD_PATH), catalog.getField(i, FIELD_COVER));
+    }
+  }
+
+  /**
+   * Returns the number of songs already added
+   * @return int: Number of songs
+   */
+  public int getSongCount() {
+    return mSongCount;
+  }
+
+  /**
+   * Write the catalog in a temporary file, then rename it.
+   * A reader never sees a partially written catalog.
+   * @param file File: Destination of the catalog
+   * @param numberOfSongs int: Value of the numberOfSongs JSON field
+   * @param source CatalogFingerprint: Fingerprint of the JSON source
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public void write(File file, int numberOfSongs, CatalogFingerprint source)
+    throws IOException {
+    File lTemp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream lFileStream = new FileOutputStream(lTemp);
+         DataOutputStream lStream = new DataOutputStream(new BufferedOutputStream(lFileStream))) {
+      // Header
+      lStream.writeInt(MAGIC);
+      lStream.writeInt(VERSION);
+      lStream.writeInt(mSongCount);
+      lStream.writeInt(numberOfSongs);
+      lStream.writeLong(source.getSize());
+      lStream.writeLong(source.getDate());
+      lStream.writeLong(source.getHash());
+      // Offsets table
+      for (int i = 0; i < mSongCount * FIELD_COUNT * 2; i++) {
+        lStream.writeInt(mEntries[i]);
+      }
+      // String pool
+      mPool.writeTo(lStream);
+      lStream.flush();
+      lFileStream.getFD().sync();
+    } catch (IOException e) {
+      //noinspection ResultOfMethodCallIgnored
+      lTemp.delete();
+      throw e;
+    }
+    if (!lTemp.renameTo(file)) {
+      //noinspection ResultOfMethodCallIgnored
+      lTemp.delete();
+      throw new IOException("Unable to rename " + lTemp + " to " + file);
+    }
+  }
+
+  /**
+   * Store a string in the pool and its location in the offsets table
+   * @param entry int: Index of the entry in the offsets table
+   * @param value String: The field value
+   */
+  private void addField(int entry, String value) {
+    if (null == value || value.isEmpty()) {
+      mEntries[entry]     = 0;
+      mEntries[entry + 1] = 0;
+      return;
+    }
+    byte[] lBytes = value.getBytes(UTF_8);
+    Integer lOffset = mPoolOffsets.get(value);
+    if (null == lOffset) {
+      lOffset = mPool.size();
+      mPool.write(lBytes, 0, lBytes.length);
+      mPoolOffsets.put(value, lOffset);
+    }
+    mEntries[entry]     = lOffset;
+    mEntries[entry + 1] = lBytes.length;
+  }
+}
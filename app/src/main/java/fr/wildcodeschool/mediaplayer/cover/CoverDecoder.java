@@ -0,0 +1,115 @@
+package fr.wildcodeschool.mediaplayer.cover;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import fr.wildcodeschool.mediaplayer.util.ByteBufferInputStream;
+
+@SuppressWarnings("WeakerAccess")
+public final class CoverDecoder {
+
+  private CoverDecoder() {}
+
+  /**
+   * Decode a cover downsampled to the requested size.
+   * A first pass only reads the image bounds, then the pixels are decoded with the largest
+   * power of two sample size that keeps the image bigger than the target, and finally scaled
+   * down to the exact target size.
+   * @param path String: Absolute path of the image file
+   * @param reqWidth int: Width of the target view in pixels
+   * @param reqHeight int: Height of the target view in pixels
+   * @return Bitmap: The decoded bitmap or null if the file can't be decoded
+   */
+  @Nullable
+  public static Bitmap decodeSampledBitmap(@NonNull String path, int reqWidth, int reqHeight) {
+    // Bounds only pass, no pixel is allocated here
+    BitmapFactory.Options lOptions = new BitmapFactory.Options();
+    lOptions.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(path, lOptions);
+    if (lOptions.outWidth <= 0 || lOptions.outHeight <= 0) return null;
+
+    // Sampled decode pass
+    lOptions.inSampleSize = calculateInSampleSize(
+      lOptions.outWidth, lOptions.outHeight, reqWidth, reqHeight);
+    lOptions.inJustDecodeBounds = false;
+    Bitmap lBitmap = BitmapFactory.decodeFile(path, lOptions);
+    if (null == lBitmap) return null;
+
+    return scaleToFit(lBitmap, reqWidth, reqHeight);
+  }
+
+  /**
+   * Decode a cover held in memory downsampled to the requested size, typically a slice
+   * of the OBB archive. The bytes are read in place for both passes.
+   * @param source ByteBuffer: The encoded image, from its position to its limit
+   * @param reqWidth int: Width of the target view in pixels
+   * @param reqHeight int: Height of the target view in pixels
+   * @return Bitmap: The decoded bitmap or null if the image can't be decoded
+   */
+  @Nullable
+  public static Bitmap decodeSampledBitmap(@NonNull ByteBuffer source, int reqWidth, int reqHeight) {
+    // Bounds only pass, no pixel is allocated here
+    BitmapFactory.Options lOptions = new BitmapFactory.Options();
+    lOptions.inJustDecodeBounds = true;
+    BitmapFactory.decodeStream(new ByteBufferInputStream(source), null, lOptions);
+    if (lOptions.outWidth <= 0 || lOptions.outHeight <= 0) return null;
+
+    // Sampled decode pass
+    lOptions.inSampleSize = calculateInSampleSize(
+      lOptions.outWidth, lOptions.outHeight, reqWidth, reqHeight);
+    lOptions.inJustDecodeBounds = false;
+    InputStream lInput = new ByteBufferInputStream(source);
+    Bitmap lBitmap = BitmapFactory.decodeStream(lInput, null, lOptions);
+    if (null == lBitmap) return null;
+
+    return scaleToFit(lBitmap, reqWidth, reqHeight);
+  }
+
+  /**
+   * Compute the largest power of two sample size that keeps both
+   * dimensions larger than or equal to the requested ones.
+   * @param width int: Raw width of the image
+   * @param height int: Raw height of the image
+   * @param reqWidth int: Width of the target view in pixels
+   * @param reqHeight int: Height of the target view in pixels
+   * @return int: The sample size to give to BitmapFactory.Options
+   */
+  static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+    int lSampleSize = 1;
+    if (reqWidth <= 0 || reqHeight <= 0) return lSampleSize;
+
+    while ((width / (lSampleSize * 2)) >= reqWidth
+      && (height / (lSampleSize * 2)) >= reqHeight) {
+      lSampleSize *= 2;
+    }
+    return lSampleSize;
+  }
+
+  /**
+   * Scale the bitmap down to the target size, aspect ratio is kept.
+   * The source bitmap is recycled when a new one is created.
+   * @param src Bitmap: The sampled bitmap
+   * @param reqWidth int: Width of the target view in pixels
+   * @param reqHeight int: Height of the target view in pixels
+   * @return Bitmap: The scaled bitmap
+   */
+  private static Bitmap scaleToFit(@NonNull Bitmap src, int reqWidth, int reqHeight) {
+    if (reqWidth <= 0 || reqHeight <= 0) return src;
+
+    float lRatio = Math.min(
+      (float) reqWidth / src.getWidth(),
+      (float) reqHeight / src.getHeight());
+    if (lRatio >= 1f) return src;
+
+    int lWidth  = Math.max(1, Math.round(src.getWidth() * lRatio));
+    int lHeight = Math.max(1, Math.round(src.getHeight() * lRatio));
+    Bitmap lScaled = Bitmap.createScaledBitmap(src, lWidth, lHeight, true);
+    if (lScaled != src) src.recycle();
+    return lScaled;
+  }
+}
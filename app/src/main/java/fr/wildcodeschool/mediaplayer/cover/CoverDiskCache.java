@@ -0,0 +1,217 @@
+package fr.wildcodeschool.mediaplayer.cover;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+@SuppressWarnings("unused")
+public final class CoverDiskCache {
+  // TAG
+  private static final String TAG = "CoverDiskCache";
+  // Thumbnail file extensions
+  private static final String EXT_THUMB = ".webp";
+  private static final String EXT_TEMP  = ".tmp";
+  // Thumbnail compression
+  private static final Bitmap.CompressFormat FORMAT = Bitmap.CompressFormat.WEBP;
+  private static final int QUALITY = 90;
+
+  // Cache directory
+  private final File mDirectory;
+  // Maximum size of the directory in bytes
+  private final long mMaxSize;
+  // Thumbnail sizes in access order, the eldest entry is the first one
+  private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+  private long mSize = 0;
+  private boolean isOpened = false;
+
+  /**
+   * Constructor
+   * @param directory File: Directory where the thumbnails are stored
+   * @param maxSize long: Maximum size of the directory in bytes
+   */
+  CoverDiskCache(@NonNull File directory, long maxSize) {
+    mDirectory = directory;
+    mMaxSize   = maxSize;
+  }
+
+  /**
+   * Build the cache key of a thumbnail.
+   * The source archive size and date are part of the key, so an updated OBB
+   * never serves the thumbnails of the previous one.
+   * @param cover String: The cover key
+   * @param sourceSize long: Size of the archive which contains the cover
+   * @param sourceDate long: Last modification date of the archive
+   * @param width int: Width of the thumbnail
+   * @param height int: Height of the thumbnail
+   * @return String: The file name of the thumbnail, without extension
+   */
+  @NonNull
+  static String keyOf(@NonNull String cover, long sourceSize, long sourceDate, int width, int height) {
+    String lRaw = String.format(Locale.US, "%s|%d|%d|%dx%d", cover, sourceSize, sourceDate, width, height);
+    try {
+      byte[] lDigest = MessageDigest.getInstance("SHA-1").digest(lRaw.getBytes(Charset.forName("UTF-8")));
+      StringBuilder lBuilder = new StringBuilder(lDigest.length * 2);
+      for (byte lByte : lDigest) {
+        lBuilder.append(String.format(Locale.US, "%02x", lByte));
+      }
+      return lBuilder.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-1 is always available on Android
+      return Integer.toHexString(lRaw.hashCode());
+    }
+  }
+
+  /**
+   * Read a thumbnail from the cache
+   * @param key String: The key built by keyOf
+   * @return Bitmap: The thumbnail or null if it is not cached
+   */
+  @Nullable @WorkerThread
+  Bitmap get(@NonNull String key) {
+    File lFile;
+    synchronized (this) {
+      open();
+      if (null == mEntries.get(key)) return null;
+      lFile = fileOf(key, EXT_THUMB);
+      // Persist the access order for the next launches
+      //noinspection ResultOfMethodCallIgnored
+      lFile.setLastModified(System.currentTimeMillis());
+    }
+
+    Bitmap lBitmap = BitmapFactory.decodeFile(lFile.getAbsolutePath());
+    if (null == lBitmap) remove(key);
+    return lBitmap;
+  }
+
+  /**
+   * Write a thumbnail in the cache.
+   * The bitmap is compressed in a temporary file renamed when complete,
+   * so a crash never leaves a truncated thumbnail.
+   * @param key String: The key built by keyOf
+   * @param bitmap Bitmap: The thumbnail to store
+   */
+  @WorkerThread
+  void put(@NonNull String key, @NonNull Bitmap bitmap) {
+    synchronized (this) {
+      open();
+    }
+
+    File lTemp = fileOf(key + '.' + Thread.currentThread().getId(), EXT_TEMP);
+    try (FileOutputStream lStream = new FileOutputStream(lTemp)) {
+      if (!bitmap.compress(FORMAT, QUALITY, lStream)) throw new IOException("compress failed");
+      lStream.getFD().sync();
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write thumbnail " + key, e);
+      //noinspection ResultOfMethodCallIgnored
+      lTemp.delete();
+      return;
+    }
+
+    synchronized (this) {
+      File lFile = fileOf(key, EXT_THUMB);
+      if (!lTemp.renameTo(lFile)) {
+        //noinspection ResultOfMethodCallIgnored
+        lTemp.delete();
+        return;
+      }
+      Long lPrevious = mEntries.put(key, lFile.length());
+      if (null != lPrevious) mSize -= lPrevious;
+      mSize += lFile.length();
+      trimToSize(mMaxSize);
+    }
+  }
+
+  /**
+   * Remove a thumbnail from the cache
+   * @param key String: The key built by keyOf
+   */
+  synchronized void remove(@NonNull String key) {
+    Long lLength = mEntries.remove(key);
+    if (null != lLength) mSize -= lLength;
+    //noinspection ResultOfMethodCallIgnored
+    fileOf(key, EXT_THUMB).delete();
+  }
+
+  /**
+   * Returns the size of the stored thumbnails
+   * @return long: Size in bytes
+   */
+  synchronized long getSize() {
+    return mSize;
+  }
+
+  // --------------------------------------------------------------------------
+  // Helpers
+  // --------------------------------------------------------------------------
+
+  /**
+   * Build the in-memory index from the directory content.
+   * Files are ordered by last access date, stale temporary files are deleted.
+   */
+  private void open() {
+    if (isOpened) return;
+    isOpened = true;
+
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+      Log.e(TAG, "Unable to create " + mDirectory);
+      return;
+    }
+
+    File[] lFiles = mDirectory.listFiles();
+    if (null == lFiles) return;
+    Arrays.sort(lFiles, (File a, File b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+    for (File lFile : lFiles) {
+      String lName = lFile.getName();
+      if (lName.endsWith(EXT_THUMB)) {
+        mEntries.put(lName.substring(0, lName.length() - EXT_THUMB.length()), lFile.length());
+        mSize += lFile.length();
+      } else {
+        // Interrupted write or unknown file
+        //noinspection ResultOfMethodCallIgnored
+        lFile.delete();
+      }
+    }
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Remove the least recently used thumbnails until the size fits in the budget
+   * @param maxSize long: Budget in bytes
+   */
+  private void trimToSize(long maxSize) {
+    Iterator<Map.Entry<String, Long>> lIterator = mEntries.entrySet().iterator();
+    while (mSize > maxSize && lIterator.hasNext()) {
+      Map.Entry<String, Long> lEldest = lIterator.next();
+      //noinspection ResultOfMethodCallIgnored
+      fileOf(lEldest.getKey(), EXT_THUMB).delete();
+      mSize -= lEldest.getValue();
+      lIterator.remove();
+    }
+  }
+
+  /**
+   * Returns the file related to the key
+   * @param key String: The key built by keyOf
+   * @param extension String: The file extension
+   * @return File: The file in the cache directory
+   */
+  private File fileOf(String key, String extension) {
+    return new File(mDirectory, key + extension);
+  }
+}
@@ -0,0 +1,277 @@
+package fr.wildcodeschool.mediaplayer.cover;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.wildcodeschool.mediaplayer.MainActivity;
+import fr.wildcodeschool.mediaplayer.R;
+import fr.wildcodeschool.mediaplayer.obb.ObbArchive;
+import fr.wildcodeschool.mediaplayer.obb.ObbOverlay;
+
+@SuppressWarnings("unused")
+public final class CoverLoader {
+  // Number of decoding threads
+  private static final int POOL_SIZE =
+    Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+  // Thumbnails directory and size
+  private static final String DISK_CACHE_DIR = "covers";
+  private static final long DISK_CACHE_SIZE = 16 * 1024 * 1024;
+
+  // Decoding threads
+  private final ExecutorService mExecutor =
+    Executors.newFixedThreadPool(POOL_SIZE, (Runnable r) -> {
+      Thread lThread = new Thread(r, "CoverLoader");
+      lThread.setDaemon(true);
+      return lThread;
+    });
+  // Used to deliver the bitmaps in UI thread
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  // Convert the cover keys in file paths
+  private volatile PathResolver mResolver = null;
+  // Archives read in place, replace the resolver when set
+  private volatile ObbOverlay mArchive = null;
+  // Checks the covers read from the archives, may be null
+  private volatile EntryVerifier mVerifier = null;
+  // Size and date of the archives which contain the covers
+  private volatile long mSourceSize = 0;
+  private volatile long mSourceDate = 0;
+  // Persistent thumbnails, lazily opened in a decoding thread
+  private CoverDiskCache mDiskCache = null;
+
+  /**
+   * Convert a cover key in the absolute path of the cover file
+   */
+  public interface PathResolver {
+    String getFilePath(String key);
+  }
+
+  /**
+   * Check the bytes of a cover read from the archives
+   */
+  public interface EntryVerifier {
+    boolean verifyEntry(ObbArchive.Entry entry);
+  }
+
+  /**
+   * Receive a cover which is not displayed by an ImageView, in UI thread
+   */
+  public interface OnCoverLoadedListener {
+    void onCoverLoaded(String key, Bitmap cover);
+  }
+
+  //Singleton
+  private static final CoverLoader mInstance = new CoverLoader();
+  public static CoverLoader getInstance() {
+    return mInstance;
+  }
+  private CoverLoader() {}
+
+  /**
+   * Set the source of the cover files
+   * @param resolver PathResolver: Cover key to file path converter, null to detach it
+   * @param archives File: The archives which contain the covers, used to invalidate the thumbnails
+   */
+  public void setSource(@Nullable PathResolver resolver, @Nullable File... archives) {
+    if (null != archives && archives.length > 0) {
+      long lSize = 0;
+      long lDate = 0;
+      for (File lArchive : archives) {
+        lSize += lArchive.length();
+        lDate = Math.max(lDate, lArchive.lastModified());
+      }
+      mSourceSize = lSize;
+      mSourceDate = lDate;
+    }
+    mResolver = resolver;
+  }
+
+  /**
+   * Read the cover files from the OBB archives instead of the mounted OBB
+   * @param archive ObbOverlay: The archives which contain the covers, null to use the resolver
+   * @param verifier EntryVerifier: Checks each cover before its decoding, null to trust the archives
+   */
+  public void setArchive(@Nullable ObbOverlay archive, @Nullable EntryVerifier verifier) {
+    if (null != archive) {
+      mSourceSize = archive.length();
+      mSourceDate = archive.lastModified();
+    }
+    mVerifier = verifier;
+    mArchive = archive;
+  }
+
+  /**
+   * Returns the thumbnails cache, created on first call
+   * @return CoverDiskCache: The thumbnails cache
+   */
+  private synchronized CoverDiskCache getDiskCache() {
+    if (null == mDiskCache) {
+      File lDirectory = new File(MainActivity.getAppContext().getCacheDir(), DISK_CACHE_DIR);
+      mDiskCache = new CoverDiskCache(lDirectory, DISK_CACHE_SIZE);
+    }
+    return mDiskCache;
+  }
+
+  /**
+   * Load asynchronously a cover into the ImageView.
+   * A previous request attached to the same view is cancelled.
+   * @param target ImageView: The view which displays the cover
+   * @param key String: The cover key
+   * @param reqWidth int: Width of the target view in pixels
+   * @param reqHeight int: Height of the target view in pixels
+   */
+  @MainThread
+  public void load(@NonNull ImageView target, @Nullable String key, int reqWidth, int reqHeight) {
+    cancel(target);
+    if (null == key) {
+      target.setImageDrawable(null);
+      return;
+    }
+
+    // Memory cache hit, no decoding needed
+    Bitmap lBitmap = CoverMemoryCache.getInstance().get(key);
+    if (null != lBitmap) {
+      target.setImageBitmap(lBitmap);
+      return;
+    }
+
+    target.setImageDrawable(null);
+    CoverRequest lRequest = new CoverRequest(target, null, key, reqWidth, reqHeight);
+    target.setTag(R.id.cover_request, lRequest);
+    lRequest.mFuture = mExecutor.submit(lRequest);
+  }
+
+  /**
+   * Load asynchronously a cover for another receiver than an ImageView, a notification for example
+   * @param key String: The cover key
+   * @param reqWidth int: Width of the cover in pixels
+   * @param reqHeight int: Height of the cover in pixels
+   * @param listener OnCoverLoadedListener: Receives the cover in UI thread, not called if missing
+   */
+  @MainThread
+  public void load(@NonNull String key, int reqWidth, int reqHeight,
+                   @NonNull OnCoverLoadedListener listener) {
+    // Memory cache hit, no decoding needed
+    Bitmap lBitmap = CoverMemoryCache.getInstance().get(key);
+    if (null != lBitmap) {
+      listener.onCoverLoaded(key, lBitmap);
+      return;
+    }
+    CoverRequest lRequest = new CoverRequest(null, listener, key, reqWidth, reqHeight);
+    lRequest.mFuture = mExecutor.submit(lRequest);
+  }
+
+  /**
+   * Cancel the pending request attached to the ImageView.
+   * Must be called when the view is recycled.
+   * @param target ImageView: The view which displays the cover
+   */
+  @MainThread
+  public void cancel(@NonNull ImageView target) {
+    Object lTag = target.getTag(R.id.cover_request);
+    if (lTag instanceof CoverRequest) {
+      ((CoverRequest) lTag).cancel();
+    }
+    target.setTag(R.id.cover_request, null);
+  }
+
+  // --------------------------------------------------------------------------
+  // Decoding request
+  // --------------------------------------------------------------------------
+  private final class CoverRequest implements Runnable {
+    // Receiver of the cover, either a view or a listener
+    private final ImageView mTarget;
+    private final OnCoverLoadedListener mListener;
+    private final String mKey;
+    private final int mWidth;
+    private final int mHeight;
+    private volatile boolean isCancelled = false;
+    private Future<?> mFuture;
+
+    private CoverRequest(ImageView target, OnCoverLoadedListener listener, String key,
+                         int width, int height) {
+      mTarget   = target;
+      mListener = listener;
+      mKey      = key;
+      mWidth    = width;
+      mHeight   = height;
+    }
+
+    /**
+     * Cancel the request, the decoding is interrupted if not already started
+     */
+    private void cancel() {
+      isCancelled = true;
+      if (null != mFuture) mFuture.cancel(false);
+    }
+
+    @Override
+    public void run() {
+      if (isCancelled) return;
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+      ObbOverlay lArchive = mArchive;
+      PathResolver lResolver = mResolver;
+      if (null == lArchive && null == lResolver) return;
+
+      // Thumbnail already scaled by a previous launch
+      String lDiskKey = CoverDiskCache.keyOf(mKey, mSourceSize, mSourceDate, mWidth, mHeight);
+      Bitmap lCached = getDiskCache().get(lDiskKey);
+      if (null == lCached && !isCancelled) {
+        // Full decoding from the archive
+        lCached = (null != lArchive)
+          ? decode(lArchive)
+          : CoverDecoder.decodeSampledBitmap(lResolver.getFilePath(mKey), mWidth, mHeight);
+        if (null != lCached) getDiskCache().put(lDiskKey, lCached);
+      }
+      if (null == lCached) return;
+      final Bitmap lBitmap = lCached;
+      // Keep the decoded bitmap even if the request has been cancelled meanwhile
+      CoverMemoryCache.getInstance().put(mKey, lBitmap);
+      if (isCancelled) return;
+
+      mMainHandler.post(() -> {
+        if (null == mTarget) {
+          mListener.onCoverLoaded(mKey, lBitmap);
+          return;
+        }
+        // The view may have been recycled and bound to another item
+        if (!isCancelled && this == mTarget.getTag(R.id.cover_request)) {
+          mTarget.setImageBitmap(lBitmap);
+          mTarget.setTag(R.id.cover_request, null);
+        }
+      });
+    }
+
+    /**
+     * Decode the cover from the archive bytes, without extracting it
+     * @param archive ObbOverlay: The archives which contain the cover
+     * @return Bitmap: The decoded cover or null if it is missing or invalid
+     */
+    private Bitmap decode(ObbOverlay archive) {
+      try {
+        ObbArchive.Entry lEntry = archive.getEntry(mKey);
+        if (null == lEntry) return null;
+        // Leaves of the cover hashed once, on first display
+        EntryVerifier lVerifier = mVerifier;
+        if (null != lVerifier && !lVerifier.verifyEntry(lEntry)) return null;
+        ByteBuffer lSource = lEntry.getArchive().getBuffer(lEntry);
+        return CoverDecoder.decodeSampledBitmap(lSource, mWidth, mHeight);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package fr.wildcodeschool.mediaplayer.cover;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.FloatRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.Locale;
+
+import fr.wildcodeschool.mediaplayer.MainActivity;
+
+@SuppressWarnings("unused")
+public final class CoverMemoryCache implements ComponentCallbacks2 {
+  // TAG
+  private static final String TAG = "CoverMemoryCache";
+  // Default part of the application memory class used by the covers
+  public static final float DEFAULT_MEMORY_FRACTION = 1f / 8f;
+  // Memory class unit
+  private static final int MEGABYTE = 1024 * 1024;
+
+  // Application memory class in bytes
+  private final long mMemoryClass;
+  // Bitmaps evicted by total byte count
+  private final LruCache<String, Bitmap> mCache;
+
+  //Singleton
+  private static final CoverMemoryCache mInstance = new CoverMemoryCache();
+  public static CoverMemoryCache getInstance() {
+    return mInstance;
+  }
+
+  /**
+   * Constructor
+   */
+  private CoverMemoryCache() {
+    Context lContext = MainActivity.getAppContext();
+    ActivityManager lManager =
+      (ActivityManager) lContext.getSystemService(Context.ACTIVITY_SERVICE);
+    mMemoryClass = (long) lManager.getMemoryClass() * MEGABYTE;
+
+    mCache = new LruCache<String, Bitmap>(budgetOf(DEFAULT_MEMORY_FRACTION)) {
+      @Override
+      protected int sizeOf(@NonNull String key, @NonNull Bitmap value) {
+        return byteCountOf(value);
+      }
+    };
+
+    // Shrink the cache when the system is running low on memory
+    lContext.registerComponentCallbacks(this);
+  }
+
+  /**
+   * Change the memory budget of the cache.
+   * Entries are evicted if the current content exceeds the new budget.
+   * @param fraction float: Part of the application memory class used by the covers
+   */
+  public void setMemoryFraction(@FloatRange(from = 0.0, to = 1.0) float fraction) {
+    mCache.resize(budgetOf(fraction));
+  }
+
+  /**
+   * Returns the cached bitmap
+   * @param key String: The cover key
+   * @return Bitmap: The cached bitmap or null
+   */
+  @Nullable
+  public Bitmap get(@NonNull String key) {
+    return mCache.get(key);
+  }
+
+  /**
+   * Store a bitmap in the cache
+   * @param key String: The cover key
+   * @param bitmap Bitmap: The decoded cover
+   */
+  public void put(@NonNull String key, @NonNull Bitmap bitmap) {
+    mCache.put(key, bitmap);
+  }
+
+  /**
+   * Remove all the cached bitmaps
+   */
+  public void clear() {
+    mCache.evictAll();
+  }
+
+  // Accessors / Getters
+  public int getSize()          { return mCache.size(); }
+  public int getMaxSize()       { return mCache.maxSize(); }
+  public int getHitCount()      { return mCache.hitCount(); }
+  public int getMissCount()     { return mCache.missCount(); }
+  public int getEvictionCount() { return mCache.evictionCount(); }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+      "CoverMemoryCache[size=%d/%d bytes, hits=%d, misses=%d, evictions=%d]",
+      getSize(), getMaxSize(), getHitCount(), getMissCount(), getEvictionCount());
+  }
+
+  // --------------------------------------------------------------------------
+  // ComponentCallbacks2 interface
+  // --------------------------------------------------------------------------
+
+  /**
+   * Called when the operating system has determined that it is a good time for a process to
+   * trim unneeded memory from its process.
+   * @param level int: The context of the trim, giving a hint of the amount of trimming the
+   *              application may like to perform.
+   */
+  @Override
+  public void onTrimMemory(int level) {
+    if (level >= TRIM_MEMORY_BACKGROUND) {
+      // The process is in the LRU list, release everything
+      mCache.evictAll();
+    } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+      // Covers are still visible, keep the half of them
+      mCache.trimToSize(mCache.maxSize() / 2);
+    }
+    Log.i(TAG, "onTrimMemory(" + level + ") " + this);
+  }
+
+  /**
+   * This is called when the overall system is running low on memory.
+   */
+  @Override
+  public void onLowMemory() {
+    mCache.evictAll();
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    // Nothing to do
+  }
+
+  // --------------------------------------------------------------------------
+  // Helpers
+  // --------------------------------------------------------------------------
+
+  /**
+   * Convert a part of the memory class in bytes
+   * @param fraction float: Part of the application memory class
+   * @return int: The budget in bytes
+   */
+  private int budgetOf(float fraction) {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) (mMemoryClass * fraction)));
+  }
+
+  /**
+   * Returns the real memory footprint of the bitmap
+   * @param bitmap Bitmap: The bitmap to measure
+   * @return int: The size in bytes
+   */
+  static int byteCountOf(@NonNull Bitmap bitmap) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      return bitmap.getAllocationByteCount();
+    }
+    return bitmap.getByteCount();
+  }
+}
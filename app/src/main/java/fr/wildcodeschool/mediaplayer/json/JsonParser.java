@@ -1,26 +1,54 @@
 package fr.wildcodeschool.mediaplayer.json;
 
 import android.util.JsonReader;
+import android.util.Log;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
+import fr.wildcodeschool.mediaplayer.catalog.BinaryCatalog;
+import fr.wildcodeschool.mediaplayer.catalog.Catalog;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogFingerprint;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogStore;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogWriter;
+import fr.wildcodeschool.mediaplayer.util.ByteBufferInputStream;
+
 @SuppressWarnings("unused")
 public class JsonParser {
-  private int mNumberOfSongs = 0;
-  private List<Song> mSongs = new ArrayList<>();
+  // TAG
+  private static final String TAG = "JsonParser";
+  // Number of songs sent to the listener at once
+  public static final int DEFAULT_BATCH_SIZE = 64;
+
+  private volatile int mNumberOfSongs = 0;
+  private volatile List<Song> mSongs = new SongList(new CatalogStore());
+  // Songs storage, compiled file or in-memory columns
+  private volatile Catalog mCatalog = null;
 
-  // Storage class
-  public class Song {
+  // Song view, created on demand from the catalog
+  public static class Song {
     public String artist = "";
     public String title  = "";
     public String path   = "";
     public String cover  = "";
   }
 
+  /**
+   * Streaming mode listener, called from the parsing thread.
+   * A RuntimeException thrown by the listener stops the parsing.
+   */
+  public interface OnSongBatchListener {
+    void onSongBatch(List<Song> batch);
+    void onSongsLoaded(int count);
+  }
+
   //Singleton
   private static final JsonParser mInstance = new JsonParser();
   public static JsonParser getInstance() {
@@ -33,37 +61,177 @@ public class JsonParser {
   public List<Song> getSongList() { return mSongs; }
   public Song getSong(int index)  { return mSongs.get(index); }
 
+  /**
+   * Load the catalog from its compiled form.
+   * The JSON source is parsed and compiled only the first time it is seen or when it changed,
+   * otherwise the compiled catalog is memory-mapped and the songs are decoded on demand.
+   * @param source File: The JSON catalog
+   * @param compiled File: The compiled catalog, created or replaced if needed
+   * @return boolean: true if the JSON source has been parsed
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public boolean load(File source, File compiled) throws IOException {
+    return load(source, CatalogFingerprint.of(source), compiled, 0, null);
+  }
+
+  /**
+   * Load the catalog from its compiled form, songs are sent to the listener in batches.
+   * @param source File: The JSON catalog
+   * @param fingerprint CatalogFingerprint: Fingerprint of the JSON catalog
+   * @param compiled File: The compiled catalog, created or replaced if needed
+   * @param batchSize int: Number of songs sent to the listener at once
+   * @param listener OnSongBatchListener: Receiver of the songs, may be null
+   * @return boolean: true if the JSON source has been parsed
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public boolean load(File source, CatalogFingerprint fingerprint, File compiled,
+                      int batchSize, OnSongBatchListener listener) throws IOException {
+    return load(() -> new FileInputStream(source), source.getPath(),
+      fingerprint, compiled, batchSize, listener);
+  }
+
+  /**
+   * Load the catalog from its compiled form, the JSON source is read from memory,
+   * typically a slice of the OBB archive. Songs are sent to the listener in batches.
+   * @param source ByteBuffer: The JSON catalog, from its position to its limit
+   * @param fingerprint CatalogFingerprint: Fingerprint of the JSON catalog
+   * @param compiled File: The compiled catalog, created or replaced if needed
+   * @param batchSize int: Number of songs sent to the listener at once
+   * @param listener OnSongBatchListener: Receiver of the songs, may be null
+   * @return boolean: true if the JSON source has been parsed
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public boolean load(ByteBuffer source, CatalogFingerprint fingerprint, File compiled,
+                      int batchSize, OnSongBatchListener listener) throws IOException {
+    return load(() -> new ByteBufferInputStream(source), "archive catalog",
+      fingerprint, compiled, batchSize, listener);
+  }
+
+  /**
+   * Open the JSON source, only called when the compiled catalog is missing or outdated
+   */
+  private interface SourceOpener {
+    InputStream open() throws IOException;
+  }
+
+  /**
+   * Load the catalog from its compiled form, songs are sent to the listener in batches.
+   * @param opener SourceOpener: Opens the JSON catalog
+   * @param name String: Name of the JSON catalog in the logs
+   * @param fingerprint CatalogFingerprint: Fingerprint of the JSON catalog
+   * @param compiled File: The compiled catalog, created or replaced if needed
+   * @param batchSize int: Number of songs sent to the listener at once
+   * @param listener OnSongBatchListener: Receiver of the songs, may be null
+   * @return boolean: true if the JSON source has been parsed
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  private boolean load(SourceOpener opener, String name, CatalogFingerprint fingerprint,
+                       File compiled, int batchSize, OnSongBatchListener listener) throws IOException {
+    BinaryCatalog lCatalog = null;
+    if (compiled.exists()) {
+      try {
+        lCatalog = BinaryCatalog.open(compiled);
+        if (!lCatalog.isCompiledFrom(fingerprint)) lCatalog = null;
+      } catch (IOException e) {
+        Log.w(TAG, "Invalid compiled catalog " + compiled, e);
+      }
+    }
+
+    if (null == lCatalog) {
+      // try with statement works here because InputStream
+      // implement Closeable interface.
+      try (InputStream lInputStream = opener.open()) {
+        // Songs are streamed to the listener while parsing
+        readJsonStream(lInputStream, batchSize, listener);
+      }
+      try {
+        CatalogWriter lWriter = new CatalogWriter();
+        lWriter.addSongs(mCatalog);
+        lWriter.write(compiled, mNumberOfSongs, fingerprint);
+        lCatalog = BinaryCatalog.open(compiled);
+      } catch (IOException e) {
+        // The parsed songs stay usable without the compiled catalog
+        Log.e(TAG, "Unable to compile " + name, e);
+        return true;
+      }
+      publish(lCatalog);
+      return true;
+    }
+
+    publish(lCatalog);
+    if (null != listener) {
+      // Compiled catalog, stream the songs from the mapped file
+      List<Song> lSongs = mSongs;
+      int lBatchSize = batchSize > 0 ? batchSize : lSongs.size();
+      for (int lStart = 0; lStart < lSongs.size(); lStart += lBatchSize) {
+        int lEnd = Math.min(lSongs.size(), lStart + lBatchSize);
+        listener.onSongBatch(new ArrayList<>(lSongs.subList(lStart, lEnd)));
+      }
+      listener.onSongsLoaded(lSongs.size());
+    }
+    return false;
+  }
+
   /**
    * Reads a JSON (RFC 4627) encoded value as a stream of tokens.
+   * The previous content of the parser is replaced.
    * @param inputStream InputStream: steam reader
    * @throws IOException Signals that an Input/Output exception of some sort has occurred.
    */
   public void readJsonStream(InputStream inputStream) throws IOException {
+    readJsonStream(inputStream, 0, null);
+  }
+
+  /**
+   * Reads a JSON (RFC 4627) encoded value as a stream of tokens.
+   * The previous content of the parser is replaced when the whole stream is read.
+   * @param inputStream InputStream: steam reader
+   * @param batchSize int: Number of songs sent to the listener at once
+   * @param listener OnSongBatchListener: Receiver of the songs, may be null
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public void readJsonStream(InputStream inputStream, int batchSize,
+                             OnSongBatchListener listener) throws IOException {
+    int lNumberOfSongs = 0;
+    CatalogStore lStore = new CatalogStore();
+
     // try with statement works here because JsonReader implement Closeable interface
     try (JsonReader reader = new JsonReader(new InputStreamReader(inputStream))) {
       reader.beginObject();
       while (reader.hasNext()) {
         String lKey = reader.nextName();
         if ("numberOfSongs".equals(lKey)) {
-          mNumberOfSongs = reader.nextInt();
+          lNumberOfSongs = reader.nextInt();
           continue;
         }
         if ("songs".equals(lKey)) {
-          readJsonArray(reader);
+          readJsonArray(reader, lStore, batchSize, listener);
           continue;
         }
         reader.skipValue();
       }
       reader.endObject();
     }
+
+    // Publish the parsed content
+    lStore.trimToSize();
+    mCatalog = lStore;
+    mNumberOfSongs = lNumberOfSongs;
+    mSongs = new SongList(lStore);
+    if (null != listener) listener.onSongsLoaded(lStore.getSongCount());
   }
 
   /**
    * Reads a JSONArray (RFC 4627) encoded value as a stream of tokens.
    * @param reader JsonReader: JSON streams
+   * @param store CatalogStore: Destination of the parsed songs
+   * @param batchSize int: Number of songs sent to the listener at once
+   * @param listener OnSongBatchListener: Receiver of the songs, may be null
    * @throws IOException Signals that an Input/Output exception of some sort has occurred.
    */
-  private void readJsonArray(JsonReader reader) throws IOException {
+  private void readJsonArray(JsonReader reader, CatalogStore store, int batchSize,
+                             OnSongBatchListener listener) throws IOException {
+    List<Song> lBatch = new ArrayList<>();
     reader.beginArray();
     while (reader.hasNext()) {
       Song lSong = new Song();
@@ -91,9 +259,66 @@ public class JsonParser {
         reader.skipValue();
       }
       reader.endObject();
-      // Store song data in the list
-      mSongs.add(lSong);
+      // Store song data in the columns, the strings are shared
+      int lIndex = store.addSong(lSong.artist, lSong.title, lSong.path, lSong.cover);
+      if (null == listener) continue;
+      // Send a full batch
+      lBatch.add(songOf(store, lIndex));
+      if (batchSize > 0 && lBatch.size() >= batchSize) {
+        listener.onSongBatch(lBatch);
+        lBatch = new ArrayList<>();
+      }
     }
     reader.endArray();
+    // Send the last partial batch
+    if (null != listener && !lBatch.isEmpty()) {
+      listener.onSongBatch(lBatch);
+    }
+  }
+
+  /**
+   * Replace the content of the parser by a compiled catalog
+   * @param catalog BinaryCatalog: The compiled catalog
+   */
+  private void publish(BinaryCatalog catalog) {
+    mCatalog = catalog;
+    mNumberOfSongs = catalog.getNumberOfSongs();
+    mSongs = new SongList(catalog);
+  }
+
+  /**
+   * Create the view of a song
+   * @param catalog Catalog: The songs storage
+   * @param index int: The song index
+   * @return Song: A new view on the song fields
+   */
+  private static Song songOf(Catalog catalog, int index) {
+    Song lSong = new Song();
+    lSong.artist = catalog.getField(index, Catalog.FIELD_ARTIST);
+    lSong.title  = catalog.getField(index, Catalog.FIELD_TITLE);
+    lSong.path   = catalog.getField(index, Catalog.FIELD_PATH);
+    lSong.cover  = catalog.getField(index, Catalog.FIELD_COVER);
+    return lSong;
+  }
+
+  /**
+   * List view of a catalog, songs are created when requested.
+   */
+  private static class SongList extends AbstractList<Song> {
+    private final Catalog mSource;
+
+    private SongList(Catalog source) {
+      mSource = source;
+    }
+
+    @Override
+    public Song get(int index) {
+      return songOf(mSource, index);
+    }
+
+    @Override
+    public int size() {
+      return mSource.getSongCount();
+    }
   }
 }
@@ -1,24 +1,24 @@
 package fr.wildcodeschool.mediaplayer.list;
 
-import android.graphics.Bitmap;
-
 @SuppressWarnings("unused")
 public class Item {
-  final Bitmap bitmap;
+  final String cover;
   final String artist;
   final String title;
+  final String path;
 
-  public Item(String artist, String title, Bitmap bitmap) {
+  public Item(String artist, String title, String path, String cover) {
     this.artist = artist;
     this.title = title;
-    this.bitmap = bitmap;
+    this.path = path;
+    this.cover = cover;
   }
 
   /**
-   * Returns the item bitmap
-   * @return Bitmap: The item bitmap
+   * Returns the key of the item cover
+   * @return String: The cover path inside the OBB
    */
-  public Bitmap getBitmap() { return bitmap; }
+  public String getCover() { return cover; }
 
   /**
    * Returns the item artist name
@@ -31,4 +31,10 @@ public class Item {
    * @return String: The item song title
    */
   public String getTitle() { return title; }
+
+  /**
+   * Returns the item media path
+   * @return String: The media path inside the OBB
+   */
+  public String getPath() { return path; }
 }
@@ -3,6 +3,7 @@ package fr.wildcodeschool.mediaplayer.list;
 import android.content.Context;
 import android.os.Bundle;
 
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.LinearLayoutManager;
@@ -12,17 +13,22 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import fr.wildcodeschool.mediaplayer.R;
 
 public class ItemFragment extends Fragment {
-  // Item list
+  // Item list, only accessed in UI thread
   private static final List<Item> ITEMS = new ArrayList<>();
+  // Positions of the displayed items, null when the list is not filtered
+  private static int[] mFilter = null;
   // RecyclerViewAdapter
   private static ItemRecyclerViewAdapter mAdapter;
   // Click event listener
   private OnItemClickListener mListener;
+  // Visible items listener, may be null
+  private OnItemsVisibleListener mVisibleListener;
 
   public ItemFragment() {
     // Mandatory empty constructor
@@ -50,9 +56,22 @@ public class ItemFragment extends Fragment {
       RecyclerView recyclerView = (RecyclerView) view;
       // Get ViewAdapter
       mAdapter = new ItemRecyclerViewAdapter(ITEMS, mListener);
+      if (null != mFilter) mAdapter.setFilter(mFilter);
       // Add adapter to RecyclerView
-      recyclerView.setLayoutManager(new LinearLayoutManager(view.getContext()));
+      final LinearLayoutManager lLayoutManager = new LinearLayoutManager(view.getContext());
+      recyclerView.setLayoutManager(lLayoutManager);
       recyclerView.setAdapter(mAdapter);
+      // Report the visible items when the scroll stops
+      recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+          if (RecyclerView.SCROLL_STATE_IDLE == newState && null != mVisibleListener) {
+            mVisibleListener.onItemsVisible(getItems(
+              lLayoutManager.findFirstVisibleItemPosition(),
+              lLayoutManager.findLastVisibleItemPosition()));
+          }
+        }
+      });
     }
     return view;
   }
@@ -61,13 +80,108 @@ public class ItemFragment extends Fragment {
    * Add an item in the ITEMS list.
    * @param item Item: item to insert in the list
    */
+  @MainThread
   public static void addItem(Item item) {
     ITEMS.add(item);
   }
 
+  /**
+   * Append items at the end of the ITEMS list.
+   * Only the inserted range is notified to the adapter.
+   * @param items List: items to insert in the list
+   */
+  @MainThread
+  public static void addItems(List<Item> items) {
+    int lStart = ITEMS.size();
+    ITEMS.addAll(items);
+    // A filtered list is refreshed by setFilter
+    if (null != mAdapter && null == mFilter) mAdapter.notifyItemRangeInserted(lStart, items.size());
+  }
+
+  /**
+   * Replace the content of the ITEMS list.
+   * @param items List: the new content of the list
+   */
+  @MainThread
+  public static void setItems(List<Item> items) {
+    ITEMS.clear();
+    ITEMS.addAll(items);
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Remove all the items of the ITEMS list.
+   */
+  @MainThread
+  public static void clearItems() {
+    int lCount = ITEMS.size();
+    ITEMS.clear();
+    if (null != mFilter) {
+      setFilter(new int[0]);
+    } else if (null != mAdapter) {
+      mAdapter.notifyItemRangeRemoved(0, lCount);
+    }
+  }
+
+  /**
+   * Display only some items of the ITEMS list.
+   * Positions of items which are not in the list yet are ignored.
+   * @param positions int[]: Ascending positions of the items, null to display the whole list
+   */
+  @MainThread
+  public static void setFilter(int[] positions) {
+    int[] lFilter = positions;
+    if (null != lFilter) {
+      int lCount = 0;
+      while (lCount < lFilter.length && lFilter[lCount] < ITEMS.size()) lCount++;
+      if (lCount < lFilter.length) lFilter = Arrays.copyOf(lFilter, lCount);
+    }
+    mFilter = lFilter;
+    if (null != mAdapter) mAdapter.setFilter(lFilter);
+  }
+
+  /**
+   * Returns the number of items in the ITEMS list.
+   * @return int: number of items
+   */
+  @MainThread
+  public static int getItemCount() {
+    return ITEMS.size();
+  }
+
+  /**
+   * Returns a copy of the displayed items, in display order
+   * @return List: The items which pass the filter
+   */
+  @MainThread
+  public static List<Item> getDisplayedItems() {
+    if (null == mFilter) return new ArrayList<>(ITEMS);
+    List<Item> lItems = new ArrayList<>(mFilter.length);
+    for (int lPosition : mFilter) lItems.add(ITEMS.get(lPosition));
+    return lItems;
+  }
+
+  /**
+   * Returns the displayed items in a range of adapter positions
+   * @param first int: First adapter position
+   * @param last int: Last adapter position, included
+   * @return List: The items, empty if the range is invalid
+   */
+  @MainThread
+  private static List<Item> getItems(int first, int last) {
+    List<Item> lItems = new ArrayList<>();
+    if (RecyclerView.NO_POSITION == first) return lItems;
+    int lCount = (null == mFilter) ? ITEMS.size() : mFilter.length;
+    for (int i = first; i <= last && i < lCount; i++) {
+      lItems.add(ITEMS.get(null == mFilter ? i : mFilter[i]));
+    }
+    return lItems;
+  }
+
   /**
    * Inform the adapter that the list content has changed
    */
+  @MainThread
   public static void notifyDataSetChanged() {
     if (null != mAdapter) mAdapter.notifyDataSetChanged();
   }
@@ -85,6 +199,9 @@ public class ItemFragment extends Fragment {
       throw new RuntimeException(context.toString()
         + " must implement OnItemClickListener");
     }
+    if (context instanceof OnItemsVisibleListener) {
+      mVisibleListener = (OnItemsVisibleListener) context;
+    }
   }
 
   /**
@@ -94,6 +211,7 @@ public class ItemFragment extends Fragment {
   public void onDetach() {
     super.onDetach();
     mListener = null;
+    mVisibleListener = null;
   }
 
   /**
@@ -114,4 +232,12 @@ public class ItemFragment extends Fragment {
   public interface OnItemClickListener {
     void onItemClick(Item item);
   }
+
+  /**
+   * Optional interface of the activity, informed of the items displayed on screen
+   * when the list stops scrolling.
+   */
+  public interface OnItemsVisibleListener {
+    void onItemsVisible(List<Item> items);
+  }
 }
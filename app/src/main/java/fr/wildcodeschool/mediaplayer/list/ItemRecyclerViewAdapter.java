@@ -9,6 +9,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import fr.wildcodeschool.mediaplayer.R;
+import fr.wildcodeschool.mediaplayer.cover.CoverLoader;
 
 import java.util.List;
 
@@ -18,6 +19,8 @@ public class ItemRecyclerViewAdapter
   private final List<Item> mValues;
   // Click event listener
   private final ItemFragment.OnItemClickListener mListener;
+  // Positions of the displayed items, null to display the whole list
+  private int[] mFilter = null;
 
   /**
    * Constructor
@@ -54,8 +57,10 @@ public class ItemRecyclerViewAdapter
    */
   @Override
   public void onBindViewHolder(@NonNull final ViewHolder holder, int position) {
-    holder.mItem = mValues.get(position);
-    holder.mItemImage.setImageBitmap(holder.mItem.bitmap);
+    holder.mItem = mValues.get(null == mFilter ? position : mFilter[position]);
+    // Cover is decoded in background at the size of the view
+    int lSize = holder.mItemImage.getResources().getDimensionPixelSize(R.dimen.item_image_size);
+    CoverLoader.getInstance().load(holder.mItemImage, holder.mItem.cover, lSize, lSize);
     holder.mItemArtist.setText(holder.mItem.artist);
     holder.mItemTitle.setText(holder.mItem.title);
     // Manage item click event
@@ -64,13 +69,33 @@ public class ItemRecyclerViewAdapter
     });
   }
 
+  /**
+   * Called when a view created by this adapter has been recycled.
+   * @param holder VH: The ViewHolder for the view being recycled
+   */
+  @Override
+  public void onViewRecycled(@NonNull ViewHolder holder) {
+    super.onViewRecycled(holder);
+    // The pending cover decoding is no more needed
+    CoverLoader.getInstance().cancel(holder.mItemImage);
+  }
+
   /**
    * Returns the total number of items in the data set held by the adapter.
    * @return The total number of items in this adapter.
    */
   @Override
   public int getItemCount() {
-    return mValues.size();
+    return null == mFilter ? mValues.size() : mFilter.length;
+  }
+
+  /**
+   * Display only some items of the list
+   * @param filter int[]: Positions of the items in the list, null to display them all
+   */
+  void setFilter(int[] filter) {
+    mFilter = filter;
+    notifyDataSetChanged();
   }
 
 
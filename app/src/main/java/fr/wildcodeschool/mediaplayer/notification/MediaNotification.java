@@ -9,13 +9,27 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.*;
 import android.support.v4.app.NotificationCompat;
 
+import java.util.Locale;
+
 import fr.wildcodeschool.mediaplayer.R;
+import fr.wildcodeschool.mediaplayer.player.PlaybackAnchor;
+import fr.wildcodeschool.mediaplayer.player.WildOnPositionListener;
 
+/**
+ * Notification of the current track: its cover and title, the play or pause button and
+ * the progress of the playback. Updates follow the player events and the progress steps,
+ * at most one post per MIN_UPDATE_INTERVAL, and the notification is posted again only
+ * if its visible content changed.
+ * Must only be used in UI thread.
+ */
 @SuppressWarnings("unused")
-public class MediaNotification {
+public class MediaNotification implements WildOnPositionListener {
   static final String ACTION_PLAY             = "Play";
   static final String ACTION_PAUSE            = "Pause";
   static final String ACTION_STOP             = "Stop";
@@ -28,9 +42,35 @@ public class MediaNotification {
   private static final int REQUEST_CODE_PAUSE = 102;
   private static final int REQUEST_CODE_STOP  = 103;
 
+  // Minimum delay between two posts in ms, the system drops the excess updates
+  private static final long MIN_UPDATE_INTERVAL = 1000;
+
   private Context mContext;
   private NotificationManager mManager;
-  private NotificationCompat.Builder mNotifBuilder;
+  // Builders of the playing and paused notifications, their buttons differ
+  private NotificationCompat.Builder mPlayingBuilder;
+  private NotificationCompat.Builder mPausedBuilder;
+
+  // Content of the notification
+  private CharSequence mTitle = null;
+  private CharSequence mText = null;
+  private Bitmap mLargeIcon = null;
+  private Bitmap mDefaultIcon = null;
+  private String mCoverKey = null;
+  private PlaybackAnchor mAnchor = PlaybackAnchor.NONE;
+  // Last posted content, null if the notification is not shown
+  private NotificationContent mPosted = null;
+  private boolean isRegistered = false;
+
+  // Rate limit of the posts
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final UpdateThrottle mThrottle = new UpdateThrottle(MIN_UPDATE_INTERVAL);
+  private final Runnable mPostCallback = this::post;
+  private final Runnable mProgressCallback = this::update;
+
+  // Metrics
+  private int mPostCount = 0;
+  private int mUnchangedCount = 0;
 
   /**
    * Constructor
@@ -39,14 +79,8 @@ public class MediaNotification {
   private MediaNotification(@NonNull Context pCtx) {
     mContext = pCtx;
     // Populate notification
-    mNotifBuilder = new NotificationCompat.Builder(mContext, CHANNEL_ID)
-      // Show controls on lock screen even when user hides sensitive content.
-      .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-      .setSmallIcon(R.drawable.ic_stat_music_note)
-      .setAutoCancel(true)
-      // Set priority to PRIORITY_LOW to mute notification sound
-      .setPriority(NotificationCompat.PRIORITY_LOW)
-      .setBadgeIconType(NotificationCompat.BADGE_ICON_SMALL);
+    mPlayingBuilder = newBuilder();
+    mPausedBuilder  = newBuilder();
 
     // Since API 26, we can create a channel for the notifications.
     // The channel is displayed in the application settings.
@@ -57,6 +91,24 @@ public class MediaNotification {
     }
   }
 
+  /**
+   * Create a builder with the settings shared by the playing and paused notifications
+   * @return NotificationCompat.Builder: The builder
+   */
+  private NotificationCompat.Builder newBuilder() {
+    return new NotificationCompat.Builder(mContext, CHANNEL_ID)
+      // Show controls on lock screen even when user hides sensitive content.
+      .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+      .setSmallIcon(R.drawable.ic_stat_music_note)
+      .setAutoCancel(true)
+      // Set priority to PRIORITY_LOW to mute notification sound
+      .setPriority(NotificationCompat.PRIORITY_LOW)
+      .setBadgeIconType(NotificationCompat.BADGE_ICON_SMALL)
+      // The updates don't disturb the user
+      .setOnlyAlertOnce(true)
+      .setShowWhen(false);
+  }
+
   /**
    * Only since API 26, the notifications could have a channel.
    * This method create a specific channel for the audio controller.
@@ -79,18 +131,158 @@ public class MediaNotification {
    * Register the notification from the NotificationManager
    */
   public void register() {
-    // Register the notification
-    getManager().notify(NOTIFICATION_ID, mNotifBuilder.build());
+    isRegistered = true;
+    update();
   }
 
   /**
    * Unregister the notification from the NotificationManager
    */
   public void unregister() {
+    isRegistered = false;
+    mHandler.removeCallbacks(mPostCallback);
+    mHandler.removeCallbacks(mProgressCallback);
+    mThrottle.reset();
+    mPosted = null;
     // Unregister the notification
     getManager().cancel(NOTIFICATION_ID);
   }
 
+  // --------------------------------------------------------------------------
+  // Content
+  // --------------------------------------------------------------------------
+
+  /**
+   * Show a new track, with the default icon until its cover is set
+   * @param pTitle CharSequence: Title of the track
+   * @param pText CharSequence: Teaser of the track
+   * @param pCoverKey String: Key of the cover expected by setCover, may be null
+   */
+  public void setTrack(CharSequence pTitle, CharSequence pText, @Nullable String pCoverKey) {
+    mTitle = pTitle;
+    mText = pText;
+    mCoverKey = pCoverKey;
+    mLargeIcon = mDefaultIcon;
+    update();
+  }
+
+  /**
+   * Show the cover of the current track, scaled once to the large icon size
+   * @param pCoverKey String: Key of the cover, ignored if the track changed meanwhile
+   * @param pCover Bitmap: The decoded cover
+   */
+  public void setCover(@NonNull String pCoverKey, @NonNull Bitmap pCover) {
+    if (!pCoverKey.equals(mCoverKey)) return;
+    mLargeIcon = scaleIcon(pCover);
+    update();
+  }
+
+  /**
+   * Called when the playback state or position changes
+   * @param anchor PlaybackAnchor: The position of the playback at a given date
+   */
+  @Override
+  public void onPositionChanged(PlaybackAnchor anchor) {
+    mAnchor = anchor;
+    update();
+  }
+
+  /**
+   * Request a post of the current content, delayed if the last post is too recent
+   */
+  private void update() {
+    if (!isRegistered) return;
+    long lDelay = mThrottle.request(SystemClock.elapsedRealtime());
+    if (0 == lDelay) {
+      post();
+    } else if (lDelay > 0) {
+      mHandler.postDelayed(mPostCallback, lDelay);
+    }
+  }
+
+  /**
+   * Post the current content if it differs from the shown one, then follow the progress
+   */
+  private void post() {
+    mThrottle.onRun();
+    if (!isRegistered) return;
+    long lNow = SystemClock.elapsedRealtime();
+    NotificationContent lContent = new NotificationContent(mTitle, mText, mLargeIcon, mAnchor, lNow);
+    if (lContent.equals(mPosted)) {
+      mUnchangedCount++;
+    } else {
+      getManager().notify(NOTIFICATION_ID, build(lContent));
+      mPosted = lContent;
+      mThrottle.onPosted(lNow);
+      mPostCount++;
+    }
+
+    // Next move of the progress bar, no wakeup while paused
+    mHandler.removeCallbacks(mProgressCallback);
+    long lDelay = NotificationContent.delayToNextStep(mAnchor, lNow);
+    if (lDelay >= 0) mHandler.postDelayed(mProgressCallback, Math.max(lDelay, MIN_UPDATE_INTERVAL));
+  }
+
+  /**
+   * Build the notification of a content
+   * @param pContent NotificationContent: What the notification shows
+   * @return Notification: The notification to post
+   */
+  private Notification build(NotificationContent pContent) {
+    NotificationCompat.Builder lBuilder = pContent.isPlaying() ? mPlayingBuilder : mPausedBuilder;
+    lBuilder
+      .setContentTitle(pContent.getTitle())
+      .setContentText(pContent.getText())
+      .setLargeIcon((Bitmap) pContent.getLargeIcon());
+    if (NotificationContent.NO_PROGRESS == pContent.getProgress()) {
+      // Hide the progress bar
+      lBuilder.setProgress(0, 0, false);
+    } else {
+      lBuilder.setProgress(NotificationContent.PROGRESS_MAX, pContent.getProgress(), false);
+    }
+    return lBuilder.build();
+  }
+
+  /**
+   * Returns the width of the large icon, the covers are decoded at this size
+   * @return int: Size in pixels
+   */
+  public int getLargeIconWidth() {
+    return mContext.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+  }
+
+  /**
+   * Returns the height of the large icon
+   * @return int: Size in pixels
+   */
+  public int getLargeIconHeight() {
+    return mContext.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+  }
+
+  /**
+   * Scale an icon to the size of the notification large icon, the source is not recycled
+   * @param pIcon Bitmap: The icon at any size, may be null
+   * @return Bitmap: The scaled icon
+   */
+  private Bitmap scaleIcon(@Nullable Bitmap pIcon) {
+    if (null == pIcon) return null;
+    int lWidth  = getLargeIconWidth();
+    int lHeight = getLargeIconHeight();
+    if (lWidth <= 0 || lHeight <= 0) return pIcon;
+
+    float lRatio = Math.min((float) lWidth / pIcon.getWidth(), (float) lHeight / pIcon.getHeight());
+    if (lRatio >= 1f) return pIcon;
+    return Bitmap.createScaledBitmap(pIcon,
+      Math.max(1, Math.round(pIcon.getWidth() * lRatio)),
+      Math.max(1, Math.round(pIcon.getHeight() * lRatio)), true);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "MediaNotification[posts=%d, unchanged=%d, %s]",
+      mPostCount, mUnchangedCount, mThrottle);
+  }
+
   /**
    * Get the class instance that manage the notifications.
    * @return NotificationManager: Class to notify the user of events that happen
@@ -128,7 +320,9 @@ public class MediaNotification {
      * @return The instance of the Builder
      */
     public Builder setLargeIcon(Bitmap lIcon) {
-      mNotification.mNotifBuilder.setLargeIcon(lIcon);
+      // Scaled once, shown until the cover of a track is set
+      mNotification.mDefaultIcon = mNotification.scaleIcon(lIcon);
+      mNotification.mLargeIcon = mNotification.mDefaultIcon;
       return this;
     }
 
@@ -138,7 +332,7 @@ public class MediaNotification {
      * @return The instance of the Builder
      */
     public Builder setContentTitle(String title) {
-      mNotification.mNotifBuilder.setContentTitle(title);
+      mNotification.mTitle = title;
       return this;
     }
 
@@ -148,7 +342,7 @@ public class MediaNotification {
      * @return The instance of the Builder
      */
     public Builder setContentText(String text) {
-      mNotification.mNotifBuilder.setContentText(text);
+      mNotification.mText = text;
       return this;
     }
 
@@ -177,20 +371,23 @@ public class MediaNotification {
       PendingIntent stopPendingIntent =
         PendingIntent.getBroadcast(mContext, REQUEST_CODE_STOP, stopIntent, FLAG_NONE);
 
-      mNotification.mNotifBuilder
-        // Add media control buttons that invoke intents in your media service
+      // Add media control buttons that invoke intents in your media service
+      mNotification.mPlayingBuilder
+        .addAction(R.drawable.ic_stat_pause, ACTION_PAUSE, pausePendingIntent) // #0: pause button
+        .addAction(R.drawable.ic_stat_stop,  ACTION_STOP,  stopPendingIntent); // #1: stop button
+      mNotification.mPausedBuilder
         .addAction(R.drawable.ic_stat_play,  ACTION_PLAY,  playPendingIntent)  // #0: play button
-        .addAction(R.drawable.ic_stat_pause, ACTION_PAUSE, pausePendingIntent) // #1: pause button
-        .addAction(R.drawable.ic_stat_stop,  ACTION_STOP,  stopPendingIntent); // #2: stop button
+        .addAction(R.drawable.ic_stat_stop,  ACTION_STOP,  stopPendingIntent); // #1: stop button
 
       if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
         // Apply the media style template
-        mNotification.mNotifBuilder.setStyle(new android.support.v4.media.app.NotificationCompat.MediaStyle()
-          // Add 3 actions index in the list to display them in notification.
-          // #0: play button
-          // #1: pause button
-          // #2: stop button
-          .setShowActionsInCompactView(0, 1, 2));
+        // Add 2 actions index in the list to display them in notification.
+        // #0: play or pause button
+        // #1: stop button
+        mNotification.mPlayingBuilder.setStyle(new android.support.v4.media.app.NotificationCompat.MediaStyle()
+          .setShowActionsInCompactView(0, 1));
+        mNotification.mPausedBuilder.setStyle(new android.support.v4.media.app.NotificationCompat.MediaStyle()
+          .setShowActionsInCompactView(0, 1));
       }
       return this;
     }
@@ -0,0 +1,114 @@
+package fr.wildcodeschool.mediaplayer.notification;
+
+import java.util.Locale;
+
+import fr.wildcodeschool.mediaplayer.player.PlaybackAnchor;
+
+/**
+ * What the notification shows. Two contents are equal if the user can't see any difference,
+ * the progress is quantized to the steps of the progress bar.
+ */
+@SuppressWarnings("unused")
+final class NotificationContent {
+  // Steps of the progress bar
+  static final int PROGRESS_MAX = 100;
+  // No progress bar, the duration is unknown
+  static final int NO_PROGRESS = -1;
+
+  private final CharSequence mTitle;
+  private final CharSequence mText;
+  // Compared by identity, the icon is scaled once per track
+  private final Object mLargeIcon;
+  private final boolean isPlaying;
+  private final int mProgress;
+
+  /**
+   * Constructor
+   * @param title CharSequence: Title of the track
+   * @param text CharSequence: Teaser of the track
+   * @param largeIcon Object: Cover of the track, may be null
+   * @param anchor PlaybackAnchor: The last position published by the player
+   * @param now long: The date in ms, from SystemClock.elapsedRealtime
+   */
+  NotificationContent(CharSequence title, CharSequence text, Object largeIcon,
+                      PlaybackAnchor anchor, long now) {
+    mTitle     = title;
+    mText      = text;
+    mLargeIcon = largeIcon;
+    isPlaying  = anchor.isRunning();
+    mProgress  = progressOf(anchor, anchor.getPositionAt(now));
+  }
+
+  // Accessors / Getters
+  CharSequence getTitle() { return mTitle; }
+  CharSequence getText()  { return mText; }
+  Object getLargeIcon()   { return mLargeIcon; }
+  boolean isPlaying()     { return isPlaying; }
+  int getProgress()       { return mProgress; }
+
+  /**
+   * Returns the step of the progress bar of a position
+   * @param anchor PlaybackAnchor: Gives the duration of the track
+   * @param position int: The position in ms
+   * @return int: The step between 0 and PROGRESS_MAX, NO_PROGRESS if the duration is unknown
+   */
+  static int progressOf(PlaybackAnchor anchor, int position) {
+    int lDuration = anchor.getDuration();
+    if (lDuration <= 0) return NO_PROGRESS;
+    return (int) Math.min(PROGRESS_MAX, (long) position * PROGRESS_MAX / lDuration);
+  }
+
+  /**
+   * Returns the delay before the progress bar moves to its next step
+   * @param anchor PlaybackAnchor: The last position published by the player
+   * @param now long: The date in ms, from SystemClock.elapsedRealtime
+   * @return long: The delay in ms, -1 if the progress bar can't move
+   */
+  static long delayToNextStep(PlaybackAnchor anchor, long now) {
+    int lDuration = anchor.getDuration();
+    if (!anchor.isRunning() || lDuration <= 0) return -1;
+    int lPosition = anchor.getPositionAt(now);
+    int lStep = progressOf(anchor, lPosition);
+    if (lStep >= PROGRESS_MAX) return -1;
+    // First position of the next step
+    long lNext = ((long) (lStep + 1) * lDuration + PROGRESS_MAX - 1) / PROGRESS_MAX;
+    return (long) Math.ceil((lNext - lPosition) / anchor.getRate());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof NotificationContent)) return false;
+    NotificationContent lOther = (NotificationContent) o;
+    return isPlaying == lOther.isPlaying
+      && mProgress == lOther.mProgress
+      && mLargeIcon == lOther.mLargeIcon
+      && equals(mTitle, lOther.mTitle)
+      && equals(mText, lOther.mText);
+  }
+
+  @Override
+  public int hashCode() {
+    int lHash = (null == mTitle) ? 0 : mTitle.toString().hashCode();
+    lHash = 31 * lHash + ((null == mText) ? 0 : mText.toString().hashCode());
+    lHash = 31 * lHash + (isPlaying ? 1 : 0);
+    return 31 * lHash + mProgress;
+  }
+
+  /**
+   * Compare two texts by their characters
+   * @param a CharSequence: A text, may be null
+   * @param b CharSequence: Another text, may be null
+   * @return boolean: true if both show the same characters
+   */
+  private static boolean equals(CharSequence a, CharSequence b) {
+    if (null == a || null == b) return a == b;
+    return a.toString().equals(b.toString());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "NotificationContent[title=%s, playing=%b, progress=%d]",
+      mTitle, isPlaying, mProgress);
+  }
+}
@@ -0,0 +1,83 @@
+package fr.wildcodeschool.mediaplayer.notification;
+
+import java.util.Locale;
+
+/**
+ * Limit the rate of the notification posts. A request received too soon after the last
+ * post is delayed, and the requests received meanwhile are coalesced into it: the delayed
+ * post shows the latest content.
+ * Must only be used in UI thread.
+ */
+@SuppressWarnings("unused")
+final class UpdateThrottle {
+  // A post is already scheduled, nothing to do
+  static final long SCHEDULED = -1;
+  // No post yet
+  private static final long NEVER = Long.MIN_VALUE;
+
+  private final long mInterval;
+  private long mLastPostDate = NEVER;
+  private boolean isScheduled = false;
+
+  // Metrics
+  private int mRequestCount = 0;
+  private int mCoalescedCount = 0;
+
+  /**
+   * Constructor
+   * @param interval long: Minimum delay between two posts in ms
+   */
+  UpdateThrottle(long interval) {
+    mInterval = interval;
+  }
+
+  /**
+   * Request a post
+   * @param now long: The date in ms, from SystemClock.elapsedRealtime
+   * @return long: 0 to post at once, the delay before the post in ms, or SCHEDULED
+   */
+  long request(long now) {
+    mRequestCount++;
+    if (isScheduled) {
+      mCoalescedCount++;
+      return SCHEDULED;
+    }
+    long lDelay = (NEVER == mLastPostDate) ? 0 : Math.max(0, mLastPostDate + mInterval - now);
+    isScheduled = lDelay > 0;
+    return lDelay;
+  }
+
+  /**
+   * Called when the requested update runs, posted or not
+   */
+  void onRun() {
+    isScheduled = false;
+  }
+
+  /**
+   * Called when the notification has actually been posted
+   * @param now long: The date in ms, from SystemClock.elapsedRealtime
+   */
+  void onPosted(long now) {
+    mLastPostDate = now;
+  }
+
+  /**
+   * Forget the pending post, when the notification is cancelled
+   */
+  void reset() {
+    isScheduled = false;
+    mLastPostDate = NEVER;
+  }
+
+  // Accessors / Getters
+  boolean isScheduled()    { return isScheduled; }
+  int getRequestCount()    { return mRequestCount; }
+  int getCoalescedCount()  { return mCoalescedCount; }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "UpdateThrottle[interval=%d ms, requests=%d, coalesced=%d]",
+      mInterval, mRequestCount, mCoalescedCount);
+  }
+}
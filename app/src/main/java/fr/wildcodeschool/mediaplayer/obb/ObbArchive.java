@@ -0,0 +1,339 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import fr.wildcodeschool.mediaplayer.util.ByteBufferInputStream;
+
+/**
+ * OBB packaged as a zip archive, read without mounting it.
+ * The file is memory-mapped and its central directory is parsed once into a compact index
+ * of parallel arrays, one slot per record. The entries are looked up by name through
+ * ObbOverlay, which indexes the slots of the main and patch OBB in a single table.
+ * The data offset of an entry is resolved from its local header the first time it is requested.
+ * Stored (uncompressed) entries are served as slices of the mapped file without any copy,
+ * or played in place through the shared descriptor.
+ */
+@SuppressWarnings("unused")
+public final class ObbArchive implements Closeable {
+  // Compression methods
+  public static final int METHOD_STORED = 0;
+  public static final int METHOD_DEFLATED = 8;
+
+  // Zip records
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+  private static final int CENTRAL_SIGNATURE = 0x02014b50;
+  private static final int LOCAL_SIGNATURE = 0x04034b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  // Entries flagged with this bit use UTF-8 names
+  private static final int FLAG_UTF8 = 1 << 11;
+  private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  // Legacy names are CP437, identical for the ASCII paths of the OBB
+  private static final Charset LEGACY = Charset.forName("ISO-8859-1");
+  // Data offset not resolved yet
+  private static final long UNRESOLVED = -1;
+
+  private final File mFile;
+  private final RandomAccessFile mRaf;
+  // Whole file, little endian, never modified
+  private final ByteBuffer mMap;
+
+  // Index, one slot per entry
+  private final int mCount;
+  private final String[] mNames;
+  private final byte[] mMethods;
+  private final long[] mCompressedSizes;
+  private final long[] mSizes;
+  private final long[] mLocalHeaderOffsets;
+  private final long[] mDataOffsets;
+  // Entries which are not directories
+  private int mFileCount = 0;
+
+  /**
+   * Location of a file in the archive
+   */
+  public static final class Entry {
+    private final ObbArchive mArchive;
+    private final int mSlot;
+    private final String mName;
+    private final int mMethod;
+    private final long mCompressedSize;
+    private final long mSize;
+
+    private Entry(ObbArchive archive, int slot, String name, int method, long compressedSize, long size) {
+      mArchive        = archive;
+      mSlot           = slot;
+      mName           = name;
+      mMethod         = method;
+      mCompressedSize = compressedSize;
+      mSize           = size;
+    }
+
+    // Accessors / Getters
+    public ObbArchive getArchive()  { return mArchive; }
+    public String getName()         { return mName; }
+    public int getMethod()          { return mMethod; }
+    public long getCompressedSize() { return mCompressedSize; }
+    public long getSize()           { return mSize; }
+    public boolean isStored()       { return METHOD_STORED == mMethod; }
+  }
+
+  /**
+   * Open an archive and index its central directory
+   * @param file File: The OBB file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred,
+   * or that the file is not a zip archive which can be mapped.
+   */
+  public ObbArchive(File file) throws IOException {
+    mFile = file;
+    mRaf = new RandomAccessFile(file, "r");
+    try {
+      long lLength = mRaf.length();
+      if (lLength > Integer.MAX_VALUE) throw new IOException("Archive too large to be mapped " + file);
+      mMap = mRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, lLength)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+      // Central directory bounds
+      int lEocd = findEndOfCentralDirectory();
+      mCount = mMap.getShort(lEocd + 10) & 0xFFFF;
+      long lDirectorySize = mMap.getInt(lEocd + 12) & 0xFFFFFFFFL;
+      long lDirectoryOffset = mMap.getInt(lEocd + 16) & 0xFFFFFFFFL;
+      if (0xFFFF == mCount || ZIP64_MARKER == lDirectorySize || ZIP64_MARKER == lDirectoryOffset)
+        throw new IOException("Zip64 archives are not supported " + file);
+      if (lDirectoryOffset + lDirectorySize > lEocd)
+        throw new IOException("Invalid central directory in " + file);
+
+      mNames              = new String[mCount];
+      mMethods            = new byte[mCount];
+      mCompressedSizes    = new long[mCount];
+      mSizes              = new long[mCount];
+      mLocalHeaderOffsets = new long[mCount];
+      mDataOffsets        = new long[mCount];
+      Arrays.fill(mDataOffsets, UNRESOLVED);
+      readCentralDirectory((int) lDirectoryOffset, (int) (lDirectoryOffset + lDirectorySize));
+    } catch (IOException e) {
+      mRaf.close();
+      throw e;
+    } catch (RuntimeException e) {
+      // Offsets out of the mapped file
+      mRaf.close();
+      throw new IOException("Invalid archive " + file, e);
+    }
+  }
+
+  // Accessors / Getters
+  public File getFile() { return mFile; }
+
+  /**
+   * Returns the number of indexed files
+   * @return int: Number of entries, directories excluded
+   */
+  public int size() {
+    return mFileCount;
+  }
+
+  /**
+   * Returns the number of slots of the central directory, directories included
+   * @return int: Number of central directory records
+   */
+  int slotCount() {
+    return mCount;
+  }
+
+  /**
+   * Returns the name of a slot
+   * @param slot int: Position in the central directory
+   * @return String: The entry name or null for a directory
+   */
+  String nameAt(int slot) {
+    return mNames[slot];
+  }
+
+  /**
+   * Returns the entry of a slot
+   * @param slot int: Position of a file in the central directory
+   * @return Entry: The entry
+   */
+  Entry entryAt(int slot) {
+    return new Entry(this, slot, mNames[slot], mMethods[slot] & 0xFF, mCompressedSizes[slot], mSizes[slot]);
+  }
+
+  /**
+   * Returns the descriptor shared by all the readers of the archive.
+   * MediaPlayer duplicates it, it stays valid until the archive is closed.
+   * @return FileDescriptor: The descriptor of the OBB file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public FileDescriptor getFileDescriptor() throws IOException {
+    return mRaf.getFD();
+  }
+
+  /**
+   * Returns the position of the data of an entry in the archive
+   * @param entry Entry: An entry of this archive
+   * @return long: Offset of the first data byte
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public long getDataOffset(Entry entry) throws IOException {
+    return resolveDataOffset(entry.mSlot);
+  }
+
+  /**
+   * Returns the raw bytes of an entry, as stored in the archive, without copy
+   * @param entry Entry: An entry of this archive
+   * @return ByteBuffer: Read-only slice of the mapped file, compressed if the entry is
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public ByteBuffer getRawBuffer(Entry entry) throws IOException {
+    int lOffset = (int) resolveDataOffset(entry.mSlot);
+    ByteBuffer lSlice = mMap.duplicate();
+    lSlice.limit(lOffset + (int) entry.mCompressedSize).position(lOffset);
+    return lSlice.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the content of a file. Stored files are slices of the mapped file,
+   * compressed files are inflated in a new buffer.
+   * @param entry Entry: An entry of this archive
+   * @return ByteBuffer: The content
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public ByteBuffer getBuffer(Entry entry) throws IOException {
+    if (entry.isStored()) return getRawBuffer(entry);
+
+    byte[] lContent = new byte[(int) entry.mSize];
+    try (InputStream lInput = openStream(entry)) {
+      int lRead = 0;
+      while (lRead < lContent.length) {
+        int lCount = lInput.read(lContent, lRead, lContent.length - lRead);
+        if (lCount < 0) throw new IOException("Truncated entry " + entry.mName + " in " + mFile);
+        lRead += lCount;
+      }
+    }
+    return ByteBuffer.wrap(lContent).asReadOnlyBuffer();
+  }
+
+  /**
+   * Open a stream on the content of a file, inflated if needed
+   * @param entry Entry: An entry of this archive
+   * @return InputStream: The content of the file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public InputStream openStream(Entry entry) throws IOException {
+    InputStream lRaw = new ByteBufferInputStream(getRawBuffer(entry));
+    switch (entry.mMethod) {
+      case METHOD_STORED:
+        return lRaw;
+      case METHOD_DEFLATED:
+        // Raw deflate data, without zlib header
+        final Inflater lInflater = new Inflater(true);
+        return new InflaterInputStream(lRaw, lInflater) {
+          @Override
+          public void close() throws IOException {
+            super.close();
+            lInflater.end();
+          }
+        };
+      default:
+        throw new IOException("Unsupported method " + entry.mMethod + " of " + entry.mName);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    mRaf.close();
+  }
+
+  // --------------------------------------------------------------------------
+  // Index
+  // --------------------------------------------------------------------------
+
+  /**
+   * Find the end of central directory record, followed by a comment of unknown size
+   * @return int: Offset of the record
+   * @throws IOException If the file is not a zip archive
+   */
+  private int findEndOfCentralDirectory() throws IOException {
+    int lLength = mMap.capacity();
+    int lLowest = Math.max(0, lLength - EOCD_SIZE - MAX_COMMENT_SIZE);
+    for (int i = lLength - EOCD_SIZE; i >= lLowest; i--) {
+      if (EOCD_SIGNATURE == mMap.getInt(i)
+        && i + EOCD_SIZE + (mMap.getShort(i + 20) & 0xFFFF) == lLength) return i;
+    }
+    throw new IOException("Not a zip archive " + mFile);
+  }
+
+  /**
+   * Index the central directory entries
+   * @param start int: Offset of the central directory
+   * @param end int: End of the central directory
+   * @throws IOException Signals that the central directory is invalid.
+   */
+  private void readCentralDirectory(int start, int end) throws IOException {
+    int lPosition = start;
+    byte[] lName = new byte[256];
+    for (int i = 0; i < mCount; i++) {
+      if (lPosition + CENTRAL_HEADER_SIZE > end || CENTRAL_SIGNATURE != mMap.getInt(lPosition))
+        throw new IOException("Invalid central directory entry " + i + " in " + mFile);
+      int lFlags = mMap.getShort(lPosition + 8) & 0xFFFF;
+      int lNameLength = mMap.getShort(lPosition + 28) & 0xFFFF;
+      int lNext = lPosition + CENTRAL_HEADER_SIZE + lNameLength
+        + (mMap.getShort(lPosition + 30) & 0xFFFF) + (mMap.getShort(lPosition + 32) & 0xFFFF);
+      if (lNext > end) throw new IOException("Invalid central directory entry " + i + " in " + mFile);
+
+      if (lName.length < lNameLength) lName = new byte[lNameLength];
+      ByteBuffer lNameBytes = mMap.duplicate();
+      lNameBytes.position(lPosition + CENTRAL_HEADER_SIZE);
+      lNameBytes.get(lName, 0, lNameLength);
+      String lEntryName = new String(lName, 0, lNameLength, 0 != (lFlags & FLAG_UTF8) ? UTF8 : LEGACY);
+
+      // Directories have no data
+      if (!lEntryName.endsWith("/")) {
+        mNames[i]              = lEntryName;
+        mMethods[i]            = (byte) mMap.getShort(lPosition + 10);
+        mCompressedSizes[i]    = mMap.getInt(lPosition + 20) & 0xFFFFFFFFL;
+        mSizes[i]              = mMap.getInt(lPosition + 24) & 0xFFFFFFFFL;
+        mLocalHeaderOffsets[i] = mMap.getInt(lPosition + 42) & 0xFFFFFFFFL;
+        mFileCount++;
+      }
+      lPosition = lNext;
+    }
+  }
+
+  /**
+   * Read the local header of an entry to find its data
+   * @param slot int: The entry slot
+   * @return long: Offset of the first data byte
+   * @throws IOException Signals that the local header is invalid.
+   */
+  private long resolveDataOffset(int slot) throws IOException {
+    synchronized (mDataOffsets) {
+      if (UNRESOLVED != mDataOffsets[slot]) return mDataOffsets[slot];
+      // The local extra field may differ from the central one
+      long lHeader = mLocalHeaderOffsets[slot];
+      if (lHeader + LOCAL_HEADER_SIZE > mMap.capacity() || LOCAL_SIGNATURE != mMap.getInt((int) lHeader))
+        throw new IOException("Invalid local header of " + mNames[slot] + " in " + mFile);
+      long lOffset = lHeader + LOCAL_HEADER_SIZE
+        + (mMap.getShort((int) lHeader + 26) & 0xFFFF) + (mMap.getShort((int) lHeader + 28) & 0xFFFF);
+      if (lOffset + mCompressedSizes[slot] > mMap.capacity())
+        throw new IOException("Truncated entry " + mNames[slot] + " in " + mFile);
+      mDataOffsets[slot] = lOffset;
+      return lOffset;
+    }
+  }
+}
@@ -3,43 +3,124 @@ package fr.wildcodeschool.mediaplayer.obb;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.storage.OnObbStateChangeListener;
 import android.os.storage.StorageManager;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fr.wildcodeschool.mediaplayer.util.LatencyHistogram;
 
 import static android.Manifest.permission.READ_EXTERNAL_STORAGE;
 import static android.app.Activity.*;
+import static android.os.storage.OnObbStateChangeListener.MOUNTED;
+import static android.os.storage.OnObbStateChangeListener.UNMOUNTED;
 
 public class ObbManager {
+  // TAG
+  private static final String TAG = "ObbManager";
   // Read OBB permission
   public static final int PERMISSIONS_REQUEST_READ_OBB = 1;
   // const
   private static final String OBB_KEY = null;
   private static final String OBB_NAME = "main.1.fr.wildcodeschool.mediaplayer.obb";
+  // Optional OBB layered over the main one, its files replace the main ones
+  private static final String PATCH_NAME = "patch.1.fr.wildcodeschool.mediaplayer.obb";
   private final String RAW_PATH;
+  private final String RAW_PATCH_PATH;
+  // Integrity manifests of the OBB, shipped in the APK assets
+  private static final String MANIFEST_SUFFIX = ".manifest";
+  // Leaves already verified, keyed by the OBB size and date
+  private static final String VERIFIED_SUFFIX = ".verified";
+
+  // Leaf hashing threads, one per core
+  private static final ExecutorService mHashExecutor = Executors.newFixedThreadPool(
+    Math.max(1, Runtime.getRuntime().availableProcessors()), (Runnable r) -> {
+      Thread lThread = new Thread(r, "ObbHash");
+      lThread.setDaemon(true);
+      lThread.setPriority(Thread.MIN_PRIORITY);
+      return lThread;
+    });
+  // Lists the files of the mounted OBB
+  private static final ExecutorService mIndexExecutor =
+    Executors.newSingleThreadExecutor((Runnable r) -> {
+      Thread lThread = new Thread(r, "ObbIndex");
+      lThread.setDaemon(true);
+      return lThread;
+    });
+  // Runs the whole OBB verification
+  private static final ExecutorService mVerifyExecutor =
+    Executors.newSingleThreadExecutor((Runnable r) -> {
+      Thread lThread = new Thread(r, "ObbVerifier");
+      lThread.setDaemon(true);
+      return lThread;
+    });
 
   private OnObbStateChangeListener mObbListener;
+  private final ObbManagerListener mListener;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
   private StorageManager mStorageManager;
   private AppCompatActivity mActivity;
+  // Mount roots and files of the mounted OBB, resolved once per mount
+  private volatile ObbTree mTree = null;
+  private volatile boolean isPatchFailed = false;
+  // Duration of the file lookups and of the StorageManager calls they replace
+  private final LatencyHistogram mLookupLatency = new LatencyHistogram("getFilePath");
+  private final LatencyHistogram mMountQueryLatency = new LatencyHistogram("getMountedObbPath");
+  // The OBB read as zip archives, when they are not mountable images
+  private ObbOverlay mArchive = null;
+  private boolean isArchiveChecked = false;
+  // Check the OBB against their manifest, null without manifest
+  private ObbVerifier mMainVerifier = null;
+  private ObbVerifier mPatchVerifier = null;
+  private boolean isVerifierChecked = false;
 
   public ObbManager(AppCompatActivity activity, ObbManagerListener listener) {
     // Store activity context
     mActivity = activity;
+    mListener = listener;
 
     // Get storage manager
     mStorageManager = (StorageManager) mActivity.getSystemService(Context.STORAGE_SERVICE);
     RAW_PATH = mActivity.getObbDir().getAbsolutePath() + File.separator + OBB_NAME;
+    RAW_PATCH_PATH = mActivity.getObbDir().getAbsolutePath() + File.separator + PATCH_NAME;
 
-    // ObbStateChangeListener
+    // ObbStateChangeListener, MOUNTED is reported once the main OBB and its patch are mounted
     mObbListener = new OnObbStateChangeListener() {
       @Override
       public void onObbStateChange(String path, int state) {
         super.onObbStateChange(path, state);
+        // The mount roots change with each mount
+        invalidateTree();
+        if (RAW_PATCH_PATH.equals(path)) {
+          // Without its patch, the main OBB is still usable
+          if (MOUNTED != state && UNMOUNTED != state) {
+            Log.e(TAG, "Patch OBB not mounted, state " + state);
+            isPatchFailed = true;
+          }
+          if (!isObbMounted()) return;
+          path  = RAW_PATH;
+          state = MOUNTED;
+        } else if (MOUNTED == state && !isObbMounted()) {
+          // Wait for the patch
+          return;
+        }
+        // Roots resolved and patch listed once, when both OBB are mounted
+        if (MOUNTED == state) getTree();
         if (null != listener) listener.onObbStateChange(path, state);
       }
     };
@@ -55,19 +136,330 @@ public class ObbManager {
     return RESULT_OK;
   }
 
-  public void mountMainObb() {
+  public void mountObb() {
     mStorageManager.mountObb(RAW_PATH, OBB_KEY, mObbListener);
+    if (hasPatch()) {
+      isPatchFailed = false;
+      mStorageManager.mountObb(RAW_PATCH_PATH, OBB_KEY, mObbListener);
+    }
   }
 
-  public void unmountMainObb() {
+  public void unmountObb() {
     mStorageManager.unmountObb(RAW_PATH, true, mObbListener);
+    if (hasPatch() && mStorageManager.isObbMounted(RAW_PATCH_PATH))
+      mStorageManager.unmountObb(RAW_PATCH_PATH, true, mObbListener);
+    invalidateTree();
   }
 
+  /**
+   * Check if the main OBB and its patch, if any, are mounted
+   * @return boolean: true when the files can be read from the mount points
+   */
   public boolean isObbMounted() {
-    return mStorageManager.isObbMounted(RAW_PATH);
+    if (!mStorageManager.isObbMounted(RAW_PATH)) return false;
+    return !hasPatch() || isPatchFailed || mStorageManager.isObbMounted(RAW_PATCH_PATH);
+  }
+
+  /**
+   * Check if a patch OBB has been downloaded next to the main one
+   * @return boolean: true if the patch file exists
+   */
+  public boolean hasPatch() {
+    return getPatchFile().isFile();
+  }
+
+  public File getObbFile() {
+    return new File(RAW_PATH);
+  }
+
+  public File getPatchFile() {
+    return new File(RAW_PATCH_PATH);
+  }
+
+  /**
+   * Returns the main OBB file, which may also be read as a zip archive without mounting it
+   * @param context Context: Application context
+   * @return File: The main OBB file
+   */
+  public static File getMainObbFile(Context context) {
+    return new File(context.getObbDir(), OBB_NAME);
+  }
+
+  /**
+   * Returns the patch OBB file, which may not exist
+   * @param context Context: Application context
+   * @return File: The patch OBB file
+   */
+  public static File getPatchObbFile(Context context) {
+    return new File(context.getObbDir(), PATCH_NAME);
+  }
+
+  /**
+   * Open the main OBB and its patch as zip archives, so that their files are read without
+   * mounting them. The archives are opened once, later calls return the same instance.
+   * @return ObbOverlay: The archives or null if the OBB are missing or are not zip files
+   */
+  @Nullable @WorkerThread
+  public synchronized ObbOverlay openArchive() {
+    if (!isArchiveChecked) {
+      isArchiveChecked = true;
+      try {
+        mArchive = ObbOverlay.open(getObbFile(), getPatchFile());
+      } catch (IOException e) {
+        // Mountable images, the files are read from the mount points
+        mArchive = null;
+      }
+    }
+    return mArchive;
+  }
+
+  /**
+   * Returns the archives opened by openArchive
+   * @return ObbOverlay: The archives or null if the OBB are not read as zip archives
+   */
+  @Nullable
+  public synchronized ObbOverlay getArchive() {
+    return mArchive;
+  }
+
+  /**
+   * Release the mapping of the archive and save the verified leaves
+   */
+  public synchronized void closeArchive() {
+    if (null != mArchive) {
+      try {
+        mArchive.close();
+      } catch (IOException e) {
+        // Nothing else to release
+      }
+    }
+    mArchive = null;
+    isArchiveChecked = false;
+    close(mMainVerifier);
+    close(mPatchVerifier);
+    mMainVerifier = null;
+    mPatchVerifier = null;
+    isVerifierChecked = false;
   }
 
+  private static void close(@Nullable ObbVerifier verifier) {
+    if (null == verifier) return;
+    try {
+      verifier.close();
+    } catch (IOException e) {
+      // Nothing else to release
+    }
+  }
+
+  // --------------------------------------------------------------------------
+  // Integrity
+  // --------------------------------------------------------------------------
+
+  /**
+   * Load the manifests of the OBB and the leaves verified by the previous runs.
+   * Nothing is hashed here.
+   */
+  @WorkerThread
+  private synchronized void openVerifiers() {
+    if (isVerifierChecked) return;
+    isVerifierChecked = true;
+    mMainVerifier = openVerifier(getObbFile());
+    if (hasPatch()) mPatchVerifier = openVerifier(getPatchFile());
+  }
+
+  /**
+   * Load the manifest of an OBB
+   * @param obb File: The OBB file
+   * @return ObbVerifier: The verifier or null if the APK has no manifest for this OBB
+   */
+  @Nullable @WorkerThread
+  private ObbVerifier openVerifier(File obb) {
+    String lName = obb.getName();
+    try (InputStream lInput = mActivity.getAssets().open(lName + MANIFEST_SUFFIX)) {
+      ObbManifest lManifest = ObbManifest.read(lInput);
+      return new ObbVerifier(obb, lManifest,
+        new File(mActivity.getCacheDir(), lName + VERIFIED_SUFFIX), mHashExecutor);
+    } catch (FileNotFoundException e) {
+      Log.w(TAG, "No manifest, " + lName + " is not verified");
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to load the manifest of " + lName, e);
+    }
+    return null;
+  }
+
+  /**
+   * Verify a file of the archives, only its leaves are hashed and only once
+   * @param name String: Path of the file in the OBB
+   * @return boolean: false if the file is corrupted, true if intact or if there is nothing to check
+   */
+  @WorkerThread
+  public boolean verifyEntry(String name) {
+    ObbOverlay lArchive = openArchive();
+    if (null == lArchive) return true;
+    ObbArchive.Entry lEntry = lArchive.getEntry(name);
+    return (null == lEntry) || verifyEntry(lEntry);
+  }
+
+  /**
+   * Verify a file of the archives against the manifest of the OBB which contains it
+   * @param entry ObbArchive.Entry: A file of the archives opened by openArchive
+   * @return boolean: false if the file is corrupted, true if intact or if there is nothing to check
+   */
+  @WorkerThread
+  public boolean verifyEntry(ObbArchive.Entry entry) {
+    openVerifiers();
+    ObbVerifier lVerifier;
+    synchronized (this) {
+      lVerifier = getPatchFile().equals(entry.getArchive().getFile()) ? mPatchVerifier : mMainVerifier;
+    }
+    if (null == lVerifier) return true;
+    try {
+      return lVerifier.verifyEntry(entry);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to verify " + entry.getName(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Verify the whole OBB in background, the leaves are hashed in parallel.
+   * The listener receives the result in UI thread, unless there is no manifest.
+   */
+  public void verifyInBackground() {
+    mVerifyExecutor.execute(() -> {
+      openVerifiers();
+      final ObbVerifier lMain;
+      final ObbVerifier lPatch;
+      synchronized (this) {
+        lMain  = mMainVerifier;
+        lPatch = mPatchVerifier;
+      }
+      if (null == lMain && null == lPatch) return;
+      boolean isIntact;
+      try {
+        isIntact = verifyAll(lMain) & verifyAll(lPatch);
+      } catch (ClosedChannelException e) {
+        // Archive closed meanwhile, the verified leaves are saved
+        return;
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to verify the OBB", e);
+        isIntact = false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      final boolean lIntact = isIntact;
+      mMainHandler.post(() -> {
+        // Not delivered once the archives have been closed
+        if (null != mListener && isVerifying(lMain, lPatch)) mListener.onObbVerified(lIntact);
+      });
+    });
+  }
+
+  /**
+   * Verify a whole OBB in the calling thread
+   * @param verifier ObbVerifier: The verifier of the OBB, may be null
+   * @return boolean: true if the OBB is intact or has no manifest
+   */
+  @WorkerThread
+  private static boolean verifyAll(@Nullable ObbVerifier verifier)
+    throws IOException, InterruptedException {
+    if (null == verifier) return true;
+    long lStart = System.nanoTime();
+    boolean isIntact = verifier.verifyAll();
+    Log.i(TAG, verifier.getFile().getName() + ": " + verifier
+      + " in " + (System.nanoTime() - lStart) / 1000000 + " ms");
+    return isIntact;
+  }
+
+  private synchronized boolean isVerifying(ObbVerifier main, ObbVerifier patch) {
+    return main == mMainVerifier && patch == mPatchVerifier;
+  }
+
+  // --------------------------------------------------------------------------
+  // Mounted files
+  // --------------------------------------------------------------------------
+
+  /**
+   * Returns the absolute path of a file of the mounted OBB, from the patch if it contains it.
+   * Resolved in memory, the mount roots are queried once per mount.
+   * @param filename String: Path of the file in the OBB
+   * @return String: The absolute path of the file
+   */
   public String getFilePath(String filename) {
-    return mStorageManager.getMountedObbPath(RAW_PATH) + File.separator + filename;
+    long lStart = System.nanoTime();
+    ObbTree lTree = getTree();
+    String lPath = (null != lTree)
+      ? lTree.getPath(filename)
+      : queryMountedPath(RAW_PATH) + File.separator + filename;
+    mLookupLatency.record(System.nanoTime() - lStart);
+    return lPath;
+  }
+
+  /**
+   * Check if a file exists in the mounted OBB, without file system access once listed
+   * @param filename String: Path of the file in the OBB
+   * @return boolean: true if the file exists
+   */
+  public boolean exists(String filename) {
+    ObbTree lTree = getTree();
+    return (null != lTree) && lTree.exists(filename);
+  }
+
+  /**
+   * Log the lookup latencies against the StorageManager calls
+   */
+  public void logMetrics() {
+    Log.i(TAG, mLookupLatency + " " + mMountQueryLatency);
+  }
+
+  // Accessors / Getters
+  public LatencyHistogram getLookupLatency()     { return mLookupLatency; }
+  public LatencyHistogram getMountQueryLatency() { return mMountQueryLatency; }
+
+  /**
+   * Returns the files of the mounted OBB, resolved on first call after a mount.
+   * The main tree is then listed in background.
+   * @return ObbTree: The mounted tree or null if the main OBB is not mounted
+   */
+  private ObbTree getTree() {
+    ObbTree lTree = mTree;
+    if (null != lTree) return lTree;
+    synchronized (this) {
+      if (null != mTree) return mTree;
+      String lMainRoot = queryMountedPath(RAW_PATH);
+      // Not cached until the OBB is mounted
+      if (null == lMainRoot) return null;
+      String lPatchRoot = (hasPatch() && !isPatchFailed) ? queryMountedPath(RAW_PATCH_PATH) : null;
+      final ObbTree lNewTree = new ObbTree(lMainRoot, lPatchRoot);
+      Log.i(TAG, lNewTree.getPatchSize() + " files in the patch OBB");
+      mTree = lNewTree;
+      mIndexExecutor.execute(() -> {
+        long lStart = System.nanoTime();
+        int lCount = lNewTree.indexMainFiles();
+        Log.i(TAG, lCount + " files in the main OBB listed in "
+          + (System.nanoTime() - lStart) / 1000000 + " ms");
+      });
+      return lNewTree;
+    }
+  }
+
+  /**
+   * Forget the mount roots, called when an OBB is mounted or unmounted
+   */
+  private synchronized void invalidateTree() {
+    mTree = null;
+  }
+
+  /**
+   * Ask the mount point of an OBB to the system service
+   * @param rawPath String: Path of the OBB file
+   * @return String: The mount point or null if the OBB is not mounted
+   */
+  private String queryMountedPath(String rawPath) {
+    long lStart = System.nanoTime();
+    String lRoot = mStorageManager.getMountedObbPath(rawPath);
+    mMountQueryLatency.record(System.nanoTime() - lStart);
+    return lRoot;
   }
-}
\ No newline at end of file
+}
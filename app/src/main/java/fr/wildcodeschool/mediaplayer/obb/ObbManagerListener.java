@@ -2,4 +2,5 @@ package fr.wildcodeschool.mediaplayer.obb;
 
 public interface ObbManagerListener {
   public void onObbStateChange(String path, int state);
+  public void onObbVerified(boolean isIntact);
 }
@@ -0,0 +1,247 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Expected content of the OBB as a Merkle tree: the file is cut in fixed size leaves,
+ * each leaf is hashed with SHA-256 and the leaf hashes are combined pairwise up to a root.
+ * A leaf can be checked alone, so a file of the archive is verified without hashing the OBB.
+ *
+ * Binary layout, big-endian:
+ * magic, version, leaf size, file size, leaf count, leaf hashes, root hash.
+ */
+@SuppressWarnings("unused")
+public final class ObbManifest {
+  // Default leaf size
+  public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+  // Binary layout
+  private static final int MAGIC = 0x4F42424D; // OBBM
+  private static final int VERSION = 1;
+  static final String ALGORITHM = "SHA-256";
+  static final int HASH_SIZE = 32;
+  // Read buffer of the leaf hashing
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int mLeafSize;
+  private final long mFileSize;
+  private final byte[][] mLeaves;
+  private final byte[] mRoot;
+
+  /**
+   * Constructor
+   * @param leafSize int: Number of bytes of each leaf, the last one may be shorter
+   * @param fileSize long: Size of the OBB file
+   * @param leaves byte[][]: Hash of each leaf
+   */
+  ObbManifest(int leafSize, long fileSize, byte[][] leaves) {
+    mLeafSize = leafSize;
+    mFileSize = fileSize;
+    mLeaves   = leaves;
+    mRoot     = rootOf(leaves);
+  }
+
+  // Accessors / Getters
+  public int getLeafSize()   { return mLeafSize; }
+  public long getFileSize()  { return mFileSize; }
+  public int getLeafCount()  { return mLeaves.length; }
+  public byte[] getRoot()    { return mRoot.clone(); }
+
+  /**
+   * Check the hash of a leaf
+   * @param index int: Position of the leaf
+   * @param hash byte[]: Hash of the leaf bytes read from the OBB
+   * @return boolean: true if the leaf is intact
+   */
+  public boolean matches(int index, byte[] hash) {
+    return MessageDigest.isEqual(mLeaves[index], hash);
+  }
+
+  /**
+   * Number of leaves of a file
+   * @param fileSize long: Size of the file
+   * @param leafSize int: Number of bytes of each leaf
+   * @return int: The leaf count
+   */
+  static int leafCount(long fileSize, int leafSize) {
+    return (int) ((fileSize + leafSize - 1) / leafSize);
+  }
+
+  // --------------------------------------------------------------------------
+  // Serialization
+  // --------------------------------------------------------------------------
+
+  /**
+   * Read a manifest, the leaf hashes are checked against the stored root
+   * @param input InputStream: The serialized manifest
+   * @return ObbManifest: The manifest
+   * @throws IOException If the stream is not a valid manifest
+   */
+  public static ObbManifest read(InputStream input) throws IOException {
+    DataInputStream lInput = new DataInputStream(input);
+    if (MAGIC != lInput.readInt()) throw new IOException("Not an OBB manifest");
+    int lVersion = lInput.readInt();
+    if (VERSION != lVersion) throw new IOException("Unsupported manifest version " + lVersion);
+
+    int lLeafSize = lInput.readInt();
+    long lFileSize = lInput.readLong();
+    int lLeafCount = lInput.readInt();
+    if (lLeafSize <= 0 || lFileSize < 0 || lLeafCount != leafCount(lFileSize, lLeafSize))
+      throw new IOException("Invalid manifest geometry");
+
+    byte[][] lLeaves = new byte[lLeafCount][HASH_SIZE];
+    for (byte[] lLeaf : lLeaves) lInput.readFully(lLeaf);
+    byte[] lRoot = new byte[HASH_SIZE];
+    lInput.readFully(lRoot);
+
+    ObbManifest lManifest = new ObbManifest(lLeafSize, lFileSize, lLeaves);
+    if (!MessageDigest.isEqual(lRoot, lManifest.mRoot))
+      throw new IOException("Manifest leaves do not match its root");
+    return lManifest;
+  }
+
+  /**
+   * Write the manifest
+   * @param output OutputStream: Receiver of the serialized manifest
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public void write(OutputStream output) throws IOException {
+    DataOutputStream lOutput = new DataOutputStream(output);
+    lOutput.writeInt(MAGIC);
+    lOutput.writeInt(VERSION);
+    lOutput.writeInt(mLeafSize);
+    lOutput.writeLong(mFileSize);
+    lOutput.writeInt(mLeaves.length);
+    for (byte[] lLeaf : mLeaves) lOutput.write(lLeaf);
+    lOutput.write(mRoot);
+    lOutput.flush();
+  }
+
+  // --------------------------------------------------------------------------
+  // Hashing
+  // --------------------------------------------------------------------------
+
+  /**
+   * Build the manifest of a file, the leaves are hashed in parallel
+   * @param file File: The OBB file
+   * @param leafSize int: Number of bytes of each leaf
+   * @param executor ExecutorService: Hashing threads
+   * @return ObbManifest: The manifest of the file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   * @throws InterruptedException If the calling thread is interrupted
+   */
+  public static ObbManifest build(File file, int leafSize, ExecutorService executor)
+    throws IOException, InterruptedException {
+    try (RandomAccessFile lFile = new RandomAccessFile(file, "r")) {
+      final FileChannel lChannel = lFile.getChannel();
+      final long lFileSize = lChannel.size();
+      List<Callable<byte[]>> lTasks = new ArrayList<>();
+      for (int i = 0; i < leafCount(lFileSize, leafSize); i++) {
+        final int lIndex = i;
+        lTasks.add(() -> hashLeaf(lChannel, lIndex, leafSize, lFileSize));
+      }
+
+      List<Future<byte[]>> lFutures = executor.invokeAll(lTasks);
+      byte[][] lLeaves = new byte[lFutures.size()][];
+      for (int i = 0; i < lLeaves.length; i++) lLeaves[i] = get(lFutures.get(i));
+      return new ObbManifest(leafSize, lFileSize, lLeaves);
+    }
+  }
+
+  /**
+   * Hash a leaf of a file. Positional reads, the channel may be shared by several threads.
+   * @param channel FileChannel: The OBB file
+   * @param index int: Position of the leaf
+   * @param leafSize int: Number of bytes of each leaf
+   * @param fileSize long: Size of the file
+   * @return byte[]: The leaf hash
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  static byte[] hashLeaf(FileChannel channel, int index, int leafSize, long fileSize)
+    throws IOException {
+    MessageDigest lDigest = newDigest();
+    ByteBuffer lBuffer = ByteBuffer.allocate(Math.min(BUFFER_SIZE, leafSize));
+    long lPosition = (long) index * leafSize;
+    long lEnd = Math.min(fileSize, lPosition + leafSize);
+    while (lPosition < lEnd) {
+      lBuffer.clear();
+      lBuffer.limit((int) Math.min(lBuffer.capacity(), lEnd - lPosition));
+      int lCount = channel.read(lBuffer, lPosition);
+      if (lCount < 0) throw new IOException("Truncated leaf " + index);
+      lDigest.update(lBuffer.array(), 0, lCount);
+      lPosition += lCount;
+    }
+    return lDigest.digest();
+  }
+
+  /**
+   * Combine the leaf hashes pairwise up to the root, an odd node is promoted as is
+   * @param leaves byte[][]: The leaf hashes
+   * @return byte[]: The root hash, the hash of nothing for an empty file
+   */
+  static byte[] rootOf(byte[][] leaves) {
+    MessageDigest lDigest = newDigest();
+    if (0 == leaves.length) return lDigest.digest();
+
+    byte[][] lLevel = leaves;
+    while (lLevel.length > 1) {
+      byte[][] lParents = new byte[(lLevel.length + 1) / 2][];
+      for (int i = 0; i < lParents.length; i++) {
+        if (2 * i + 1 < lLevel.length) {
+          lDigest.update(lLevel[2 * i]);
+          lDigest.update(lLevel[2 * i + 1]);
+          lParents[i] = lDigest.digest();
+        } else {
+          lParents[i] = lLevel[2 * i];
+        }
+      }
+      lLevel = lParents;
+    }
+    return Arrays.copyOf(lLevel[0], lLevel[0].length);
+  }
+
+  /**
+   * Returns a new digest, SHA-256 is available on every platform
+   * @return MessageDigest: The digest
+   */
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the result of a hashing task
+   * @param future Future: The task
+   * @return T: The task result
+   * @throws IOException If the task failed
+   * @throws InterruptedException If the calling thread is interrupted
+   */
+  static <T> T get(Future<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable lCause = e.getCause();
+      if (lCause instanceof IOException) throw (IOException) lCause;
+      throw new IOException(lCause);
+    }
+  }
+}
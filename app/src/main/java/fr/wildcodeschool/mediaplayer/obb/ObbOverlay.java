@@ -0,0 +1,191 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Main OBB with an optional patch OBB layered over it, both read as zip archives.
+ * A single index of the paths of both archives is built once: a file of the patch
+ * replaces the file of the main OBB with the same path, the other files of the main
+ * OBB stay visible. Content updates are shipped in a small patch, without a new main OBB.
+ */
+@SuppressWarnings("unused")
+public final class ObbOverlay implements Closeable {
+  // Archive of an index cell
+  private static final int MAIN = 0;
+  private static final int PATCH = 1;
+  // Slots are 16 bits, the archive is stored above them
+  private static final int ARCHIVE_SHIFT = 16;
+  private static final int SLOT_MASK = (1 << ARCHIVE_SHIFT) - 1;
+
+  private final ObbArchive mMain;
+  private final ObbArchive mPatch;
+  // Open addressing table of the paths, archive << 16 | slot, plus 1, or 0 when free
+  private final int[] mTable;
+  private int mSize = 0;
+
+  /**
+   * Constructor, the merged index is built here
+   * @param main ObbArchive: The main OBB
+   * @param patch ObbArchive: The patch OBB, may be null
+   */
+  public ObbOverlay(ObbArchive main, ObbArchive patch) {
+    mMain  = main;
+    mPatch = patch;
+    int lCount = main.size() + ((null == patch) ? 0 : patch.size());
+    mTable = new int[tableSize(lCount)];
+    // Patch first, its files hide the main ones
+    if (null != patch) index(PATCH, patch);
+    index(MAIN, main);
+  }
+
+  /**
+   * Open the main OBB and the patch OBB if there is one
+   * @param main File: The main OBB
+   * @param patch File: The patch OBB, ignored if the file does not exist
+   * @return ObbOverlay: The merged archives
+   * @throws IOException If one of the OBB is not a zip archive
+   */
+  public static ObbOverlay open(File main, File patch) throws IOException {
+    ObbArchive lMain = new ObbArchive(main);
+    ObbArchive lPatch = null;
+    try {
+      if (null != patch && patch.isFile()) lPatch = new ObbArchive(patch);
+    } catch (IOException e) {
+      lMain.close();
+      throw e;
+    }
+    return new ObbOverlay(lMain, lPatch);
+  }
+
+  // Accessors / Getters
+  public ObbArchive getMain()  { return mMain; }
+  public ObbArchive getPatch() { return mPatch; }
+
+  /**
+   * Returns the number of visible files
+   * @return int: Files of the patch and files of the main OBB it does not replace
+   */
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * Total size of the archives, changes with any of them
+   * @return long: Size in bytes
+   */
+  public long length() {
+    return mMain.getFile().length() + ((null == mPatch) ? 0 : mPatch.getFile().length());
+  }
+
+  /**
+   * Latest modification date of the archives
+   * @return long: Modification date
+   */
+  public long lastModified() {
+    long lDate = mMain.getFile().lastModified();
+    return (null == mPatch) ? lDate : Math.max(lDate, mPatch.getFile().lastModified());
+  }
+
+  /**
+   * Returns a file, from the patch if it contains it, from the main OBB otherwise
+   * @param name String: Path of the file
+   * @return ObbArchive.Entry: The entry, its archive is given by getArchive, or null if none
+   */
+  public ObbArchive.Entry getEntry(String name) {
+    int lCell = find(name);
+    if (lCell < 0) return null;
+    return archiveOf(lCell).entryAt(lCell & SLOT_MASK);
+  }
+
+  /**
+   * Returns the content of a file
+   * @param name String: Path of the file
+   * @return ByteBuffer: The content or null if none of the archives contains the file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public ByteBuffer getBuffer(String name) throws IOException {
+    ObbArchive.Entry lEntry = getEntry(name);
+    return (null == lEntry) ? null : lEntry.getArchive().getBuffer(lEntry);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      mMain.close();
+    } finally {
+      if (null != mPatch) mPatch.close();
+    }
+  }
+
+  // --------------------------------------------------------------------------
+  // Index
+  // --------------------------------------------------------------------------
+
+  /**
+   * Add the files of an archive which are not already indexed
+   * @param archive int: MAIN or PATCH
+   * @param source ObbArchive: The archive
+   */
+  private void index(int archive, ObbArchive source) {
+    int lMask = mTable.length - 1;
+    for (int lSlot = 0; lSlot < source.slotCount(); lSlot++) {
+      String lName = source.nameAt(lSlot);
+      if (null == lName) continue;
+      for (int i = hash(lName); ; i = (i + 1) & lMask) {
+        int lCell = mTable[i] - 1;
+        if (lCell < 0) {
+          mTable[i] = ((archive << ARCHIVE_SHIFT) | lSlot) + 1;
+          mSize++;
+          break;
+        }
+        if (lName.equals(nameOf(lCell))) {
+          // Duplicated in the archive, the last record wins
+          if (archive == (lCell >>> ARCHIVE_SHIFT)) mTable[i] = ((archive << ARCHIVE_SHIFT) | lSlot) + 1;
+          // Otherwise already provided by the patch
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the index cell of a path
+   * @param name String: Path of the file
+   * @return int: The cell or -1 if none of the archives contains the file
+   */
+  private int find(String name) {
+    int lMask = mTable.length - 1;
+    for (int i = hash(name); ; i = (i + 1) & lMask) {
+      int lCell = mTable[i] - 1;
+      if (lCell < 0) return -1;
+      if (name.equals(nameOf(lCell))) return lCell;
+    }
+  }
+
+  /**
+   * Returns the size of the index, at most half full
+   * @param count int: Number of files
+   * @return int: A power of 2
+   */
+  static int tableSize(int count) {
+    int lSize = 2;
+    while (lSize < count * 2) lSize <<= 1;
+    return lSize;
+  }
+
+  private ObbArchive archiveOf(int cell) {
+    return (PATCH == (cell >>> ARCHIVE_SHIFT)) ? mPatch : mMain;
+  }
+
+  private String nameOf(int cell) {
+    return archiveOf(cell).nameAt(cell & SLOT_MASK);
+  }
+
+  private int hash(String name) {
+    int lHash = name.hashCode();
+    return (lHash ^ (lHash >>> 16)) & (mTable.length - 1);
+  }
+}
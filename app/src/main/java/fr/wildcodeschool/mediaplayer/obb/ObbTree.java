@@ -0,0 +1,93 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Files of the mounted OBB, resolved in memory.
+ * The mount roots are resolved once per mount. The patch tree, small, is listed at once
+ * since its files replace the main ones. The main tree is listed later in a background
+ * thread, existence checks hit the file system until it is done.
+ */
+@SuppressWarnings("unused")
+public final class ObbTree {
+  // Separator of the paths in the OBB
+  private static final char SEPARATOR = '/';
+
+  private final String mMainRoot;
+  // Files of the patch, path in the OBB to absolute path
+  private final Map<String, String> mPatchPaths;
+  // Files of the main OBB, null until listed
+  private volatile Set<String> mMainFiles = null;
+
+  /**
+   * Constructor, the patch tree is listed here
+   * @param mainRoot String: Mount point of the main OBB
+   * @param patchRoot String: Mount point of the patch OBB, null without patch
+   */
+  public ObbTree(String mainRoot, String patchRoot) {
+    mMainRoot = mainRoot;
+    Map<String, String> lPatchPaths = new HashMap<>();
+    if (null != patchRoot) listFiles(new File(patchRoot), "", lPatchPaths);
+    mPatchPaths = lPatchPaths;
+  }
+
+  // Accessors / Getters
+  public String getMainRoot()  { return mMainRoot; }
+  public int getPatchSize()    { return mPatchPaths.size(); }
+  public boolean isIndexed()   { return null != mMainFiles; }
+
+  /**
+   * Returns the absolute path of a file, from the patch if it contains it
+   * @param filename String: Path of the file in the OBB
+   * @return String: The absolute path, which may not exist
+   */
+  public String getPath(String filename) {
+    String lPatched = mPatchPaths.get(filename);
+    return (null != lPatched) ? lPatched : mMainRoot + File.separator + filename;
+  }
+
+  /**
+   * Check if a file exists in one of the OBB
+   * @param filename String: Path of the file in the OBB
+   * @return boolean: true if the file exists
+   */
+  public boolean exists(String filename) {
+    if (mPatchPaths.containsKey(filename)) return true;
+    Set<String> lMainFiles = mMainFiles;
+    return (null != lMainFiles) ? lMainFiles.contains(filename) : new File(getPath(filename)).isFile();
+  }
+
+  /**
+   * List the files of the main OBB, called once in a background thread
+   * @return int: Number of files of the main OBB
+   */
+  public int indexMainFiles() {
+    Map<String, String> lPaths = new HashMap<>();
+    listFiles(new File(mMainRoot), "", lPaths);
+    mMainFiles = Collections.unmodifiableSet(new HashSet<>(lPaths.keySet()));
+    return lPaths.size();
+  }
+
+  /**
+   * List the files of a directory recursively
+   * @param directory File: The directory in the mount point
+   * @param prefix String: Path of the directory in the OBB
+   * @param paths Map: Receives the files, path in the OBB to absolute path
+   */
+  private static void listFiles(File directory, String prefix, Map<String, String> paths) {
+    File[] lFiles = directory.listFiles();
+    if (null == lFiles) return;
+    for (File lFile : lFiles) {
+      if (lFile.isDirectory()) {
+        listFiles(lFile, prefix + lFile.getName() + SEPARATOR, paths);
+      } else {
+        paths.put(prefix + lFile.getName(), lFile.getAbsolutePath());
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check the OBB against its manifest.
+ * Leaves are hashed on demand, when a file of the archive is read, or all at once in
+ * parallel by verifyAll. The verified leaves are saved in a cache file, keyed by the size
+ * and the date of the OBB, so an unchanged OBB is never hashed twice.
+ */
+@SuppressWarnings("unused")
+public final class ObbVerifier implements Closeable {
+  // Cache file layout
+  private static final int CACHE_MAGIC = 0x4F425643; // OBVC
+
+  private final File mFile;
+  private final ObbManifest mManifest;
+  private final File mCacheFile;
+  private final ExecutorService mExecutor;
+  private final RandomAccessFile mRaf;
+  private final FileChannel mChannel;
+  // Identity of the verified OBB
+  private final long mSize;
+  private final long mDate;
+
+  // Leaves checked since the OBB has been written
+  private final BitSet mVerified = new BitSet();
+  private final BitSet mCorrupted = new BitSet();
+  private boolean isDirty = false;
+
+  // Metrics
+  private final AtomicInteger mHashedCount = new AtomicInteger();
+
+  /**
+   * Constructor, the leaves verified by a previous run are restored from the cache
+   * @param file File: The OBB file
+   * @param manifest ObbManifest: Expected content of the OBB
+   * @param cacheFile File: Verified leaves of the OBB, created if needed
+   * @param executor ExecutorService: Hashing threads of verifyAll
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public ObbVerifier(File file, ObbManifest manifest, File cacheFile, ExecutorService executor)
+    throws IOException {
+    mFile      = file;
+    mManifest  = manifest;
+    mCacheFile = cacheFile;
+    mExecutor  = executor;
+    mRaf       = new RandomAccessFile(file, "r");
+    mChannel   = mRaf.getChannel();
+    mSize      = mChannel.size();
+    mDate      = file.lastModified();
+    loadCache();
+  }
+
+  // Accessors / Getters
+  public File getFile()       { return mFile; }
+  public int getHashedCount() { return mHashedCount.get(); }
+
+  /**
+   * Check if the OBB has the size of the manifest, a truncated OBB is never valid
+   * @return boolean: true if the size matches
+   */
+  public boolean hasExpectedSize() {
+    return mSize == mManifest.getFileSize();
+  }
+
+  /**
+   * Returns the number of leaves verified so far
+   * @return int: Verified leaves
+   */
+  public synchronized int getVerifiedCount() {
+    return mVerified.cardinality();
+  }
+
+  /**
+   * Verify the bytes of a file of the archive, only the leaves not verified yet are hashed
+   * @param entry ObbArchive.Entry: The file to verify, from an archive opened on the same OBB
+   * @return boolean: true if the file bytes are intact
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public boolean verifyEntry(ObbArchive.Entry entry) throws IOException {
+    if (!mFile.equals(entry.getArchive().getFile()))
+      throw new IllegalArgumentException(entry.getName() + " is not a file of " + mFile);
+    return verifyRange(entry.getArchive().getDataOffset(entry), entry.getCompressedSize());
+  }
+
+  /**
+   * Verify a range of the OBB in the calling thread, only the leaves not verified yet are hashed
+   * @param offset long: First byte of the range
+   * @param length long: Number of bytes of the range
+   * @return boolean: true if the range is intact
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public boolean verifyRange(long offset, long length) throws IOException {
+    if (!hasExpectedSize()) return false;
+    if (length <= 0) return true;
+    int lLeafSize = mManifest.getLeafSize();
+    int lFirst = (int) (offset / lLeafSize);
+    int lLast = (int) ((offset + length - 1) / lLeafSize);
+    for (int i = lFirst; i <= lLast; i++) {
+      if (!verifyLeaf(i)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Verify the whole OBB, the remaining leaves are hashed in parallel.
+   * Blocks the calling thread until the end of the hashing.
+   * @return boolean: true if the OBB is intact
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   * @throws InterruptedException If the calling thread is interrupted
+   */
+  public boolean verifyAll() throws IOException, InterruptedException {
+    if (!hasExpectedSize()) return false;
+    List<Callable<Boolean>> lTasks = new ArrayList<>();
+    synchronized (this) {
+      if (!mCorrupted.isEmpty()) return false;
+      for (int i = mVerified.nextClearBit(0); i < mManifest.getLeafCount();
+           i = mVerified.nextClearBit(i + 1)) {
+        final int lIndex = i;
+        lTasks.add(() -> verifyLeaf(lIndex));
+      }
+    }
+
+    boolean isIntact = true;
+    try {
+      for (Future<Boolean> lFuture : mExecutor.invokeAll(lTasks)) {
+        if (!ObbManifest.get(lFuture)) isIntact = false;
+      }
+    } finally {
+      save();
+    }
+    return isIntact;
+  }
+
+  /**
+   * Write the verified leaves in the cache file if they changed
+   */
+  public synchronized void save() {
+    if (!isDirty) return;
+    try (DataOutputStream lOutput = new DataOutputStream(new FileOutputStream(mCacheFile))) {
+      lOutput.writeInt(CACHE_MAGIC);
+      lOutput.writeLong(mSize);
+      lOutput.writeLong(mDate);
+      lOutput.write(mManifest.getRoot());
+      int lCount = mManifest.getLeafCount();
+      lOutput.writeInt(lCount);
+      for (int lByte = 0; lByte < (lCount + 7) / 8; lByte++) {
+        int lBits = 0;
+        for (int i = 0; i < 8; i++) {
+          if (mVerified.get(lByte * 8 + i)) lBits |= 1 << i;
+        }
+        lOutput.write(lBits);
+      }
+      isDirty = false;
+    } catch (IOException e) {
+      // Leaves are hashed again by the next run
+      mCacheFile.delete();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    save();
+    mRaf.close();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "ObbVerifier[leaves=%d, verified=%d, corrupted=%d, hashed=%d]",
+      mManifest.getLeafCount(), mVerified.cardinality(), mCorrupted.cardinality(), mHashedCount.get());
+  }
+
+  // --------------------------------------------------------------------------
+  // Leaves
+  // --------------------------------------------------------------------------
+
+  /**
+   * Hash a leaf unless it has already been checked
+   * @param index int: Position of the leaf
+   * @return boolean: true if the leaf is intact
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  private boolean verifyLeaf(int index) throws IOException {
+    synchronized (this) {
+      if (mVerified.get(index)) return true;
+      if (mCorrupted.get(index)) return false;
+    }
+    // Hashed outside of the lock, two threads may hash the same leaf at worst
+    byte[] lHash = ObbManifest.hashLeaf(mChannel, index, mManifest.getLeafSize(), mSize);
+    mHashedCount.incrementAndGet();
+    boolean isIntact = mManifest.matches(index, lHash);
+    synchronized (this) {
+      if (isIntact) {
+        mVerified.set(index);
+        isDirty = true;
+      } else {
+        mCorrupted.set(index);
+      }
+    }
+    return isIntact;
+  }
+
+  /**
+   * Restore the verified leaves of a previous run, if the OBB and the manifest are unchanged
+   */
+  private void loadCache() {
+    if (!mCacheFile.exists()) return;
+    try (DataInputStream lInput = new DataInputStream(new FileInputStream(mCacheFile))) {
+      if (CACHE_MAGIC != lInput.readInt()) return;
+      if (mSize != lInput.readLong() || mDate != lInput.readLong()) return;
+      byte[] lRoot = new byte[ObbManifest.HASH_SIZE];
+      lInput.readFully(lRoot);
+      if (!MessageDigest.isEqual(lRoot, mManifest.getRoot())) return;
+      int lCount = lInput.readInt();
+      if (lCount != mManifest.getLeafCount()) return;
+
+      BitSet lVerified = new BitSet(lCount);
+      for (int lByte = 0; lByte < (lCount + 7) / 8; lByte++) {
+        int lBits = lInput.readUnsignedByte();
+        for (int i = 0; i < 8; i++) {
+          if (0 != (lBits & (1 << i))) lVerified.set(lByte * 8 + i);
+        }
+      }
+      mVerified.or(lVerified);
+    } catch (IOException e) {
+      // Invalid cache, the leaves are hashed again
+    }
+  }
+}
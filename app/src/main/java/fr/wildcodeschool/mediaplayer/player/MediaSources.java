@@ -0,0 +1,70 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import android.media.MediaPlayer;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+import fr.wildcodeschool.mediaplayer.obb.ObbArchive;
+import fr.wildcodeschool.mediaplayer.obb.ObbOverlay;
+
+/**
+ * Give the data sources to the players. A source is a path, a URL or the URI of an
+ * entry of the OBB archives, which is played in place from the shared descriptor of its
+ * archive without mounting the OBB nor opening a file per song. An entry of the patch OBB
+ * replaces the entry of the main OBB.
+ */
+@SuppressWarnings("unused")
+public final class MediaSources {
+  // Scheme of the OBB entries
+  public static final String OBB_SCHEME = "obb:";
+
+  // Archives of the OBB entries, null if the OBB are not zip archives
+  private static volatile ObbOverlay mObbArchive = null;
+
+  private MediaSources() {
+  }
+
+  /**
+   * Register the archives which contain the OBB entries
+   * @param archive ObbOverlay: The opened archives, null when they are closed
+   */
+  public static void setObbArchive(@Nullable ObbOverlay archive) {
+    mObbArchive = archive;
+  }
+
+  /**
+   * Returns the source of a file of the OBB which can be played in place
+   * @param path String: Path of the file in the OBB
+   * @return String: The source or null if the file must be read from the mounted OBB
+   */
+  @Nullable
+  public static String obbSourceOf(@NonNull String path) {
+    ObbOverlay lArchive = mObbArchive;
+    if (null == lArchive) return null;
+    ObbArchive.Entry lEntry = lArchive.getEntry(path);
+    // A compressed song can't be read at an offset
+    return (null != lEntry && lEntry.isStored()) ? OBB_SCHEME + path : null;
+  }
+
+  /**
+   * Set the data source of a player
+   * @param player MediaPlayer: An idle player
+   * @param source String: Path, URL or OBB entry source
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public static void setDataSource(@NonNull MediaPlayer player, @NonNull String source)
+    throws IOException {
+    if (!source.startsWith(OBB_SCHEME)) {
+      player.setDataSource(source);
+      return;
+    }
+    ObbOverlay lOverlay = mObbArchive;
+    String lPath = source.substring(OBB_SCHEME.length());
+    ObbArchive.Entry lEntry = (null == lOverlay) ? null : lOverlay.getEntry(lPath);
+    if (null == lEntry) throw new IOException("No OBB entry " + lPath);
+    ObbArchive lArchive = lEntry.getArchive();
+    player.setDataSource(lArchive.getFileDescriptor(), lArchive.getDataOffset(lEntry), lEntry.getSize());
+  }
+}
@@ -0,0 +1,69 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Ordered list of media sources and the position of the current one.
+ */
+@SuppressWarnings("unused")
+public final class PlayQueue {
+  // Data sources of the songs, must not be modified afterwards
+  private final List<String> mSources;
+  // Position of the current song
+  private int mIndex;
+
+  /**
+   * Constructor
+   * @param sources List: Data sources of the songs
+   * @param index int: Position of the first song to play
+   */
+  public PlayQueue(@NonNull List<String> sources, int index) {
+    if (index < 0 || index >= sources.size())
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + sources.size());
+    mSources = sources;
+    mIndex   = index;
+  }
+
+  // Accessors / Getters
+  public int getIndex() { return mIndex; }
+  public int size()     { return mSources.size(); }
+  public List<String> getSources() { return mSources; }
+
+  /**
+   * Returns the data source of the current song
+   * @return String: The current data source
+   */
+  public String getCurrent() {
+    return mSources.get(mIndex);
+  }
+
+  /**
+   * Returns the data source of the song which follows the current one
+   * @return String: The next data source or null at the end of the queue
+   */
+  @Nullable
+  public String peekNext() {
+    return hasNext() ? mSources.get(mIndex + 1) : null;
+  }
+
+  /**
+   * Check if a song follows the current one
+   * @return boolean: false at the end of the queue
+   */
+  public boolean hasNext() {
+    return mIndex + 1 < mSources.size();
+  }
+
+  /**
+   * The next song becomes the current one
+   * @return boolean: false at the end of the queue
+   */
+  public boolean moveToNext() {
+    if (!hasNext()) return false;
+    mIndex++;
+    return true;
+  }
+}
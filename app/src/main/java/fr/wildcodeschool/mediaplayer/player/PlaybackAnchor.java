@@ -0,0 +1,57 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import java.util.Locale;
+
+/**
+ * Playback position known at a given date. Between two anchors the position
+ * is extrapolated from the playback rate, the player is not queried.
+ */
+@SuppressWarnings("unused")
+public final class PlaybackAnchor {
+  // Nothing is playing
+  public static final PlaybackAnchor NONE = new PlaybackAnchor(0, 0, 0f, 0);
+
+  private final int mPosition;
+  private final long mDate;
+  private final float mRate;
+  private final int mDuration;
+
+  /**
+   * Constructor
+   * @param position int: Position in ms at the anchor date
+   * @param date long: Anchor date in ms, from SystemClock.elapsedRealtime
+   * @param rate float: Playback speed, 0 if the playback is not running
+   * @param duration int: Media duration in ms
+   */
+  public PlaybackAnchor(int position, long date, float rate, int duration) {
+    mPosition = position;
+    mDate     = date;
+    mRate     = rate;
+    mDuration = duration;
+  }
+
+  // Accessors / Getters
+  public int getPosition()   { return mPosition; }
+  public long getDate()      { return mDate; }
+  public float getRate()     { return mRate; }
+  public int getDuration()   { return mDuration; }
+  public boolean isRunning() { return mRate > 0f; }
+
+  /**
+   * Returns the extrapolated position at a date
+   * @param now long: The date in ms, from SystemClock.elapsedRealtime
+   * @return int: The position in ms, bounded by the media duration
+   */
+  public int getPositionAt(long now) {
+    if (!isRunning()) return mPosition;
+    long lPosition = mPosition + (long) ((now - mDate) * mRate);
+    if (mDuration > 0) lPosition = Math.min(lPosition, mDuration);
+    return (int) Math.max(lPosition, mPosition);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "PlaybackAnchor[position=%d, date=%d, rate=%.2f, duration=%d]",
+      mPosition, mDate, mRate, mDuration);
+  }
+}
@@ -0,0 +1,226 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import android.content.ComponentCallbacks2;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bounded pool of MediaPlayer instances prepared in advance for the songs the user is
+ * likely to pick. The least recently used players are released when the pool is full
+ * or when the system is running low on memory.
+ * Must only be used in the playback thread, the player events are received there.
+ */
+@SuppressWarnings("unused")
+public final class PlayerPool {
+  // TAG
+  private static final String TAG = "PlayerPool";
+  // Default number of pooled players, native players are expensive
+  public static final int DEFAULT_MAX_SIZE = 3;
+
+  // Pooled players by data source, in access order
+  private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(8, 0.75f, true);
+  private int mMaxSize;
+
+  // Metrics
+  private int mHitCount = 0;
+  private int mMissCount = 0;
+  private int mEvictionCount = 0;
+
+  /**
+   * Player owned by the pool, prepared or being prepared
+   */
+  public static final class Entry {
+    private final MediaPlayer mPlayer;
+    private boolean isPrepared = false;
+
+    private Entry(MediaPlayer player) {
+      mPlayer = player;
+    }
+
+    // Accessors / Getters
+    public MediaPlayer getPlayer() { return mPlayer; }
+    public boolean isPrepared()    { return isPrepared; }
+  }
+
+  /**
+   * Constructor
+   * @param maxSize int: Maximum number of pooled players
+   */
+  public PlayerPool(int maxSize) {
+    mMaxSize = maxSize;
+  }
+
+  /**
+   * Prepare players for the given songs, in priority order.
+   * Only the first maxSize songs are considered.
+   * @param sources List: Data sources of the likely next songs
+   */
+  @WorkerThread
+  public void warm(@NonNull List<String> sources) {
+    // Iterate backward, the first source becomes the most recently used entry
+    for (int i = Math.min(sources.size(), mMaxSize) - 1; i >= 0; i--) {
+      warm(sources.get(i));
+    }
+  }
+
+  /**
+   * Prepare a player for a song
+   * @param source String: Data source of the song
+   */
+  @WorkerThread
+  public void warm(@NonNull String source) {
+    if (0 == mMaxSize || null != mEntries.get(source)) return;
+
+    final Entry lEntry = new Entry(new MediaPlayer());
+    lEntry.mPlayer.setOnPreparedListener((MediaPlayer mp) -> lEntry.isPrepared = true);
+    dropOnError(source, lEntry);
+    try {
+      MediaSources.setDataSource(lEntry.mPlayer, source);
+      lEntry.mPlayer.prepareAsync();
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to prepare " + source, e);
+      lEntry.mPlayer.release();
+      return;
+    }
+    put(source, lEntry);
+  }
+
+  /**
+   * Give back a prepared player, for example the one of the previous song
+   * @param source String: Data source of the player
+   * @param player MediaPlayer: A prepared or completed player, rewound to the start
+   */
+  @WorkerThread
+  public void offer(@NonNull String source, @NonNull MediaPlayer player) {
+    if (0 == mMaxSize || null != mEntries.get(source)) {
+      player.release();
+      return;
+    }
+    Entry lEntry = new Entry(player);
+    lEntry.isPrepared = true;
+    // The previous owner must never be called back nor chained to
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) player.setNextMediaPlayer(null);
+    player.setOnPreparedListener(null);
+    player.setOnCompletionListener(null);
+    player.setOnInfoListener(null);
+    player.setOnSeekCompleteListener(null);
+    player.setOnBufferingUpdateListener(null);
+    dropOnError(source, lEntry);
+    player.seekTo(0);
+    put(source, lEntry);
+  }
+
+  /**
+   * Drop a pooled player when it fails, it can't be used anymore
+   * @param source String: Data source of the player
+   * @param entry Entry: The pooled player
+   */
+  private void dropOnError(@NonNull final String source, @NonNull final Entry entry) {
+    entry.mPlayer.setOnErrorListener((MediaPlayer mp, int what, int extra) -> {
+      if (mEntries.get(source) == entry) {
+        mEntries.remove(source);
+        mp.release();
+      }
+      return true;
+    });
+  }
+
+  /**
+   * Remove the player of a song from the pool, the caller owns it afterwards
+   * and must replace its listeners.
+   * @param source String: Data source of the song
+   * @return Entry: The pooled player or null
+   */
+  @WorkerThread
+  @Nullable
+  public Entry acquire(@NonNull String source) {
+    Entry lEntry = mEntries.remove(source);
+    if (null == lEntry) {
+      mMissCount++;
+    } else {
+      mHitCount++;
+      lEntry.mPlayer.setOnErrorListener(null);
+    }
+    return lEntry;
+  }
+
+  /**
+   * Release the least recently used players until the pool fits in maxSize
+   * @param maxSize int: Maximum number of pooled players
+   */
+  @WorkerThread
+  public void trimToSize(int maxSize) {
+    Iterator<Map.Entry<String, Entry>> lIterator = mEntries.entrySet().iterator();
+    while (mEntries.size() > maxSize && lIterator.hasNext()) {
+      lIterator.next().getValue().mPlayer.release();
+      lIterator.remove();
+      mEvictionCount++;
+    }
+  }
+
+  /**
+   * Release all the pooled players
+   */
+  @WorkerThread
+  public void evictAll() {
+    trimToSize(0);
+  }
+
+  /**
+   * Change the maximum number of pooled players
+   * @param maxSize int: Maximum number of pooled players
+   */
+  @WorkerThread
+  public void setMaxSize(int maxSize) {
+    mMaxSize = maxSize;
+    trimToSize(maxSize);
+  }
+
+  /**
+   * Shrink the pool according to the memory pressure
+   * @param level int: The trim level, see ComponentCallbacks2
+   */
+  @WorkerThread
+  public void onTrimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      // App is in background, playback only needs the current players
+      evictAll();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      trimToSize(mEntries.size() / 2);
+    }
+  }
+
+  // Accessors / Getters
+  public int size()              { return mEntries.size(); }
+  public int getMaxSize()        { return mMaxSize; }
+  public int getHitCount()       { return mHitCount; }
+  public int getMissCount()      { return mMissCount; }
+  public int getEvictionCount()  { return mEvictionCount; }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "PlayerPool[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+      mEntries.size(), mMaxSize, mHitCount, mMissCount, mEvictionCount);
+  }
+
+  /**
+   * Add an entry as the most recently used one, the oldest are evicted
+   * @param source String: Data source of the player
+   * @param entry Entry: The pooled player
+   */
+  private void put(String source, Entry entry) {
+    mEntries.put(source, entry);
+    trimToSize(mMaxSize);
+  }
+}
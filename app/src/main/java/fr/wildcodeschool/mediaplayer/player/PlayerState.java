@@ -0,0 +1,58 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+/**
+ * States of an Android MediaPlayer, as described by its state diagram.
+ */
+public enum PlayerState {
+  IDLE,
+  INITIALIZED,
+  PREPARING,
+  PREPARED,
+  STARTED,
+  PAUSED,
+  STOPPED,
+  COMPLETED,
+  ERROR,
+  RELEASED;
+
+  /**
+   * Check if the MediaPlayer state diagram allows a transition
+   * @param target PlayerState: The next state
+   * @return boolean: true if the transition is legal
+   */
+  public boolean canMoveTo(PlayerState target) {
+    // Any living player can fail, be reset or be released
+    if (RELEASED == this) return false;
+    if (RELEASED == target || ERROR == target || IDLE == target) return true;
+
+    switch (this) {
+      case IDLE:
+        return INITIALIZED == target;
+      case INITIALIZED:
+        return PREPARING == target || PREPARED == target;
+      case PREPARING:
+        return PREPARED == target;
+      case PREPARED:
+        return STARTED == target || STOPPED == target;
+      case STARTED:
+        return PAUSED == target || STOPPED == target || COMPLETED == target;
+      case PAUSED:
+        return STARTED == target || STOPPED == target;
+      case STOPPED:
+        return PREPARING == target || PREPARED == target;
+      case COMPLETED:
+        return STARTED == target || STOPPED == target;
+      default:
+        // ERROR only accepts reset and release
+        return false;
+    }
+  }
+
+  /**
+   * Check if the player can report its position and seek
+   * @return boolean: true in the prepared, started, paused and completed states
+   */
+  public boolean isPrepared() {
+    return PREPARED == this || STARTED == this || PAUSED == this || COMPLETED == this;
+  }
+}
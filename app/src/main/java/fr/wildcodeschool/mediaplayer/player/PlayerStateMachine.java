@@ -0,0 +1,149 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Current state of a MediaPlayer. Illegal transitions are rejected before any native call.
+ * The time spent in a state before each transition is measured, for example the
+ * PREPARING to PREPARED latency is the prepare duration.
+ */
+@SuppressWarnings("unused")
+public final class PlayerStateMachine {
+  // Number of states
+  private static final int COUNT = PlayerState.values().length;
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  /**
+   * Time source, replaced in unit tests
+   */
+  interface Clock {
+    long nanoTime();
+  }
+
+  private final Clock mClock;
+  private PlayerState mState;
+  // Date of the last transition in ns
+  private long mStateDate;
+
+  // Latencies by [from][to] state
+  private final long[][] mLastLatency  = new long[COUNT][COUNT];
+  private final long[][] mTotalLatency = new long[COUNT][COUNT];
+  private final int[][] mCount         = new int[COUNT][COUNT];
+  // Rejected transitions
+  private int mRejectedCount = 0;
+
+  /**
+   * Constructor, the player is idle
+   */
+  public PlayerStateMachine() {
+    this(PlayerState.IDLE);
+  }
+
+  /**
+   * Constructor
+   * @param initial PlayerState: The state of an existing player
+   */
+  public PlayerStateMachine(@NonNull PlayerState initial) {
+    this(initial, System::nanoTime);
+  }
+
+  PlayerStateMachine(PlayerState initial, Clock clock) {
+    mClock = clock;
+    mState = initial;
+    mStateDate = clock.nanoTime();
+  }
+
+  // Accessors / Getters
+  public PlayerState getState()  { return mState; }
+  public int getRejectedCount()  { return mRejectedCount; }
+
+  /**
+   * Check if a transition is legal from the current state
+   * @param target PlayerState: The next state
+   * @return boolean: true if the transition is legal
+   */
+  public boolean canMoveTo(@NonNull PlayerState target) {
+    return mState.canMoveTo(target);
+  }
+
+  /**
+   * Move to another state. Must be called once the native call succeeded.
+   * @param target PlayerState: The next state
+   * @return boolean: false if the transition is illegal, the state is unchanged
+   */
+  public boolean moveTo(@NonNull PlayerState target) {
+    if (!mState.canMoveTo(target)) {
+      mRejectedCount++;
+      return false;
+    }
+    long lNow = mClock.nanoTime();
+    long lLatency = lNow - mStateDate;
+    int lFrom = mState.ordinal();
+    int lTo = target.ordinal();
+    mLastLatency[lFrom][lTo] = lLatency;
+    mTotalLatency[lFrom][lTo] += lLatency;
+    mCount[lFrom][lTo]++;
+
+    mState = target;
+    mStateDate = lNow;
+    return true;
+  }
+
+  /**
+   * Adopt the state of a player handled elsewhere, without measuring a transition
+   * @param state PlayerState: The actual player state
+   */
+  public void reset(@NonNull PlayerState state) {
+    mState = state;
+    mStateDate = mClock.nanoTime();
+  }
+
+  /**
+   * Returns the time spent in a state before the last transition to another one
+   * @param from PlayerState: The left state
+   * @param to PlayerState: The entered state
+   * @return long: The latency in ms or -1 if the transition never happened
+   */
+  public long getLastLatency(@NonNull PlayerState from, @NonNull PlayerState to) {
+    if (0 == mCount[from.ordinal()][to.ordinal()]) return -1;
+    return mLastLatency[from.ordinal()][to.ordinal()] / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Returns the average time spent in a state before a transition to another one
+   * @param from PlayerState: The left state
+   * @param to PlayerState: The entered state
+   * @return long: The latency in ms or -1 if the transition never happened
+   */
+  public long getAverageLatency(@NonNull PlayerState from, @NonNull PlayerState to) {
+    int lCount = mCount[from.ordinal()][to.ordinal()];
+    if (0 == lCount) return -1;
+    return mTotalLatency[from.ordinal()][to.ordinal()] / lCount / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Returns the number of transitions between two states
+   * @param from PlayerState: The left state
+   * @param to PlayerState: The entered state
+   * @return int: Number of transitions
+   */
+  public int getTransitionCount(@NonNull PlayerState from, @NonNull PlayerState to) {
+    return mCount[from.ordinal()][to.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder lBuilder = new StringBuilder("PlayerStateMachine[").append(mState);
+    for (PlayerState lFrom : PlayerState.values()) {
+      for (PlayerState lTo : PlayerState.values()) {
+        int lCount = mCount[lFrom.ordinal()][lTo.ordinal()];
+        if (0 == lCount) continue;
+        lBuilder.append(String.format(Locale.US, ", %s->%s: %dx avg %d ms",
+          lFrom, lTo, lCount, getAverageLatency(lFrom, lTo)));
+      }
+    }
+    return lBuilder.append(", rejected=").append(mRejectedCount).append(']').toString();
+  }
+}
@@ -0,0 +1,109 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Coalesce the seek requests of a player: only one seek is in flight at a time
+ * and only the latest request is kept meanwhile, the intermediate ones are dropped.
+ * Must be used in the thread which receives the seek complete events.
+ */
+@SuppressWarnings("unused")
+public final class SeekScheduler {
+  // No pending request
+  private static final int NONE = -1;
+
+  /**
+   * Issue a seek to the player
+   */
+  public interface Seeker {
+    /**
+     * @param position int: Target position in ms
+     * @param exact boolean: false to accept the closest sync frame, faster while dragging
+     */
+    void seek(int position, boolean exact);
+  }
+
+  private final Seeker mSeeker;
+  // A seek has been issued and is not complete yet
+  private boolean isInFlight = false;
+  // Latest request received while a seek is in flight
+  private int mPendingPosition = NONE;
+  private boolean isPendingExact = false;
+
+  // Metrics
+  private int mRequestCount = 0;
+  private int mIssuedCount = 0;
+  private int mCoalescedCount = 0;
+
+  /**
+   * Constructor
+   * @param seeker Seeker: Issue the seeks to the player
+   */
+  public SeekScheduler(@NonNull Seeker seeker) {
+    mSeeker = seeker;
+  }
+
+  /**
+   * Request a seek, issued at once if no seek is in flight
+   * @param position int: Target position in ms
+   * @param exact boolean: false to accept the closest sync frame
+   */
+  public void seekTo(int position, boolean exact) {
+    mRequestCount++;
+    if (!isInFlight) {
+      issue(position, exact);
+      return;
+    }
+    // Latest wins, the previous pending request is dropped
+    if (NONE != mPendingPosition) mCoalescedCount++;
+    mPendingPosition = position;
+    isPendingExact = exact;
+  }
+
+  /**
+   * Called when the player completed the seek in flight, the pending request is issued
+   */
+  public void onSeekComplete() {
+    if (!isInFlight) return;
+    isInFlight = false;
+    if (NONE != mPendingPosition) {
+      int lPosition = mPendingPosition;
+      mPendingPosition = NONE;
+      issue(lPosition, isPendingExact);
+    }
+  }
+
+  /**
+   * Forget the seek in flight and the pending request, when the player changes
+   */
+  public void cancel() {
+    if (NONE != mPendingPosition) mCoalescedCount++;
+    mPendingPosition = NONE;
+    isInFlight = false;
+  }
+
+  // Accessors / Getters
+  public boolean isSeeking()     { return isInFlight; }
+  public int getRequestCount()   { return mRequestCount; }
+  public int getIssuedCount()    { return mIssuedCount; }
+  public int getCoalescedCount() { return mCoalescedCount; }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "SeekScheduler[requests=%d, issued=%d, coalesced=%d]",
+      mRequestCount, mIssuedCount, mCoalescedCount);
+  }
+
+  /**
+   * Send a seek to the player
+   * @param position int: Target position in ms
+   * @param exact boolean: false to accept the closest sync frame
+   */
+  private void issue(int position, boolean exact) {
+    isInFlight = true;
+    mIssuedCount++;
+    mSeeker.seek(position, exact);
+  }
+}
@@ -5,4 +5,6 @@ import android.media.MediaPlayer;
 public interface WildOnPlayerListener {
   void onPrepared(MediaPlayer mp);
   void onCompletion(MediaPlayer mp);
+  void onTrackChanged(MediaPlayer mp, int index);
+  void onError(MediaPlayer mp, int what, int extra);
 }
@@ -0,0 +1,5 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+public interface WildOnPositionListener {
+  void onPositionChanged(PlaybackAnchor anchor);
+}
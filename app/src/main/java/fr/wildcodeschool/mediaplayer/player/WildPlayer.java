@@ -2,27 +2,89 @@ package fr.wildcodeschool.mediaplayer.player;
 
 import android.content.Context;
 import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.Locale;
 
 import fr.wildcodeschool.mediaplayer.player.manager.WildAudioManager;
 import fr.wildcodeschool.mediaplayer.player.manager.WildAudioManagerListener;
+import fr.wildcodeschool.mediaplayer.stream.BitrateSelector;
+import fr.wildcodeschool.mediaplayer.stream.VariantSet;
 
 @SuppressWarnings("unused")
 public class WildPlayer implements WildAudioManagerListener {
+  // TAG
+  private static final String TAG = "WildPlayer";
+  // Undefined date
+  private static final long UNDEFINED = -1;
+
   // Activity context
   private Context mContext;
+  // Thread which created the player and receives its events
+  private final Handler mHandler = new Handler();
   // Android media player
   private MediaPlayer mPlayer;
-  // media player prepared state
-  private boolean isPrepared = false;
+  // Data source of the single song, set again after an error
+  private String mSource = null;
+  // Android media player state
+  private final PlayerStateMachine mState = new PlayerStateMachine();
+  // Start the playback as soon as the media is prepared
+  private boolean isPlayRequested = false;
+  // Player events listener
+  private WildOnPlayerListener mListener = null;
+  // Position anchors listener, notified on state changes only
+  private WildOnPositionListener mPositionListener = null;
+  private PlaybackAnchor mAnchor = PlaybackAnchor.NONE;
+  // Seeks of the current player, one at a time
+  private final SeekScheduler mSeekScheduler = new SeekScheduler(this::issueSeek);
+  // Players prepared in advance, may be null
+  private final PlayerPool mPool;
+  // Start request date and origin of the current player, for the start latency
+  private long mPlayRequestDate = UNDEFINED;
+  private boolean isWarmStart = false;
+
+  // Bit rate variants of the single song, null if its source is fixed
+  private VariantSet mVariants = null;
+  private VariantSet.Variant mVariant = null;
+  private BitrateSelector mBitrateSelector = null;
+  // Position to restore once the song is prepared again, after a variant switch
+  private int mResumePosition = 0;
+  // Position of the last start or seek, the buffering before the playback passes it is not a stall
+  private int mPlayedFrom = 0;
+
+  // Songs to play, null to play a single song
+  private PlayQueue mQueue = null;
+  // Player of the next song, prepared while the current one plays
+  private MediaPlayer mNextPlayer = null;
+  private boolean isNextPrepared = false;
+  // The next song must start as soon as it is prepared
+  private boolean isNextLate = false;
+
+  // Track to track gaps, dates from SystemClock.elapsedRealtime
+  private long mCompletionDate = UNDEFINED;
+  private long mNextStartDate = UNDEFINED;
+  private long mLastGap = UNDEFINED;
+  private long mGapTotal = 0;
+  private int mGapCount = 0;
 
   public WildPlayer(@NonNull Context ctx) {
+    this(ctx, null);
+  }
+
+  /**
+   * Constructor, in a thread with a Looper which then receives the player events
+   * @param ctx Context: Application context
+   * @param pool PlayerPool: Players prepared in advance, may be null
+   */
+  public WildPlayer(@NonNull Context ctx, PlayerPool pool) {
     mContext = ctx;
-    mPlayer  = new MediaPlayer();
+    mPool    = pool;
 
     // Register to the audioManager events
     WildAudioManager.getInstance().setAudioManagerListener(this);
@@ -34,47 +96,534 @@ public class WildPlayer implements WildAudioManagerListener {
    * @param listener onPrepared event listener
    */
   public void init(@StringRes int song, final WildOnPlayerListener listener) {
+    init(mContext.getString(song), listener);
+  }
+
+  /**
+   * Initialize the media to play
+   * @param source String: Path or URI of the media to play
+   * @param listener WildOnPlayerListener: Player events listener
+   */
+  public void init(@NonNull String source, final WildOnPlayerListener listener) {
+    mListener = listener;
+    mSource = source;
+    if (null == mPlayer) mPlayer = new MediaPlayer();
+    setListeners(mPlayer);
+    if (!mState.canMoveTo(PlayerState.INITIALIZED)) return;
 
     try {
-      // Set source and init the player engine
-      mPlayer.setDataSource(mContext.getString(song));
-      mPlayer.prepareAsync();
+      // Set source, the engine is prepared when the playback is requested
+      MediaSources.setDataSource(mPlayer, source);
+      mState.moveTo(PlayerState.INITIALIZED);
     } catch (IOException e) {
-      Log.e(this.toString(), e.getMessage());
+      Log.e(TAG, e.getMessage());
+      return;
     }
+    if (isPlayRequested) prepare();
+  }
+
+  /**
+   * Initialize the media to play among its bit rate variants. The variant follows the
+   * measured throughput at each new playback of the song and goes down on stalls.
+   * @param variants VariantSet: Encodings of the media to play
+   * @param listener WildOnPlayerListener: Player events listener
+   */
+  public void init(@NonNull VariantSet variants, final WildOnPlayerListener listener) {
+    mVariants = variants;
+    mVariant = (null == mBitrateSelector) ? variants.get(0) : mBitrateSelector.select(variants);
+    Log.i(TAG, "Variant selected: " + mVariant);
+    init(mVariant.getUrl(), listener);
+  }
 
-    this.mPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+  /**
+   * Set the variant chooser of the songs initialized with a variant set
+   * @param selector BitrateSelector: The chooser, null to always play the lowest variant
+   */
+  public void setBitrateSelector(BitrateSelector selector) {
+    mBitrateSelector = selector;
+  }
+
+  /**
+   * Initialize the songs to play one after the other, without gap.
+   * The next song is prepared on a second player while the current one plays.
+   * @param queue PlayQueue: The songs to play
+   * @param listener WildOnPlayerListener: Player events listener
+   * @param playWhenPrepared boolean: Start the playback as soon as the first song is prepared
+   */
+  public void init(@NonNull PlayQueue queue, final WildOnPlayerListener listener,
+                   boolean playWhenPrepared) {
+    mQueue = queue;
+    mVariants = null;
+    isPlayRequested = playWhenPrepared;
+    mPlayRequestDate = SystemClock.elapsedRealtime();
+
+    PlayerPool.Entry lEntry = (null == mPool) ? null : mPool.acquire(queue.getCurrent());
+    isWarmStart = (null != lEntry);
+    if (null == lEntry) {
+      init(queue.getCurrent(), listener);
+      return;
+    }
+    // Player prepared in advance
+    mListener = listener;
+    mPlayer = lEntry.getPlayer();
+    setListeners(mPlayer);
+    mState.reset(PlayerState.PREPARING);
+    if (lEntry.isPrepared()) onCurrentPrepared(mPlayer);
+  }
+
+  /**
+   * Start the asynchronous preparation of the current player
+   * @return boolean: false if the player can't be prepared in its current state
+   */
+  private boolean prepare() {
+    if (!mState.canMoveTo(PlayerState.PREPARING)) return false;
+    mPlayer.prepareAsync();
+    mState.moveTo(PlayerState.PREPARING);
+    return true;
+  }
+
+  // --------------------------------------------------------------------------
+  // Player events
+  // --------------------------------------------------------------------------
+
+  /**
+   * Register the events of a player, current or next one
+   * @param player MediaPlayer: The player to listen
+   */
+  private void setListeners(MediaPlayer player) {
+    player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
       @Override
       public void onPrepared(MediaPlayer mp) {
-        mp.seekTo(0);
-        // Send the audio engine state to the listener
-        if (null != listener) listener.onPrepared(mp);
-        // Update state
-        isPrepared = true;
+        if (mp == mPlayer) {
+          onCurrentPrepared(mp);
+        } else if (mp == mNextPlayer) {
+          onNextPrepared(mp);
+        }
       }
     });
 
-    this.mPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+    player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
       @Override
       public void onCompletion(MediaPlayer mp) {
-        // Send the audio engine state to the listener
-        if (null != listener) listener.onCompletion(mp);
+        if (mp == mPlayer) onCurrentCompletion(mp);
+      }
+    });
+
+    player.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+      @Override
+      public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (MediaPlayer.MEDIA_INFO_BUFFERING_START == what && mp == mPlayer) {
+          if (isStall()) onStall();
+          return true;
+        }
+        if (MediaPlayer.MEDIA_INFO_STARTED_AS_NEXT != what) return false;
+        // The platform started the next song by itself
+        mNextStartDate = SystemClock.elapsedRealtime();
+        recordGap();
+        return true;
+      }
+    });
+
+    player.setOnSeekCompleteListener(new MediaPlayer.OnSeekCompleteListener() {
+      @Override
+      public void onSeekComplete(MediaPlayer mp) {
+        if (mp != mPlayer) return;
+        // Actual position after the seek
+        publishAnchor();
+        mSeekScheduler.onSeekComplete();
+      }
+    });
+
+    player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+      @Override
+      public boolean onError(MediaPlayer mp, int what, int extra) {
+        Log.e(TAG, String.format(Locale.US, "MediaPlayer error %d, %d", what, extra));
+        if (mp == mPlayer) {
+          onCurrentError(mp, what, extra);
+        } else if (mp == mNextPlayer) {
+          // The current song will simply complete
+          mNextPlayer.release();
+          mNextPlayer = null;
+        }
+        // Don't call the completion listener
+        return true;
       }
     });
   }
 
   /**
-   * Check the validity of player and call play command
+   * The current song is ready for playback
+   * @param mp MediaPlayer: The current player
+   */
+  private void onCurrentPrepared(MediaPlayer mp) {
+    // Update state
+    if (!mState.moveTo(PlayerState.PREPARED)) return;
+    if (mResumePosition > 0) {
+      // Same song in another variant
+      mPlayer.seekTo(mResumePosition);
+      mPlayedFrom = mResumePosition;
+      mResumePosition = 0;
+    }
+    if (isPlayRequested) {
+      isPlayRequested = false;
+      play();
+      Log.i(TAG, String.format(Locale.US, "Playback started in %d ms (%s player)",
+        SystemClock.elapsedRealtime() - mPlayRequestDate, isWarmStart ? "pooled" : "new"));
+    }
+    // Send the audio engine state to the listener
+    if (null != mListener) mListener.onPrepared(mp);
+    publishAnchor();
+  }
+
+  /**
+   * The current player failed. The client is told and the player recovers: the queue goes on
+   * with the next song, a single song is initialized again and plays at the next request.
+   * @param mp MediaPlayer: The current player
+   * @param what int: The type of error
+   * @param extra int: An implementation specific error code
+   */
+  private void onCurrentError(MediaPlayer mp, int what, int extra) {
+    boolean isPlaying = isPlayRequested || PlayerState.STARTED == mState.getState();
+    mState.moveTo(PlayerState.ERROR);
+    mSeekScheduler.cancel();
+    isPlayRequested = false;
+    // The position is lost, the UI stops following it
+    publishAnchor();
+    if (null != mListener) mListener.onError(mp, what, extra);
+
+    if (null != mQueue && mQueue.hasNext()) {
+      // Skip the broken song, a failed player is never pooled
+      mQueue.moveToNext();
+      if (null != mNextPlayer) {
+        if (isNextPrepared && null != mPool) {
+          // Acquired again by the queue below
+          mPool.offer(mQueue.getCurrent(), mNextPlayer);
+        } else {
+          mNextPlayer.release();
+        }
+        mNextPlayer = null;
+        isNextPrepared = false;
+      }
+      mPlayer.release();
+      mPlayer = null;
+      mState.reset(PlayerState.IDLE);
+      init(mQueue, mListener, isPlaying);
+      if (null != mListener) mListener.onTrackChanged(mPlayer, mQueue.getIndex());
+      return;
+    }
+
+    // Same song again, from the start
+    mPlayer.reset();
+    mState.moveTo(PlayerState.IDLE);
+    mResumePosition = 0;
+    init((null != mQueue) ? mQueue.getCurrent() : mSource, mListener);
+  }
+
+  /**
+   * The next song is ready for playback
+   * @param mp MediaPlayer: The next player
+   */
+  private void onNextPrepared(MediaPlayer mp) {
+    isNextPrepared = true;
+    if (isNextLate) {
+      // The current song is already over
+      isNextLate = false;
+      startNext();
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      // Chain the players, the platform switches without gap
+      mPlayer.setNextMediaPlayer(mp);
+    }
+  }
+
+  /**
+   * The current song is over, switch to the next one
+   * @param mp MediaPlayer: The current player
+   */
+  private void onCurrentCompletion(MediaPlayer mp) {
+    mState.moveTo(PlayerState.COMPLETED);
+    publishAnchor();
+    mCompletionDate = SystemClock.elapsedRealtime();
+    if (null == mNextPlayer) {
+      mCompletionDate = UNDEFINED;
+      // Send the audio engine state to the listener
+      if (null != mListener) mListener.onCompletion(mp);
+      return;
+    }
+
+    if (!isNextPrepared) {
+      // Network was too slow, start the next song when it is ready
+      isNextLate = true;
+      return;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      // Already started by the platform, the start date may be known yet
+      recordGap();
+      switchToNext();
+    } else {
+      startNext();
+    }
+  }
+
+  /**
+   * Start the next player manually, when it could not be chained
+   */
+  private void startNext() {
+    mNextPlayer.start();
+    mNextStartDate = SystemClock.elapsedRealtime();
+    recordGap();
+    switchToNext();
+  }
+
+  /**
+   * The next player becomes the current one, the next song is prepared
+   */
+  private void switchToNext() {
+    MediaPlayer lPrevious = mPlayer;
+    String lPreviousSource = mQueue.getCurrent();
+    mPlayer = mNextPlayer;
+    mNextPlayer = null;
+    isNextPrepared = false;
+    mQueue.moveToNext();
+    mPlayedFrom = 0;
+    // The slot plays again, with the next song
+    mState.moveTo(PlayerState.STARTED);
+    mSeekScheduler.cancel();
+    // Keep the previous song ready in case the user goes back
+    if (null != mPool) {
+      mPool.offer(lPreviousSource, lPrevious);
+    } else {
+      lPrevious.release();
+    }
+
+    if (null != mListener) mListener.onTrackChanged(mPlayer, mQueue.getIndex());
+    publishAnchor();
+    prepareNext();
+  }
+
+  /**
+   * Prepare the next song of the queue on a second player
+   */
+  private void prepareNext() {
+    if (null == mQueue || null != mNextPlayer || !mQueue.hasNext()) return;
+    if (PlayerState.STARTED != mState.getState()) return;
+
+    PlayerPool.Entry lEntry = (null == mPool) ? null : mPool.acquire(mQueue.peekNext());
+    if (null != lEntry) {
+      mNextPlayer = lEntry.getPlayer();
+      isNextPrepared = false;
+      setListeners(mNextPlayer);
+      if (lEntry.isPrepared()) onNextPrepared(mNextPlayer);
+      return;
+    }
+
+    mNextPlayer = new MediaPlayer();
+    isNextPrepared = false;
+    setListeners(mNextPlayer);
+    try {
+      MediaSources.setDataSource(mNextPlayer, mQueue.peekNext());
+      mNextPlayer.prepareAsync();
+    } catch (IOException e) {
+      Log.e(TAG, e.getMessage());
+      mNextPlayer.release();
+      mNextPlayer = null;
+    }
+  }
+
+  // --------------------------------------------------------------------------
+  // Variants
+  // --------------------------------------------------------------------------
+
+  /**
+   * Check if a buffering of the current player is a stall. The first fill and the fill
+   * after a seek are expected, only the buffering of a running playback counts.
+   * @return boolean: true if the player ran out of data while playing
+   */
+  private boolean isStall() {
+    return PlayerState.STARTED == mState.getState()
+      && !mSeekScheduler.isSeeking()
+      && mPlayer.getCurrentPosition() > mPlayedFrom;
+  }
+
+  /**
+   * The player ran out of data, switch to a lower variant if there is one
+   */
+  private void onStall() {
+    if (null == mVariants || null == mBitrateSelector) return;
+    VariantSet.Variant lVariant = mBitrateSelector.onStall(mVariants, mVariant);
+    if (lVariant == mVariant) return;
+    Log.i(TAG, "Stalled, variant switched to " + lVariant);
+    isPlayRequested = isPlayRequested || PlayerState.STARTED == mState.getState();
+    switchVariant(lVariant, getCurrentPosition());
+  }
+
+  /**
+   * Select the variant again when the song starts over
+   * @return boolean: true if the player has been switched to another variant
+   */
+  private boolean reselectVariant() {
+    if (null == mVariants || null == mBitrateSelector) return false;
+    VariantSet.Variant lVariant = mBitrateSelector.select(mVariants);
+    if (lVariant == mVariant) return false;
+    Log.i(TAG, "Variant switched to " + lVariant);
+    isPlayRequested = true;
+    mPlayRequestDate = SystemClock.elapsedRealtime();
+    switchVariant(lVariant, 0);
+    return true;
+  }
+
+  /**
+   * Load another variant of the song in the current player
+   * @param variant Variant: The new variant
+   * @param position int: Position to restore in ms
+   */
+  private void switchVariant(VariantSet.Variant variant, int position) {
+    mSeekScheduler.cancel();
+    mPlayer.reset();
+    mState.reset(PlayerState.IDLE);
+    mVariant = variant;
+    mResumePosition = position;
+    // Prepared at once if the playback is requested
+    init(variant.getUrl(), mListener);
+  }
+
+  /**
+   * Store the gap of the last track transition
+   */
+  private void recordGap() {
+    if (UNDEFINED == mCompletionDate || UNDEFINED == mNextStartDate) return;
+    mLastGap = Math.abs(mNextStartDate - mCompletionDate);
+    mGapTotal += mLastGap;
+    mGapCount++;
+    mCompletionDate = UNDEFINED;
+    mNextStartDate  = UNDEFINED;
+    Log.i(TAG, String.format(Locale.US, "Track gap %d ms (average %d ms over %d transitions)",
+      mLastGap, getAverageGap(), mGapCount));
+  }
+
+  // --------------------------------------------------------------------------
+  // Gaps
+  // --------------------------------------------------------------------------
+
+  /**
+   * Returns the gap measured at the last track transition
+   * @return long: The gap in ms or -1 if no transition happened
+   */
+  public long getLastGap() {
+    return mLastGap;
+  }
+
+  /**
+   * Returns the average gap of the track transitions
+   * @return long: The average gap in ms or -1 if no transition happened
+   */
+  public long getAverageGap() {
+    return 0 == mGapCount ? UNDEFINED : mGapTotal / mGapCount;
+  }
+
+  // --------------------------------------------------------------------------
+  // Position
+  // --------------------------------------------------------------------------
+
+  /**
+   * Register the receiver of the position anchors, the current anchor is sent at once.
+   * A new anchor is only sent when the playback state or position changes,
+   * the listener extrapolates the position in between.
+   * @param listener WildOnPositionListener: The receiver, null to unregister
+   */
+  public void setPositionListener(WildOnPositionListener listener) {
+    mPositionListener = listener;
+    if (null != listener) listener.onPositionChanged(mAnchor);
+  }
+
+  /**
+   * Returns the last published anchor
+   * @return PlaybackAnchor: The position of the playback at a given date
+   */
+  public PlaybackAnchor getAnchor() {
+    return mAnchor;
+  }
+
+  /**
+   * Publish the current position of the player
+   */
+  private void publishAnchor() {
+    publishAnchor(mState.getState().isPrepared() ? mPlayer.getCurrentPosition() : 0);
+  }
+
+  /**
+   * Publish a known position of the player
+   * @param position int: The position in ms
+   */
+  private void publishAnchor(int position) {
+    if (mState.getState().isPrepared()) {
+      float lRate = 0f;
+      if (PlayerState.STARTED == mState.getState()) {
+        lRate = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+          ? mPlayer.getPlaybackParams().getSpeed() : 1f;
+      }
+      mAnchor = new PlaybackAnchor(position, SystemClock.elapsedRealtime(), lRate,
+        mPlayer.getDuration());
+    } else {
+      mAnchor = PlaybackAnchor.NONE;
+    }
+    if (null != mPositionListener) mPositionListener.onPositionChanged(mAnchor);
+  }
+
+  /**
+   * Returns the state of the current player and its transition latencies
+   * @return PlayerStateMachine: The state machine of the current player
+   */
+  public PlayerStateMachine getStateMachine() {
+    return mState;
+  }
+
+  /**
+   * Returns the number of track transitions
+   * @return int: Number of measured gaps
+   */
+  public int getGapCount() {
+    return mGapCount;
+  }
+
+  // --------------------------------------------------------------------------
+  // Commands
+  // --------------------------------------------------------------------------
+
+  /**
+   * Check the validity of player and call play command.
+   * The media is prepared first if needed, the playback starts when it is ready.
    * @return The validity of the call
    */
   public boolean play() {
-    if (null != mPlayer && isPrepared && !mPlayer.isPlaying()) {
-      if (WildAudioManager.getInstance().requestAudioFocus()) {
-        mPlayer.start();
+    if (null == mPlayer) return false;
+    PlayerState lState = mState.getState();
+    // The song starts over, the variant follows the throughput
+    if ((PlayerState.STOPPED == lState || PlayerState.COMPLETED == lState) && reselectVariant())
+      return true;
+    switch (lState) {
+      case INITIALIZED:
+      case STOPPED:
+        isPlayRequested = true;
+        mPlayRequestDate = SystemClock.elapsedRealtime();
+        return prepare();
+      case PREPARING:
+        isPlayRequested = true;
         return true;
-      }
+      case PREPARED:
+      case PAUSED:
+      case COMPLETED:
+        if (WildAudioManager.getInstance().requestAudioFocus()) {
+          mPlayedFrom = mPlayer.getCurrentPosition();
+          mPlayer.start();
+          mState.moveTo(PlayerState.STARTED);
+          publishAnchor();
+          prepareNext();
+          return true;
+        }
+        return false;
+      default:
+        return false;
     }
-    return false;
   }
 
   /**
@@ -82,8 +631,15 @@ public class WildPlayer implements WildAudioManagerListener {
    * @return The validity of the call
    */
   public boolean pause() {
-    if (null != mPlayer && isPrepared && mPlayer.isPlaying()) {
+    if (PlayerState.PREPARING == mState.getState() && isPlayRequested) {
+      // Not started yet
+      isPlayRequested = false;
+      return true;
+    }
+    if (PlayerState.STARTED == mState.getState()) {
       mPlayer.pause();
+      mState.moveTo(PlayerState.PAUSED);
+      publishAnchor();
       return true;
     }
     return false;
@@ -94,26 +650,33 @@ public class WildPlayer implements WildAudioManagerListener {
    * @return The validity of the call
    */
   public boolean reset() {
-    if (null != mPlayer && isPrepared) {
-      mPlayer.seekTo(0);
+    if (mState.getState().isPrepared()) {
+      seekTo(0);
       return true;
     }
     return false;
   }
 
   /**
-   * Check the validity of player and call stop command
+   * Check the validity of player and call stop command.
+   * The media is prepared again only when the playback is requested.
    * @return The validity of the call
    */
   public boolean stop() {
-    if (null != mPlayer && isPrepared) {
-      mPlayer.stop();
-      // Update state
-      isPrepared = false;
-      mPlayer.prepareAsync();
-      return true;
+    isPlayRequested = false;
+    if (!mState.getState().isPrepared()) return PlayerState.PREPARING == mState.getState();
+
+    mPlayer.stop();
+    mState.moveTo(PlayerState.STOPPED);
+    mSeekScheduler.cancel();
+    publishAnchor();
+    // The chained player would not follow a restarted song
+    if (null != mNextPlayer) {
+      mNextPlayer.release();
+      mNextPlayer = null;
+      isNextPrepared = false;
     }
-    return false;
+    return true;
   }
 
   /**
@@ -121,10 +684,7 @@ public class WildPlayer implements WildAudioManagerListener {
    * @return Media playing state
    */
   public boolean isPlaying() {
-    if (null != mPlayer && isPrepared) {
-      return mPlayer.isPlaying();
-    }
-    return false;
+    return PlayerState.STARTED == mState.getState();
   }
 
   /**
@@ -132,7 +692,7 @@ public class WildPlayer implements WildAudioManagerListener {
    * @return Media current position
    */
   public int getCurrentPosition() {
-    if (null != mPlayer && isPrepared) {
+    if (mState.getState().isPrepared()) {
       return mPlayer.getCurrentPosition();
     }
     return 0;
@@ -143,28 +703,73 @@ public class WildPlayer implements WildAudioManagerListener {
    * @param position Value in ms
    */
   public void seekTo(int position) {
-    if (null != mPlayer && isPrepared) {
+    seekTo(position, true);
+  }
+
+  /**
+   * Seek in the timeline. Requests received while a seek is in flight are coalesced,
+   * only the latest one is issued.
+   * @param position int: Value in ms
+   * @param exact boolean: false while the user drags, the closest sync frame is enough
+   */
+  public void seekTo(int position, boolean exact) {
+    if (mState.getState().isPrepared()) {
+      mSeekScheduler.seekTo(position, exact);
+      publishAnchor(position);
+    }
+  }
+
+  /**
+   * Returns the seek scheduler of the player and its counters
+   * @return SeekScheduler: The seeks of the current player
+   */
+  public SeekScheduler getSeekScheduler() {
+    return mSeekScheduler;
+  }
+
+  /**
+   * Send a seek to the current player, called by the seek scheduler
+   * @param position int: Value in ms
+   * @param exact boolean: false to seek to the closest sync frame
+   */
+  private void issueSeek(int position, boolean exact) {
+    if (!mState.getState().isPrepared()) {
+      // Player changed meanwhile
+      mSeekScheduler.cancel();
+      return;
+    }
+    mPlayedFrom = position;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      mPlayer.seekTo(position, exact ? MediaPlayer.SEEK_CLOSEST : MediaPlayer.SEEK_CLOSEST_SYNC);
+    } else {
       mPlayer.seekTo(position);
     }
   }
 
   /**
-   * Release the player
+   * Release the player, whatever its state
    */
   public void release() {
-    if (null != mPlayer && isPrepared) {
+    if (null != mNextPlayer) {
+      mNextPlayer.release();
+      mNextPlayer = null;
+    }
+    if (null != mPlayer && mState.moveTo(PlayerState.RELEASED)) {
       mPlayer.release();
       WildAudioManager.getInstance().releaseAudioFocus();
-      isPrepared = false;
+      Log.i(TAG, mState.toString());
+      Log.i(TAG, mSeekScheduler.toString());
+      publishAnchor();
     }
   }
 
   /**
-   * WildAudioManagerListener
+   * WildAudioManagerListener, the focus changes are received in UI thread
    * @param isGain inform that application has audio focus or not
    */
   @Override
   public void audioFocusGain(boolean isGain) {
-    if (!isGain) pause();
+    // The player is only used in the thread which created it
+    if (!isGain) mHandler.post(this::pause);
   }
 }
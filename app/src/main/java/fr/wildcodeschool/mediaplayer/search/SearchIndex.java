@@ -0,0 +1,310 @@
+package fr.wildcodeschool.mediaplayer.search;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index over the artist and title words of the catalog.
+ * Words are folded (lower case, no diacritics) and stored in a trie made of parallel arrays.
+ * The nodes of the short prefixes keep the sorted songs of their whole subtree, so the first
+ * letters typed by the user are answered without walking the trie; the deeper nodes keep the
+ * songs whose words end on them. A query walks the matches of its rarest word in catalog order,
+ * probes the other words and stops at the limit.
+ * Songs are added incrementally while the catalog is loaded, queries can run meanwhile.
+ */
+@SuppressWarnings("unused")
+public final class SearchIndex {
+  // Initial capacity of the arrays
+  private static final int INITIAL_CAPACITY = 1024;
+  // No node
+  private static final int NONE = -1;
+  // Nodes up to this depth keep the songs of their whole subtree
+  private static final int PREFIX_DEPTH = 3;
+  // Combining marks removed by the folding
+  private static final Pattern DIACRITICS = Pattern.compile("\\p{Mn}+");
+  // Word separators
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  // Trie nodes, node 0 is the root
+  private char[] mLabels      = new char[INITIAL_CAPACITY];
+  private int[] mFirstChild   = new int[INITIAL_CAPACITY];
+  private int[] mNextSibling  = new int[INITIAL_CAPACITY];
+  private int mNodeCount = 0;
+
+  // Postings of each node, song indexes in ascending order, null if none
+  private int[][] mPostings    = new int[INITIAL_CAPACITY][];
+  private int[] mPostingSizes  = new int[INITIAL_CAPACITY];
+  private int mPostingCount = 0;
+
+  // Highest song index + 1
+  private int mSongCount = 0;
+
+  /**
+   * Constructor
+   */
+  public SearchIndex() {
+    newNode('\0');
+  }
+
+  /**
+   * Index the words of a song
+   * @param song int: The song index in the catalog
+   * @param artist String: Artist name
+   * @param title String: Song title
+   */
+  public synchronized void addSong(int song, String artist, String title) {
+    addWords(song, artist);
+    addWords(song, title);
+    mSongCount = Math.max(mSongCount, song + 1);
+  }
+
+  /**
+   * Returns the songs matching all the words of the query.
+   * Each query word is a prefix of a word of the artist or of the title.
+   * @param query String: The user query
+   * @param limit int: Maximum number of results
+   * @return int[]: The song indexes in catalog order
+   */
+  public synchronized int[] search(String query, int limit) {
+    String[] lWords = SEPARATORS.split(fold(query));
+    // Sorted songs of each query word, only the first sizes are valid
+    int[][] lMatches = new int[lWords.length][];
+    int[] lSizes = new int[lWords.length];
+    int lCount = 0;
+    for (String lWord : lWords) {
+      if (lWord.isEmpty()) continue;
+      int lNode = findNode(lWord);
+      if (NONE == lNode) return new int[0];
+      if (lWord.length() <= PREFIX_DEPTH) {
+        // Precomputed subtree, shared with the index
+        lMatches[lCount] = mPostings[lNode];
+        lSizes[lCount]   = mPostingSizes[lNode];
+      } else {
+        // Deep prefixes have small subtrees
+        lMatches[lCount] = collect(lNode);
+        lSizes[lCount]   = lMatches[lCount].length;
+      }
+      if (0 == lSizes[lCount]) return new int[0];
+      // Rarest word first, the other ones are only probed
+      for (int i = lCount; i > 0 && lSizes[i] < lSizes[i - 1]; i--) {
+        int[] lMatch = lMatches[i];
+        lMatches[i] = lMatches[i - 1];
+        lMatches[i - 1] = lMatch;
+        int lSize = lSizes[i];
+        lSizes[i] = lSizes[i - 1];
+        lSizes[i - 1] = lSize;
+      }
+      lCount++;
+    }
+    if (0 == lCount) return new int[0];
+
+    int[] lCursors = new int[lCount];
+    int[] lSongs = new int[Math.min(limit, lSizes[0])];
+    int lFound = 0;
+    for (int i = 0; i < lSizes[0] && lFound < lSongs.length; i++) {
+      int lSong = lMatches[0][i];
+      boolean isMatch = true;
+      for (int lWord = 1; lWord < lCount && isMatch; lWord++) {
+        lCursors[lWord] = lowerBound(lMatches[lWord], lCursors[lWord], lSizes[lWord], lSong);
+        isMatch = lCursors[lWord] < lSizes[lWord] && lMatches[lWord][lCursors[lWord]] == lSong;
+      }
+      if (isMatch) lSongs[lFound++] = lSong;
+    }
+    return (lFound == lSongs.length) ? lSongs : Arrays.copyOf(lSongs, lFound);
+  }
+
+  // Accessors / Getters
+  public synchronized int getNodeCount()    { return mNodeCount; }
+  public synchronized int getPostingCount() { return mPostingCount; }
+
+  /**
+   * Fold a text for the comparison: lower case and no diacritics
+   * @param text String: The text to fold
+   * @return String: The folded text
+   */
+  static String fold(String text) {
+    if (null == text) return "";
+    if (isAscii(text)) return text.toLowerCase(Locale.ROOT);
+    String lDecomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+    return DIACRITICS.matcher(lDecomposed).replaceAll("").toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Returns true if the text has no diacritic to remove
+   * @param text String: The text to check
+   * @return boolean: true if all the characters are ASCII
+   */
+  private static boolean isAscii(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= 0x80) return false;
+    }
+    return true;
+  }
+
+  // --------------------------------------------------------------------------
+  // Trie
+  // --------------------------------------------------------------------------
+
+  /**
+   * Insert the words of a text in the trie
+   * @param song int: The song index in the catalog
+   * @param text String: Text to index
+   */
+  private void addWords(int song, String text) {
+    String lFolded = fold(text);
+    int lNode = 0;
+    int lDepth = 0;
+    for (int i = 0; i < lFolded.length(); i++) {
+      char lChar = lFolded.charAt(i);
+      if (Character.isLetterOrDigit(lChar)) {
+        lNode = childOf(lNode, lChar, true);
+        // The song belongs to the subtree of each short prefix
+        if (++lDepth <= PREFIX_DEPTH) addPosting(lNode, song);
+      } else if (0 != lNode) {
+        // End of a word
+        if (lDepth > PREFIX_DEPTH) addPosting(lNode, song);
+        lNode = 0;
+        lDepth = 0;
+      }
+    }
+    if (lDepth > PREFIX_DEPTH) addPosting(lNode, song);
+  }
+
+  /**
+   * Returns the node of the word
+   * @param word String: Folded word
+   * @return int: The node or NONE
+   */
+  private int findNode(String word) {
+    int lNode = 0;
+    for (int i = 0; i < word.length() && NONE != lNode; i++) {
+      lNode = childOf(lNode, word.charAt(i), false);
+    }
+    return lNode;
+  }
+
+  /**
+   * Returns the child of a node
+   * @param node int: The parent node
+   * @param label char: Label of the child
+   * @param create boolean: Create the child if it does not exist
+   * @return int: The child node or NONE
+   */
+  private int childOf(int node, char label, boolean create) {
+    int lChild = mFirstChild[node];
+    while (NONE != lChild) {
+      if (mLabels[lChild] == label) return lChild;
+      lChild = mNextSibling[lChild];
+    }
+    if (!create) return NONE;
+
+    lChild = newNode(label);
+    mNextSibling[lChild] = mFirstChild[node];
+    mFirstChild[node] = lChild;
+    return lChild;
+  }
+
+  /**
+   * Allocate a node
+   * @param label char: The node character
+   * @return int: The new node
+   */
+  private int newNode(char label) {
+    if (mNodeCount == mLabels.length) {
+      int lCapacity = mNodeCount * 2;
+      mLabels      = Arrays.copyOf(mLabels, lCapacity);
+      mFirstChild  = Arrays.copyOf(mFirstChild, lCapacity);
+      mNextSibling = Arrays.copyOf(mNextSibling, lCapacity);
+      mPostings    = Arrays.copyOf(mPostings, lCapacity);
+      mPostingSizes = Arrays.copyOf(mPostingSizes, lCapacity);
+    }
+    mLabels[mNodeCount]      = label;
+    mFirstChild[mNodeCount]  = NONE;
+    mNextSibling[mNodeCount] = NONE;
+    return mNodeCount++;
+  }
+
+  /**
+   * Attach a song to a node, the postings stay sorted and distinct
+   * @param node int: The node
+   * @param song int: The song index in the catalog
+   */
+  private void addPosting(int node, int song) {
+    int[] lSongs = mPostings[node];
+    int lSize = mPostingSizes[node];
+    int lPosition = lSize;
+    if (null == lSongs) {
+      lSongs = new int[2];
+    } else if (lSize > 0 && lSongs[lSize - 1] >= song) {
+      // Same word twice in the same song, or songs added out of catalog order
+      lPosition = Arrays.binarySearch(lSongs, 0, lSize, song);
+      if (lPosition >= 0) return;
+      lPosition = -lPosition - 1;
+    }
+    if (lSize == lSongs.length) lSongs = Arrays.copyOf(lSongs, lSize * 2);
+    System.arraycopy(lSongs, lPosition, lSongs, lPosition + 1, lSize - lPosition);
+    lSongs[lPosition] = song;
+    mPostings[node] = lSongs;
+    mPostingSizes[node]++;
+    mPostingCount++;
+  }
+
+  /**
+   * Collect the songs of a deep node and of all its descendants
+   * @param root int: The prefix node, deeper than PREFIX_DEPTH
+   * @return int[]: The distinct song indexes in ascending order
+   */
+  private int[] collect(int root) {
+    int[] lStack = new int[64];
+    int lDepth = 0;
+    lStack[lDepth++] = root;
+    int[] lSongs = new int[0];
+    int lSize = 0;
+    int lNodes = 0;
+    while (lDepth > 0) {
+      int lNode = lStack[--lDepth];
+      int lCount = mPostingSizes[lNode];
+      if (lCount > 0) {
+        if (lSize + lCount > lSongs.length) lSongs = Arrays.copyOf(lSongs, Math.max(lSize + lCount, lSize * 2));
+        System.arraycopy(mPostings[lNode], 0, lSongs, lSize, lCount);
+        lSize += lCount;
+        lNodes++;
+      }
+      for (int lChild = mFirstChild[lNode]; NONE != lChild; lChild = mNextSibling[lChild]) {
+        if (lDepth == lStack.length) lStack = Arrays.copyOf(lStack, lDepth * 2);
+        lStack[lDepth++] = lChild;
+      }
+    }
+    // A single word is already sorted
+    if (lNodes <= 1) return Arrays.copyOf(lSongs, lSize);
+    Arrays.sort(lSongs, 0, lSize);
+    int lDistinct = 0;
+    for (int i = 0; i < lSize; i++) {
+      if (0 == lDistinct || lSongs[lDistinct - 1] != lSongs[i]) lSongs[lDistinct++] = lSongs[i];
+    }
+    return Arrays.copyOf(lSongs, lDistinct);
+  }
+
+  /**
+   * Returns the first position of a sorted array whose song is not below the given one
+   * @param songs int[]: Song indexes in ascending order
+   * @param from int: First position to consider, the songs before it are lower
+   * @param size int: Number of valid songs
+   * @param song int: The probed song
+   * @return int: The position, size if all the songs are lower
+   */
+  private static int lowerBound(int[] songs, int from, int size, int song) {
+    // Exponential search, the probed songs only increase
+    int lStep = 1;
+    int lHigh = from;
+    while (lHigh < size && songs[lHigh] < song) {
+      from = lHigh + 1;
+      lHigh += lStep;
+      lStep <<= 1;
+    }
+    int lPosition = Arrays.binarySearch(songs, from, Math.min(lHigh + 1, size), song);
+    return (lPosition >= 0) ? lPosition : -lPosition - 1;
+  }
+}
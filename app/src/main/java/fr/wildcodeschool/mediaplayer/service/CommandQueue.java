@@ -0,0 +1,192 @@
+package fr.wildcodeschool.mediaplayer.service;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import fr.wildcodeschool.mediaplayer.util.LatencyHistogram;
+
+/**
+ * Serialize the player commands on a single worker thread, in request order.
+ * A request which supersedes the last pending command replaces it instead of being
+ * queued, so a burst of play and pause runs only the latest one. The result of each
+ * command is delivered to its callback by the result executor, a superseded command
+ * is never run and its callback receives false.
+ * Commands may be posted from any thread.
+ */
+@SuppressWarnings("unused")
+public final class CommandQueue {
+  // Kinds of command, OTHER is never coalesced
+  public static final int OTHER = 0;
+  public static final int PLAY = 1;
+  public static final int PAUSE = 2;
+  public static final int STOP = 3;
+  public static final int SEEK = 4;
+  public static final int WARM_UP = 5;
+
+  /**
+   * Player operation, run in the worker thread
+   */
+  public interface Command {
+    /**
+     * @return boolean: The validity of the call
+     */
+    boolean run();
+  }
+
+  /**
+   * Receiver of the result of a command
+   */
+  public interface Callback {
+    /**
+     * @param isDone boolean: false if the command has been refused or superseded
+     */
+    void onResult(boolean isDone);
+  }
+
+  /**
+   * Command waiting for the worker thread
+   */
+  private static final class Pending {
+    private int mKind;
+    private Command mCommand;
+    private Callback mCallback;
+    // Request date of the oldest coalesced command, in ns
+    private final long mDate;
+
+    private Pending(int kind, Command command, Callback callback, long date) {
+      mKind     = kind;
+      mCommand  = command;
+      mCallback = callback;
+      mDate     = date;
+    }
+  }
+
+  private final Executor mWorker;
+  private final Executor mResultExecutor;
+  // Commands posted to the worker and not run yet, in request order
+  private final ArrayDeque<Pending> mPending = new ArrayDeque<>();
+
+  // Metrics
+  private int mRequestCount = 0;
+  private int mRunCount = 0;
+  private int mCoalescedCount = 0;
+  private final LatencyHistogram mPostLatency = new LatencyHistogram("CommandQueue.post");
+  private final LatencyHistogram mWaitLatency = new LatencyHistogram("CommandQueue.wait");
+  private final LatencyHistogram mRunLatency = new LatencyHistogram("CommandQueue.run");
+
+  /**
+   * Constructor
+   * @param worker Executor: Single thread which runs the commands, in submission order
+   * @param resultExecutor Executor: Thread which receives the results
+   */
+  public CommandQueue(Executor worker, Executor resultExecutor) {
+    mWorker         = worker;
+    mResultExecutor = resultExecutor;
+  }
+
+  /**
+   * Queue a command which is never coalesced and whose result is not needed
+   * @param command Runnable: The player operation
+   */
+  public void post(final Runnable command) {
+    post(OTHER, () -> {
+      command.run();
+      return true;
+    }, null);
+  }
+
+  /**
+   * Queue a command, or replace the last pending one if the new one supersedes it
+   * @param kind int: Kind of the command, OTHER if it can't be coalesced
+   * @param command Command: The player operation
+   * @param callback Callback: Receiver of the result, may be null
+   */
+  public void post(int kind, Command command, Callback callback) {
+    long lStart = System.nanoTime();
+    Callback lSuperseded = null;
+    boolean isQueued = false;
+    synchronized (this) {
+      mRequestCount++;
+      Pending lLast = mPending.peekLast();
+      if (null != lLast && supersedes(kind, lLast.mKind)) {
+        // Latest wins, the pending command is never run
+        lSuperseded = lLast.mCallback;
+        lLast.mKind = kind;
+        lLast.mCommand = command;
+        lLast.mCallback = callback;
+        mCoalescedCount++;
+      } else {
+        mPending.addLast(new Pending(kind, command, callback, lStart));
+        isQueued = true;
+      }
+    }
+    // One run per queued command, the worker takes them in order
+    if (isQueued) mWorker.execute(this::runNext);
+    if (null != lSuperseded) deliver(lSuperseded, false);
+    mPostLatency.record(System.nanoTime() - lStart);
+  }
+
+  /**
+   * Check if a command replaces the previous one when nothing runs between them
+   * @param kind int: Kind of the new command
+   * @param previous int: Kind of the last pending command
+   * @return boolean: true if the previous command is useless
+   */
+  static boolean supersedes(int kind, int previous) {
+    switch (kind) {
+      case PLAY:
+      case PAUSE:
+        // The last transport request gives the expected state
+        return PLAY == previous || PAUSE == previous;
+      case STOP:
+        return PLAY == previous || PAUSE == previous || STOP == previous;
+      case SEEK:
+      case WARM_UP:
+        return kind == previous;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Run the oldest pending command, called in the worker thread
+   */
+  private void runNext() {
+    Pending lPending;
+    synchronized (this) {
+      lPending = mPending.pollFirst();
+      if (null == lPending) return;
+      mRunCount++;
+    }
+    long lStart = System.nanoTime();
+    mWaitLatency.record(lStart - lPending.mDate);
+    boolean isDone = lPending.mCommand.run();
+    mRunLatency.record(System.nanoTime() - lStart);
+    if (null != lPending.mCallback) deliver(lPending.mCallback, isDone);
+  }
+
+  /**
+   * Send a result to its receiver
+   * @param callback Callback: The receiver
+   * @param isDone boolean: The result
+   */
+  private void deliver(final Callback callback, final boolean isDone) {
+    mResultExecutor.execute(() -> callback.onResult(isDone));
+  }
+
+  // Accessors / Getters
+  public synchronized int getPendingCount()   { return mPending.size(); }
+  public synchronized int getRequestCount()   { return mRequestCount; }
+  public synchronized int getRunCount()       { return mRunCount; }
+  public synchronized int getCoalescedCount() { return mCoalescedCount; }
+  public LatencyHistogram getPostLatency()    { return mPostLatency; }
+  public LatencyHistogram getWaitLatency()    { return mWaitLatency; }
+  public LatencyHistogram getRunLatency()     { return mRunLatency; }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "CommandQueue[requests=%d, run=%d, coalesced=%d, pending=%d]",
+      mRequestCount, mRunCount, mCoalescedCount, mPending.size());
+  }
+}
@@ -2,19 +2,72 @@ package fr.wildcodeschool.mediaplayer.service;
 
 import android.app.Service;
 import android.content.Intent;
+import android.media.MediaPlayer;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Trace;
 import android.support.annotation.*;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.wildcodeschool.mediaplayer.obb.ObbOverlay;
+import fr.wildcodeschool.mediaplayer.player.MediaSources;
+import fr.wildcodeschool.mediaplayer.player.PlayQueue;
+import fr.wildcodeschool.mediaplayer.player.PlaybackAnchor;
+import fr.wildcodeschool.mediaplayer.player.PlayerPool;
 import fr.wildcodeschool.mediaplayer.player.WildOnPlayerListener;
+import fr.wildcodeschool.mediaplayer.player.WildOnPositionListener;
 import fr.wildcodeschool.mediaplayer.player.WildPlayer;
+import fr.wildcodeschool.mediaplayer.stream.BitrateSelector;
+import fr.wildcodeschool.mediaplayer.stream.CachingProxy;
+import fr.wildcodeschool.mediaplayer.stream.PrefetchScheduler;
+import fr.wildcodeschool.mediaplayer.stream.StreamCache;
+import fr.wildcodeschool.mediaplayer.stream.ThroughputEstimator;
+import fr.wildcodeschool.mediaplayer.stream.VariantSet;
 
+/**
+ * Owner of the players. Every player operation runs in the playback thread, in request
+ * order, through a command queue which drops the superseded requests. The players are
+ * created there, so their events are received there too, and the listeners of the clients
+ * are called back in UI thread.
+ */
 public class MediaService extends Service {
+  // TAG
+  private static final String TAG = "MediaService";
+  // Cache directory of the streamed songs
+  private static final String STREAM_CACHE_DIRECTORY = "streams";
+  private static final long STREAM_CACHE_SIZE = 128 * 1024 * 1024;
   // Binder given to clients
   private final IBinder mBinder = new MediaBinder();
 
-  // Audio player
+  // Thread of the players and its commands, results are sent to UI thread
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private HandlerThread mPlaybackThread = null;
+  private Handler mPlaybackHandler = null;
+  private CommandQueue mCommands = null;
+
+  // Audio player, only used in the playback thread
   private WildPlayer mPlayer = null;
+  // Players prepared for the likely next picks, only used in the playback thread
+  private final PlayerPool mPlayerPool = new PlayerPool(PlayerPool.DEFAULT_MAX_SIZE);
+  // Receiver of the position anchors of the current player, called in UI thread
+  private WildOnPositionListener mPositionListener = null;
+  // Local server which caches the streamed songs on disk
+  private CachingProxy mProxy = null;
+  // Downloads the beginning of the upcoming songs to the proxy cache
+  private PrefetchScheduler mPrefetcher = null;
+  // Throughput of the proxy downloads and variant chooser of the streamed songs
+  private final ThroughputEstimator mEstimator = new ThroughputEstimator();
+  private final BitrateSelector mBitrateSelector = new BitrateSelector(mEstimator);
 
   /**
    * Class used for the client Binder.  Because we know this service always
@@ -27,6 +80,38 @@ public class MediaService extends Service {
     }
   }
 
+  /**
+   * Called by the system when the service is first created.
+   * Start the playback thread and the caching proxy, the songs are streamed directly
+   * if it can't listen.
+   */
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    mPlaybackThread = new HandlerThread("Playback");
+    mPlaybackThread.start();
+    mPlaybackHandler = new Handler(mPlaybackThread.getLooper());
+    mCommands = new CommandQueue(mPlaybackHandler::post, mMainHandler::post);
+    mProxy = new CachingProxy(new StreamCache(new File(getCacheDir(), STREAM_CACHE_DIRECTORY), STREAM_CACHE_SIZE));
+    mProxy.setThroughputEstimator(mEstimator);
+    try {
+      mProxy.start();
+      mPrefetcher = new PrefetchScheduler(mProxy);
+    } catch (IOException e) {
+      Log.e(TAG, "Caching proxy not started: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Play the songs of the OBB in place, from the archives opened by the ObbManager.
+   * The archives are mapped once for the whole application, their owner closes them after
+   * calling this method with null. The players hold their own copy of the descriptor.
+   * @param archive ObbOverlay: The opened archives, null if the OBB are not zip archives
+   */
+  public void setObbArchive(@Nullable ObbOverlay archive) {
+    MediaSources.setObbArchive(archive);
+  }
+
   /**
    * Return the communication channel to the service. May return null if clients
    * can not bind to the service. The returned IBinder is usually for a complex
@@ -48,46 +133,250 @@ public class MediaService extends Service {
    */
   @Override
   public boolean onUnbind(Intent intent) {
-    mPlayer.release();
+    mCommands.post(() -> {
+      if (null != mPlayer) mPlayer.release();
+    });
     // Don't allow rebind
     return false;
   }
 
   /**
-   * Instanciate a new MediaPlayer according to the StringId parameter
-   * @param pId int: The id of the string stored in resource
-   * @param pListener WildOnPlayerListener
+   * Instanciate a new MediaPlayer according to the ArrayId parameter, in the playback thread
+   * @param pId int: The id of the string array of the song variants, "bitrate url" items
+   * @param pListener WildOnPlayerListener: Called in UI thread
+   */
+  public void createMediaPlayer(@ArrayRes int pId, @NonNull WildOnPlayerListener pListener) {
+    // The variants are streamed through the proxy, which measures the throughput
+    VariantSet lVariants = VariantSet.parse(getResources().getStringArray(pId));
+    List<VariantSet.Variant> lProxied = new ArrayList<>(lVariants.size());
+    for (VariantSet.Variant lVariant : lVariants.getVariants()) {
+      lProxied.add(new VariantSet.Variant(mProxy.getProxyUrl(lVariant.getUrl()), lVariant.getBitRate()));
+    }
+    final VariantSet lProxiedVariants = new VariantSet(lProxied);
+    final WildOnPlayerListener lListener = onMainThread(pListener);
+    mCommands.post(CommandQueue.OTHER, traced("createMediaPlayer", () -> {
+      // Initialization of the wild audio player
+      if (null != mPlayer) mPlayer.release();
+      mPlayer = new WildPlayer(getApplicationContext());
+      mPlayer.setPositionListener(mPositionListener);
+      mPlayer.setBitrateSelector(mBitrateSelector);
+      mPlayer.init(lProxiedVariants, lListener);
+      return true;
+    }), null);
+  }
+
+  /**
+   * Replace the current player by a player of the queue, the playback starts when the
+   * first song is prepared and the next songs follow without gap
+   * @param pQueue PlayQueue: The songs to play
+   * @param pListener WildOnPlayerListener: Called in UI thread
+   */
+  public void playQueue(@NonNull final PlayQueue pQueue, @NonNull final WildOnPlayerListener pListener) {
+    final WildOnPlayerListener lListener = onMainThread(pListener);
+    mCommands.post(CommandQueue.OTHER, traced("playQueue", () -> {
+      if (null != mPlayer) mPlayer.release();
+      mPlayer = new WildPlayer(getApplicationContext(), mPlayerPool);
+      mPlayer.setPositionListener(mPositionListener);
+      mPlayer.init(new PlayQueue(proxied(pQueue.getSources()), pQueue.getIndex()),
+        new WildOnPlayerListener() {
+          @Override
+          public void onPrepared(MediaPlayer mp) {
+            lListener.onPrepared(mp);
+          }
+
+          @Override
+          public void onCompletion(MediaPlayer mp) {
+            lListener.onCompletion(mp);
+          }
+
+          @Override
+          public void onTrackChanged(MediaPlayer mp, int index) {
+            prefetchAfter(pQueue.getSources(), index);
+            lListener.onTrackChanged(mp, index);
+          }
+
+          @Override
+          public void onError(MediaPlayer mp, int what, int extra) {
+            lListener.onError(mp, what, extra);
+          }
+        }, true);
+      prefetchAfter(pQueue.getSources(), pQueue.getIndex());
+      return true;
+    }), null);
+  }
+
+  /**
+   * Replace the prefetched songs by the ones which follow the current song
+   * @param pSources List: Data sources of the queue
+   * @param pIndex int: Position of the current song
    */
-  public void createMediaPlayer(@StringRes int pId, @NonNull WildOnPlayerListener pListener) {
-    // Initialization of the wild audio player
-    mPlayer = new WildPlayer(getApplicationContext());
-    mPlayer.init(pId, pListener);
+  private void prefetchAfter(@NonNull List<String> pSources, int pIndex) {
+    if (null != mPrefetcher) mPrefetcher.schedule(pSources.subList(pIndex + 1, pSources.size()));
   }
 
   /**
-   * get the instance of the service mediaPlayer
-   * @return Return the instance of the mediaPlayer
+   * Register the receiver of the playback position anchors, of the current player
+   * and of the next ones
+   * @param pListener WildOnPositionListener: The receiver called in UI thread, null to unregister
    */
-  @Nullable
-  public WildPlayer getPlayer() {
-    return mPlayer;
+  public void setPositionListener(@Nullable final WildOnPositionListener pListener) {
+    final WildOnPositionListener lListener = (null == pListener) ? null
+      : (PlaybackAnchor anchor) -> mMainHandler.post(() -> pListener.onPositionChanged(anchor));
+    mCommands.post(() -> {
+      mPositionListener = lListener;
+      if (null != mPlayer) mPlayer.setPositionListener(lListener);
+    });
+  }
+
+  /**
+   * Prepare players in advance for the songs the user is likely to pick.
+   * Only the latest request is honored if the previous one has not started yet.
+   * @param pSources List: Data sources of the songs, in priority order
+   */
+  public void warmUp(@NonNull final List<String> pSources) {
+    mCommands.post(CommandQueue.WARM_UP, traced("warmUp", () -> {
+      mPlayerPool.warm(proxied(pSources));
+      return true;
+    }), null);
+  }
+
+  /**
+   * Forward the events of a player to a listener, in UI thread
+   * @param pListener WildOnPlayerListener: The listener of the client
+   * @return WildOnPlayerListener: The listener to give to the player
+   */
+  private WildOnPlayerListener onMainThread(@NonNull final WildOnPlayerListener pListener) {
+    return new WildOnPlayerListener() {
+      @Override
+      public void onPrepared(final MediaPlayer mp) {
+        mMainHandler.post(() -> pListener.onPrepared(mp));
+      }
+
+      @Override
+      public void onCompletion(final MediaPlayer mp) {
+        mMainHandler.post(() -> pListener.onCompletion(mp));
+      }
+
+      @Override
+      public void onTrackChanged(final MediaPlayer mp, final int index) {
+        mMainHandler.post(() -> pListener.onTrackChanged(mp, index));
+      }
+
+      @Override
+      public void onError(final MediaPlayer mp, final int what, final int extra) {
+        mMainHandler.post(() -> pListener.onError(mp, what, extra));
+      }
+    };
+  }
+
+  /**
+   * Mark the run of a command in the system traces
+   * @param pName String: Name of the trace section
+   * @param pCommand CommandQueue.Command: The player operation
+   * @return CommandQueue.Command: The traced operation
+   */
+  private static CommandQueue.Command traced(@NonNull final String pName,
+                                             @NonNull final CommandQueue.Command pCommand) {
+    return () -> {
+      boolean isTraced = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+      if (isTraced) Trace.beginSection(pName);
+      try {
+        return pCommand.run();
+      } finally {
+        if (isTraced) Trace.endSection();
+      }
+    };
+  }
+
+  /**
+   * Route the remote sources through the caching proxy, local paths are unchanged
+   * @param pSources List: Data sources of the songs
+   * @return List: The sources to give to the players
+   */
+  private List<String> proxied(@NonNull final List<String> pSources) {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return mProxy.getProxyUrl(pSources.get(index));
+      }
+
+      @Override
+      public int size() {
+        return pSources.size();
+      }
+    };
+  }
+
+  /**
+   * Called when the operating system has determined that it is a good time for a process
+   * to trim unneeded memory from its process.
+   * @param level int: The context of the trim, giving a hint of the amount of trimming
+   *              the application may like to perform.
+   */
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    mCommands.post(() -> mPlayerPool.onTrimMemory(level));
+  }
+
+  /**
+   * This is called when the overall system is running low on memory
+   */
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    mCommands.post(mPlayerPool::evictAll);
   }
 
   /**
    * Called by the system to notify a Service that it is no longer used and is being removed.
+   * The players are released after the pending commands, then the playback thread ends.
    */
   @Override
   public void onDestroy() {
     super.onDestroy();
-    if (mPlayer != null) mPlayer.release();
+    mCommands.post(() -> {
+      if (mPlayer != null) mPlayer.release();
+      mPlayerPool.evictAll();
+      Log.i(TAG, mPlayerPool.toString());
+      Log.i(TAG, mProxy.toString());
+      Log.i(TAG, mBitrateSelector.toString());
+      if (null != mPrefetcher) {
+        Log.i(TAG, mPrefetcher.toString());
+        mPrefetcher.close();
+      }
+      try {
+        mProxy.close();
+      } catch (IOException e) {
+        Log.e(TAG, e.getMessage());
+      }
+      Log.i(TAG, mCommands.toString());
+      Log.i(TAG, mCommands.getPostLatency().toString());
+      Log.i(TAG, mCommands.getWaitLatency().toString());
+      Log.i(TAG, mCommands.getRunLatency().toString());
+      mPlaybackThread.quit();
+    });
   }
 
+  // --------------------------------------------------------------------------
+  // Commands
+  // --------------------------------------------------------------------------
+
   /**
    * On play button click
    * Launch the playback of the media
    */
   public void playMedia() {
-    if (null != mPlayer) mPlayer.play();
+    playMedia(null);
+  }
+
+  /**
+   * Launch the playback of the media, in the playback thread
+   * @param pCallback CommandQueue.Callback: Receiver of the result in UI thread, may be null
+   */
+  public void playMedia(@Nullable CommandQueue.Callback pCallback) {
+    mCommands.post(CommandQueue.PLAY,
+      traced("playMedia", () -> null != mPlayer && mPlayer.play()), pCallback);
   }
 
   /**
@@ -95,7 +384,16 @@ public class MediaService extends Service {
    * Pause the playback of the media
    */
   public void pauseMedia() {
-    if (null != mPlayer) mPlayer.pause();
+    pauseMedia(null);
+  }
+
+  /**
+   * Pause the playback of the media, in the playback thread
+   * @param pCallback CommandQueue.Callback: Receiver of the result in UI thread, may be null
+   */
+  public void pauseMedia(@Nullable CommandQueue.Callback pCallback) {
+    mCommands.post(CommandQueue.PAUSE,
+      traced("pauseMedia", () -> null != mPlayer && mPlayer.pause()), pCallback);
   }
 
   /**
@@ -103,6 +401,37 @@ public class MediaService extends Service {
    * Stop the playback of the media
    */
   public void stopMedia() {
-    if (null != mPlayer) mPlayer.stop();
+    stopMedia(null);
+  }
+
+  /**
+   * Stop the playback of the media, in the playback thread
+   * @param pCallback CommandQueue.Callback: Receiver of the result in UI thread, may be null
+   */
+  public void stopMedia(@Nullable CommandQueue.Callback pCallback) {
+    mCommands.post(CommandQueue.STOP,
+      traced("stopMedia", () -> null != mPlayer && mPlayer.stop()), pCallback);
+  }
+
+  /**
+   * Seek in the timeline of the current song, in the playback thread.
+   * Only the latest request is kept if the previous one has not started yet.
+   * @param pPosition int: Value in ms
+   * @param pExact boolean: false while the user drags, the closest sync frame is enough
+   */
+  public void seekTo(final int pPosition, final boolean pExact) {
+    mCommands.post(CommandQueue.SEEK, traced("seekTo", () -> {
+      if (null == mPlayer) return false;
+      mPlayer.seekTo(pPosition, pExact);
+      return true;
+    }), null);
+  }
+
+  /**
+   * Returns the queue of the player commands and its metrics
+   * @return CommandQueue: The commands of the playback thread
+   */
+  public CommandQueue getCommandQueue() {
+    return mCommands;
   }
 }
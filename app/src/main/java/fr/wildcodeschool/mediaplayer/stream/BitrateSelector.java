@@ -0,0 +1,100 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.util.Locale;
+
+/**
+ * Choose the variant of a song from the measured throughput.
+ * The highest variant which fits in a share of the throughput is selected. After a stall
+ * the selection is capped below the stalled variant for a while.
+ */
+@SuppressWarnings("unused")
+public final class BitrateSelector {
+  // Share of the throughput available for the audio
+  public static final float DEFAULT_SAFETY_FACTOR = 0.75f;
+  // Duration of the cap after a stall in ns
+  public static final long DEFAULT_STALL_PENALTY = 30000000000L;
+
+  /**
+   * Time source, replaced in unit tests
+   */
+  interface Clock {
+    long nanoTime();
+  }
+
+  private final ThroughputEstimator mEstimator;
+  private final float mSafetyFactor;
+  private final long mStallPenalty;
+  private final Clock mClock;
+
+  // Highest bit rate allowed after a stall and its end date
+  private int mStallCap = Integer.MAX_VALUE;
+  private long mStallCapEnd = 0;
+  // Bit rate of the last selection, 0 before the first one
+  private int mLastBitRate = 0;
+
+  // Metrics
+  private int mUpSwitchCount = 0;
+  private int mDownSwitchCount = 0;
+  private int mStallCount = 0;
+
+  /**
+   * Constructor with the default settings
+   * @param estimator ThroughputEstimator: Measures of the downloads
+   */
+  public BitrateSelector(ThroughputEstimator estimator) {
+    this(estimator, DEFAULT_SAFETY_FACTOR, DEFAULT_STALL_PENALTY, System::nanoTime);
+  }
+
+  BitrateSelector(ThroughputEstimator estimator, float safetyFactor, long stallPenalty, Clock clock) {
+    mEstimator    = estimator;
+    mSafetyFactor = safetyFactor;
+    mStallPenalty = stallPenalty;
+    mClock        = clock;
+  }
+
+  /**
+   * Select the variant to play. Without measure the lowest variant is selected, it starts faster.
+   * @param variants VariantSet: The encodings of the song
+   * @return Variant: The selected variant
+   */
+  public synchronized VariantSet.Variant select(VariantSet variants) {
+    long lEstimate = mEstimator.getEstimate();
+    long lBudget = (lEstimate < 0) ? 0 : (long) (lEstimate * mSafetyFactor);
+    if (mClock.nanoTime() - mStallCapEnd < 0) lBudget = Math.min(lBudget, mStallCap);
+
+    VariantSet.Variant lSelected = variants.get(0);
+    for (int i = 1; i < variants.size(); i++) {
+      if (variants.get(i).getBitRate() > lBudget) break;
+      lSelected = variants.get(i);
+    }
+
+    if (0 != mLastBitRate && lSelected.getBitRate() > mLastBitRate) mUpSwitchCount++;
+    if (lSelected.getBitRate() < mLastBitRate) mDownSwitchCount++;
+    mLastBitRate = lSelected.getBitRate();
+    return lSelected;
+  }
+
+  /**
+   * The player ran out of data, the next selections stay below the stalled variant
+   * @param variants VariantSet: The encodings of the stalled song
+   * @param stalled Variant: The variant which stalled
+   * @return Variant: The variant to switch to, the stalled one if it is already the lowest
+   */
+  public synchronized VariantSet.Variant onStall(VariantSet variants, VariantSet.Variant stalled) {
+    mStallCount++;
+    mStallCap = stalled.getBitRate() - 1;
+    mStallCapEnd = mClock.nanoTime() + mStallPenalty;
+    return select(variants);
+  }
+
+  // Accessors / Getters
+  public synchronized int getUpSwitchCount()   { return mUpSwitchCount; }
+  public synchronized int getDownSwitchCount() { return mDownSwitchCount; }
+  public synchronized int getStallCount()      { return mStallCount; }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "BitrateSelector[%s, last=%d kbit/s, up=%d, down=%d, stalls=%d]",
+      mEstimator, mLastBitRate / 1000, mUpSwitchCount, mDownSwitchCount, mStallCount);
+  }
+}
@@ -0,0 +1,177 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Disk copy of a remote file, possibly partial. The downloaded bytes are written at
+ * their offset in a sparse data file, the downloaded ranges are persisted in a
+ * metadata file so that a partial download resumes after a restart.
+ * Thread safe, a stream may be read and written by several proxy connections.
+ */
+@SuppressWarnings("unused")
+public final class CachedStream implements Closeable {
+  // Metadata file header
+  static final int MAGIC = 0x57435354;
+  static final int VERSION = 1;
+  // Downloaded bytes between two metadata saves
+  private static final long SAVE_INTERVAL = 256 * 1024;
+
+  private final File mMetaFile;
+  private final RandomAccessFile mData;
+  private final RangeSet mRanges = new RangeSet();
+  // Total length of the remote file, -1 if unknown
+  private long mLength = -1;
+  private String mContentType = null;
+  private long mUnsavedBytes = 0;
+
+  /**
+   * Open a cached stream, the metadata of a previous download are reloaded
+   * @param dataFile File: The sparse data file
+   * @param metaFile File: The ranges file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  CachedStream(File dataFile, File metaFile) throws IOException {
+    mMetaFile = metaFile;
+    if (metaFile.exists() && dataFile.exists()) {
+      try {
+        load();
+      } catch (IOException e) {
+        // Corrupted metadata, the stream is downloaded again
+        mLength = -1;
+        mContentType = null;
+        mRanges.clear();
+      }
+    }
+    mData = new RandomAccessFile(dataFile, "rw");
+  }
+
+  // Accessors / Getters
+  public synchronized long getLength()        { return mLength; }
+  public synchronized String getContentType() { return mContentType; }
+  public synchronized long getCachedBytes()   { return mRanges.getByteCount(); }
+
+  /**
+   * Store the properties of the remote file
+   * @param length long: Total length in bytes
+   * @param contentType String: MIME type, may be null
+   */
+  public synchronized void setRemoteInfo(long length, String contentType) {
+    mLength = length;
+    if (null != contentType) mContentType = contentType;
+  }
+
+  /**
+   * Returns the end of the cached range which contains a byte
+   * @param position long: The byte position
+   * @return long: The end of the range or -1 if the byte is not cached
+   */
+  public synchronized long getCachedEnd(long position) {
+    return mRanges.getRangeEnd(position);
+  }
+
+  /**
+   * Returns the start of the first cached range after a byte
+   * @param position long: The byte position
+   * @return long: The start of the next range or Long.MAX_VALUE
+   */
+  public synchronized long getNextCachedStart(long position) {
+    return mRanges.getNextRangeStart(position);
+  }
+
+  /**
+   * Check if the whole remote file is cached
+   * @return boolean: true if all the bytes are cached
+   */
+  public synchronized boolean isComplete() {
+    return mLength >= 0 && mRanges.contains(0, mLength);
+  }
+
+  /**
+   * Read cached bytes
+   * @param position long: Position of the first byte
+   * @param buffer byte[]: Destination of the bytes
+   * @param offset int: Offset in the buffer
+   * @param length int: Number of bytes to read, they must be cached
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public synchronized void read(long position, byte[] buffer, int offset, int length)
+    throws IOException {
+    mData.seek(position);
+    mData.readFully(buffer, offset, length);
+  }
+
+  /**
+   * Write downloaded bytes
+   * @param position long: Position of the first byte in the remote file
+   * @param buffer byte[]: The bytes
+   * @param offset int: Offset in the buffer
+   * @param length int: Number of bytes to write
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public synchronized void write(long position, byte[] buffer, int offset, int length)
+    throws IOException {
+    mData.seek(position);
+    mData.write(buffer, offset, length);
+    mRanges.add(position, position + length);
+    mUnsavedBytes += length;
+    if (mUnsavedBytes >= SAVE_INTERVAL) save();
+  }
+
+  /**
+   * Persist the downloaded ranges. The data are synced first, a saved range
+   * always refers to bytes which are on disk.
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public synchronized void save() throws IOException {
+    mData.getFD().sync();
+    File lTemp = new File(mMetaFile.getPath() + ".tmp");
+    try (DataOutputStream lOutput = new DataOutputStream(new FileOutputStream(lTemp))) {
+      lOutput.writeInt(MAGIC);
+      lOutput.writeInt(VERSION);
+      lOutput.writeLong(mLength);
+      lOutput.writeUTF(null == mContentType ? "" : mContentType);
+      mRanges.writeTo(lOutput);
+    }
+    if (!lTemp.renameTo(mMetaFile)) {
+      //noinspection ResultOfMethodCallIgnored
+      lTemp.delete();
+      throw new IOException("Unable to rename " + lTemp + " to " + mMetaFile);
+    }
+    mUnsavedBytes = 0;
+  }
+
+  /**
+   * Save the ranges and close the data file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (mUnsavedBytes > 0) save();
+    } finally {
+      mData.close();
+    }
+  }
+
+  /**
+   * Read the metadata file
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  private void load() throws IOException {
+    try (DataInputStream lInput = new DataInputStream(new FileInputStream(mMetaFile))) {
+      if (MAGIC != lInput.readInt() || VERSION != lInput.readInt())
+        throw new IOException("Invalid stream metadata " + mMetaFile);
+      mLength = lInput.readLong();
+      String lContentType = lInput.readUTF();
+      mContentType = lContentType.isEmpty() ? null : lContentType;
+      mRanges.readFrom(lInput);
+    }
+  }
+}
@@ -0,0 +1,627 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HTTP server on localhost which serves remote files through a disk cache.
+ * The player is given a proxy URL, the requested byte range is served from the cache
+ * and only the missing ranges are fetched from the origin server.
+ * The proxy URLs are signed with a key of the process, the proxy only fetches the URLs
+ * it has handed out.
+ */
+@SuppressWarnings("unused")
+public final class CachingProxy implements Closeable {
+  // Path of the proxied URLs
+  private static final String PATH = "/stream";
+  private static final String URL_PARAMETER = "url=";
+  private static final String SIGNATURE_PARAMETER = "sig=";
+  private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+  private static final int KEY_SIZE = 32;
+  // Served when the origin gives no type
+  private static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int CONNECTION_COUNT = 4;
+  private static final int TIMEOUT = 15000;
+  // Size of the chunks given to the throughput estimator
+  private static final long SAMPLE_BYTES = 64 * 1024;
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private final StreamCache mCache;
+  // Signature of the proxy URLs, never leaves the process
+  private final Mac mSigner;
+  private ServerSocket mServerSocket = null;
+  private ExecutorService mExecutor = null;
+  private volatile int mPort = -1;
+  private volatile OnStreamRequestListener mRequestListener = null;
+  // Measures the player downloads, may be null
+  private volatile ThroughputEstimator mEstimator = null;
+  // Player connections currently downloading from the origin
+  private final AtomicInteger mActiveFetchCount = new AtomicInteger();
+
+  // Metrics
+  private final AtomicInteger mRequestCount = new AtomicInteger();
+  private final AtomicInteger mFailureCount = new AtomicInteger();
+  private final AtomicLong mCacheBytes  = new AtomicLong();
+  private final AtomicLong mOriginBytes = new AtomicLong();
+
+  /**
+   * Receive the player requests, called from the proxy threads
+   */
+  public interface OnStreamRequestListener {
+    void onStreamRequest(String url, long position, CachedStream stream);
+  }
+
+  /**
+   * Pace a background download, called from the downloading thread after each buffer
+   */
+  public interface Throttle {
+    /**
+     * @param count int: Number of bytes just downloaded
+     * @return boolean: false to stop the download
+     */
+    boolean onBytes(int count);
+  }
+
+  /**
+   * Constructor
+   * @param cache StreamCache: Storage of the downloaded bytes
+   */
+  public CachingProxy(StreamCache cache) {
+    mCache = cache;
+    byte[] lKey = new byte[KEY_SIZE];
+    new SecureRandom().nextBytes(lKey);
+    try {
+      mSigner = Mac.getInstance(SIGNATURE_ALGORITHM);
+      mSigner.init(new SecretKeySpec(lKey, SIGNATURE_ALGORITHM));
+    } catch (GeneralSecurityException e) {
+      // HmacSHA256 is always available on Android
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Listen on a free localhost port
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public synchronized void start() throws IOException {
+    if (null != mServerSocket) return;
+    mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+    mPort = mServerSocket.getLocalPort();
+    final AtomicInteger lThreadCount = new AtomicInteger();
+    mExecutor = Executors.newFixedThreadPool(CONNECTION_COUNT + 1, (Runnable r) -> {
+      Thread lThread = new Thread(r, "CachingProxy-" + lThreadCount.incrementAndGet());
+      lThread.setDaemon(true);
+      return lThread;
+    });
+    final ServerSocket lServerSocket = mServerSocket;
+    mExecutor.execute(() -> accept(lServerSocket));
+  }
+
+  /**
+   * Stop listening, the cached streams are saved
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    mPort = -1;
+    if (null != mServerSocket) {
+      mServerSocket.close();
+      mServerSocket = null;
+      mExecutor.shutdownNow();
+      mExecutor = null;
+    }
+    mCache.close();
+  }
+
+  /**
+   * Returns the URL to give to the player. Only http and https URLs are proxied.
+   * @param url String: The remote URL
+   * @return String: The signed proxy URL, or the given URL if it is not proxied
+   */
+  public String getProxyUrl(String url) {
+    int lPort = mPort;
+    if (lPort < 0 || !isRemote(url)) return url;
+    try {
+      return "http://127.0.0.1:" + lPort + PATH + "?" + URL_PARAMETER + URLEncoder.encode(url, "UTF-8")
+        + "&" + SIGNATURE_PARAMETER + signatureOf(url);
+    } catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported
+      return url;
+    }
+  }
+
+  /**
+   * Download the beginning of a remote file to the cache, the cached bytes are skipped.
+   * Runs in the calling thread.
+   * @param url String: The remote URL
+   * @param end long: Byte after the last byte to download
+   * @param throttle Throttle: Pace of the download, may be null
+   * @return long: Number of bytes downloaded from the origin
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public long fill(String url, long end, Throttle throttle) throws IOException {
+    CachedStream lStream = mCache.get(url);
+    Origin lOrigin = null;
+    long lCount = 0;
+    try {
+      if (lStream.getLength() < 0 && lStream.getCachedEnd(0) < end) {
+        lOrigin = Origin.open(url, 0, end, lStream);
+      }
+      long lEnd = Math.min(end, lStream.getLength());
+      byte[] lBuffer = new byte[BUFFER_SIZE];
+      long lPosition = 0;
+      while (lPosition < lEnd) {
+        long lCachedEnd = lStream.getCachedEnd(lPosition);
+        if (lCachedEnd > 0) {
+          lPosition = lCachedEnd;
+          continue;
+        }
+        long lMissingEnd = Math.min(lEnd, lStream.getNextCachedStart(lPosition));
+        if (null == lOrigin || lOrigin.getPosition() != lPosition) {
+          if (null != lOrigin) lOrigin.close();
+          lOrigin = Origin.open(url, lPosition, lMissingEnd, lStream);
+        }
+        long lCopied = lOrigin.copy(lMissingEnd, null, lBuffer, throttle, null);
+        lCount += lCopied;
+        lPosition += lCopied;
+        // Stopped by the throttle
+        if (lPosition < lMissingEnd) break;
+      }
+    } finally {
+      if (null != lOrigin) lOrigin.close();
+      try {
+        lStream.save();
+      } finally {
+        mCache.release(url);
+      }
+    }
+    return lCount;
+  }
+
+  /**
+   * Register the receiver of the player requests
+   * @param listener OnStreamRequestListener: The receiver, null to unregister
+   */
+  public void setOnStreamRequestListener(OnStreamRequestListener listener) {
+    mRequestListener = listener;
+  }
+
+  /**
+   * Measure the throughput of the player downloads, the prefetches are not measured
+   * @param estimator ThroughputEstimator: Receiver of the chunks, null to stop measuring
+   */
+  public void setThroughputEstimator(ThroughputEstimator estimator) {
+    mEstimator = estimator;
+  }
+
+  /**
+   * Check if the player is waiting for bytes of the origin server
+   * @return boolean: true while a player request downloads missing bytes
+   */
+  public boolean isPlayerFetching() {
+    return mActiveFetchCount.get() > 0;
+  }
+
+  // Accessors / Getters
+  public int getRequestCount() { return mRequestCount.get(); }
+  public long getCacheBytes()  { return mCacheBytes.get(); }
+  public long getOriginBytes() { return mOriginBytes.get(); }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "CachingProxy[port=%d, requests=%d, failures=%d, cache=%d B, origin=%d B]",
+      mPort, mRequestCount.get(), mFailureCount.get(), mCacheBytes.get(), mOriginBytes.get());
+  }
+
+  // --------------------------------------------------------------------------
+  // Connections
+  // --------------------------------------------------------------------------
+
+  /**
+   * Accept the player connections until the server socket is closed
+   * @param serverSocket ServerSocket: The listening socket
+   */
+  private void accept(ServerSocket serverSocket) {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket lSocket = serverSocket.accept();
+        mExecutor.execute(() -> serve(lSocket));
+      } catch (IOException e) {
+        // Server socket closed
+        return;
+      } catch (RuntimeException e) {
+        // Executor shut down
+        return;
+      }
+    }
+  }
+
+  /**
+   * Answer a player request
+   * @param socket Socket: The player connection
+   */
+  private void serve(Socket socket) {
+    Origin lOrigin = null;
+    CachedStream lStream = null;
+    String lStreamUrl = null;
+    try (Socket lSocket = socket;
+         InputStream lInput = new BufferedInputStream(lSocket.getInputStream());
+         OutputStream lOutput = new BufferedOutputStream(lSocket.getOutputStream(), BUFFER_SIZE)) {
+      mRequestCount.incrementAndGet();
+      lSocket.setSoTimeout(TIMEOUT);
+
+      // Request line and headers
+      String lRequest = readLine(lInput);
+      if (null == lRequest) return;
+      String[] lParts = lRequest.split(" ");
+      String lRange = null;
+      for (String lHeader = readLine(lInput); null != lHeader && !lHeader.isEmpty(); lHeader = readLine(lInput)) {
+        if (lHeader.regionMatches(true, 0, "Range:", 0, 6)) lRange = lHeader.substring(6).trim();
+      }
+      String lUrl = (lParts.length >= 2) ? urlOf(lParts[1]) : null;
+      boolean isHead = "HEAD".equals(lParts[0]);
+      if (null == lUrl || !("GET".equals(lParts[0]) || isHead)) {
+        writeStatus(lOutput, "400 Bad Request");
+        return;
+      }
+      if (!isSigned(lParts[1], lUrl)) {
+        writeStatus(lOutput, "403 Forbidden");
+        return;
+      }
+
+      // Requested range, end excluded
+      long lStart = 0;
+      long lEnd = -1;
+      if (null != lRange) {
+        Matcher lMatcher = RANGE.matcher(lRange);
+        if (lMatcher.matches()) {
+          try {
+            lStart = Long.parseLong(lMatcher.group(1));
+            if (!lMatcher.group(2).isEmpty()) lEnd = Long.parseLong(lMatcher.group(2)) + 1;
+          } catch (NumberFormatException e) {
+            // Position beyond any file size
+            lEnd = 0;
+          }
+          if (lEnd >= 0 && lEnd <= lStart) {
+            writeStatus(lOutput, "416 Range Not Satisfiable");
+            return;
+          }
+        } else {
+          lRange = null;
+        }
+      }
+
+      lStream = mCache.get(lUrl);
+      lStreamUrl = lUrl;
+      OnStreamRequestListener lListener = mRequestListener;
+      if (null != lListener) lListener.onStreamRequest(lUrl, lStart, lStream);
+      if (lStream.getLength() < 0) {
+        // First request, the origin gives the length
+        try {
+          lOrigin = Origin.open(lUrl, lStart, lEnd, lStream);
+        } catch (IOException e) {
+          writeStatus(lOutput, "502 Bad Gateway");
+          return;
+        }
+      }
+      long lLength = lStream.getLength();
+      if (lStart >= lLength && lLength > 0) {
+        writeStatus(lOutput, "416 Range Not Satisfiable\r\nContent-Range: bytes */" + lLength);
+        return;
+      }
+      if (lEnd < 0 || lEnd > lLength) lEnd = lLength;
+
+      // Response headers
+      StringBuilder lHeaders = new StringBuilder();
+      lHeaders.append(null != lRange ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+      String lContentType = lStream.getContentType();
+      lHeaders.append("Content-Type: ").append(null == lContentType ? DEFAULT_CONTENT_TYPE : lContentType).append("\r\n");
+      lHeaders.append("Content-Length: ").append(lEnd - lStart).append("\r\n");
+      if (null != lRange) {
+        lHeaders.append("Content-Range: bytes ").append(lStart).append('-').append(lEnd - 1)
+          .append('/').append(lLength).append("\r\n");
+      }
+      lHeaders.append("Accept-Ranges: bytes\r\nConnection: close\r\n\r\n");
+      lOutput.write(lHeaders.toString().getBytes(ASCII));
+      if (isHead) return;
+
+      // Body, from the cache or from the origin
+      byte[] lBuffer = new byte[BUFFER_SIZE];
+      long lPosition = lStart;
+      while (lPosition < lEnd) {
+        long lCachedEnd = lStream.getCachedEnd(lPosition);
+        if (lCachedEnd > 0) {
+          int lCount = (int) Math.min(lBuffer.length, Math.min(lCachedEnd, lEnd) - lPosition);
+          lStream.read(lPosition, lBuffer, 0, lCount);
+          lOutput.write(lBuffer, 0, lCount);
+          mCacheBytes.addAndGet(lCount);
+          lPosition += lCount;
+          continue;
+        }
+        // Fetch the missing range, up to the next cached byte
+        long lMissingEnd = Math.min(lEnd, lStream.getNextCachedStart(lPosition));
+        if (null == lOrigin || lOrigin.getPosition() != lPosition) {
+          if (null != lOrigin) lOrigin.close();
+          lOrigin = Origin.open(lUrl, lPosition, lMissingEnd, lStream);
+        }
+        mActiveFetchCount.incrementAndGet();
+        try {
+          long lCount = lOrigin.copy(lMissingEnd, lOutput, lBuffer, null, mEstimator);
+          mOriginBytes.addAndGet(lCount);
+          lPosition += lCount;
+        } finally {
+          mActiveFetchCount.decrementAndGet();
+        }
+      }
+      lOutput.flush();
+    } catch (IOException e) {
+      // Player closed the connection or origin failure, the cached bytes are kept
+    } catch (RuntimeException e) {
+      // Last guard, a malformed request must not kill the process
+      mFailureCount.incrementAndGet();
+    } finally {
+      if (null != lOrigin) lOrigin.close();
+      if (null != lStream) {
+        try {
+          lStream.save();
+        } catch (IOException e) {
+          // Ranges are saved again by the next request
+        }
+        mCache.release(lStreamUrl);
+      }
+    }
+  }
+
+  /**
+   * Extract the remote URL of a proxy request path
+   * @param path String: The request path
+   * @return String: The remote URL or null
+   */
+  private static String urlOf(String path) {
+    String lValue = parameterOf(path, URL_PARAMETER);
+    if (!path.startsWith(PATH) || null == lValue) return null;
+    try {
+      String lUrl = URLDecoder.decode(lValue, "UTF-8");
+      // Only the streamed songs are fetched, never local files or other schemes
+      return isRemote(lUrl) ? lUrl : null;
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the value of a query parameter, as it is encoded in the path
+   * @param path String: The request path
+   * @param name String: Name of the parameter followed by '='
+   * @return String: The value or null if the parameter is missing
+   */
+  private static String parameterOf(String path, String name) {
+    int lQuery = path.indexOf('?');
+    if (lQuery < 0) return null;
+    for (String lParameter : path.substring(lQuery + 1).split("&")) {
+      if (lParameter.startsWith(name)) return lParameter.substring(name.length());
+    }
+    return null;
+  }
+
+  /**
+   * Check if a request path has been handed out by getProxyUrl
+   * @param path String: The request path
+   * @param url String: The remote URL of the path
+   * @return boolean: true if the path carries the signature of the URL
+   */
+  private boolean isSigned(String path, String url) {
+    String lSignature = parameterOf(path, SIGNATURE_PARAMETER);
+    return null != lSignature
+      && MessageDigest.isEqual(signatureOf(url).getBytes(ASCII), lSignature.getBytes(ASCII));
+  }
+
+  /**
+   * Sign a remote URL with the key of the process
+   * @param url String: The remote URL
+   * @return String: The signature in hexadecimal
+   */
+  private String signatureOf(String url) {
+    byte[] lDigest;
+    synchronized (mSigner) {
+      lDigest = mSigner.doFinal(url.getBytes(Charset.forName("UTF-8")));
+    }
+    StringBuilder lBuilder = new StringBuilder(lDigest.length * 2);
+    for (byte lByte : lDigest) {
+      lBuilder.append(String.format(Locale.US, "%02x", lByte));
+    }
+    return lBuilder.toString();
+  }
+
+  /**
+   * Check if a URL is served by an HTTP server
+   * @param url String: The URL, may be null
+   * @return boolean: true for the http and https schemes
+   */
+  static boolean isRemote(String url) {
+    return null != url
+      && (url.regionMatches(true, 0, "http://", 0, 7) || url.regionMatches(true, 0, "https://", 0, 8));
+  }
+
+  /**
+   * Read a header line
+   * @param input InputStream: The request
+   * @return String: The line without its end or null at the end of the stream
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  private static String readLine(InputStream input) throws IOException {
+    ByteArrayOutputStream lLine = new ByteArrayOutputStream(128);
+    int lByte;
+    while ((lByte = input.read()) >= 0 && '\n' != lByte) {
+      if ('\r' != lByte) lLine.write(lByte);
+    }
+    if (lByte < 0 && 0 == lLine.size()) return null;
+    return new String(lLine.toByteArray(), ASCII);
+  }
+
+  /**
+   * Write a response without body
+   * @param output OutputStream: The response
+   * @param status String: Status and optional headers
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  private static void writeStatus(OutputStream output, String status) throws IOException {
+    output.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(ASCII));
+    output.flush();
+  }
+
+  /**
+   * Download of a range from the origin server, written to the cache as it is read
+   */
+  private static final class Origin implements Closeable {
+    private final HttpURLConnection mConnection;
+    private final InputStream mInput;
+    private final CachedStream mStream;
+    // Position of the next byte to read
+    private long mPosition;
+
+    private Origin(HttpURLConnection connection, long position, CachedStream stream) throws IOException {
+      mConnection = connection;
+      mInput = connection.getInputStream();
+      mPosition = position;
+      mStream = stream;
+    }
+
+    /**
+     * Request a range to the origin server, the remote length is stored in the stream
+     * @param url String: The remote URL
+     * @param start long: First byte
+     * @param end long: Byte after the last byte, -1 for the end of the file
+     * @param stream CachedStream: Destination of the bytes
+     * @return Origin: The download, positioned at start
+     * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+     */
+    private static Origin open(String url, long start, long end, CachedStream stream) throws IOException {
+      URLConnection lUrlConnection = new URL(url).openConnection();
+      if (!(lUrlConnection instanceof HttpURLConnection))
+        throw new IOException("Not an HTTP URL: " + url);
+      HttpURLConnection lConnection = (HttpURLConnection) lUrlConnection;
+      lConnection.setConnectTimeout(TIMEOUT);
+      lConnection.setReadTimeout(TIMEOUT);
+      lConnection.setRequestProperty("Accept-Encoding", "identity");
+      lConnection.setRequestProperty("Range", "bytes=" + start + "-" + (end > 0 ? String.valueOf(end - 1) : ""));
+      int lCode = lConnection.getResponseCode();
+      long lLength;
+      long lPosition;
+      if (HttpURLConnection.HTTP_PARTIAL == lCode) {
+        Matcher lMatcher = CONTENT_RANGE.matcher(String.valueOf(lConnection.getHeaderField("Content-Range")));
+        if (!lMatcher.matches()) {
+          lConnection.disconnect();
+          throw new IOException("Invalid Content-Range from " + url);
+        }
+        try {
+          lPosition = Long.parseLong(lMatcher.group(1));
+          lLength = Long.parseLong(lMatcher.group(3));
+        } catch (NumberFormatException e) {
+          lConnection.disconnect();
+          throw new IOException("Invalid Content-Range from " + url);
+        }
+      } else if (HttpURLConnection.HTTP_OK == lCode) {
+        // Range ignored by the origin, whole file
+        lPosition = 0;
+        lLength = lConnection.getContentLength();
+      } else {
+        lConnection.disconnect();
+        throw new IOException("HTTP " + lCode + " from " + url);
+      }
+      if (lLength < 0 || lPosition > start) {
+        lConnection.disconnect();
+        throw new IOException("Unusable response from " + url);
+      }
+      stream.setRemoteInfo(lLength, lConnection.getContentType());
+
+      Origin lOrigin = new Origin(lConnection, lPosition, stream);
+      if (lPosition < start) {
+        // Leading bytes are cached instead of being dropped
+        try {
+          lOrigin.copy(start, null, new byte[BUFFER_SIZE], null, null);
+        } catch (IOException e) {
+          lOrigin.close();
+          throw e;
+        }
+      }
+      return lOrigin;
+    }
+
+    /**
+     * Download bytes to the cache and to the player
+     * @param end long: Byte after the last byte to download
+     * @param output OutputStream: The player connection, null to only fill the cache
+     * @param buffer byte[]: Copy buffer
+     * @param throttle Throttle: Pace of the download, may be null
+     * @param estimator ThroughputEstimator: Receiver of the download chunks, may be null
+     * @return long: Number of bytes downloaded
+     * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+     */
+    private long copy(long end, OutputStream output, byte[] buffer, Throttle throttle,
+                      ThroughputEstimator estimator) throws IOException {
+      long lStart = mPosition;
+      // Current chunk, only the time spent reading the network is measured
+      long lChunkBytes = 0;
+      long lChunkNanos = 0;
+      while (mPosition < end) {
+        long lReadStart = System.nanoTime();
+        int lCount = mInput.read(buffer, 0, (int) Math.min(buffer.length, end - mPosition));
+        if (lCount < 0) throw new IOException("Unexpected end of stream at " + mPosition);
+        if (null != estimator) {
+          lChunkNanos += System.nanoTime() - lReadStart;
+          lChunkBytes += lCount;
+          if (lChunkBytes >= SAMPLE_BYTES) {
+            estimator.addSample(lChunkBytes, lChunkNanos);
+            lChunkBytes = 0;
+            lChunkNanos = 0;
+          }
+        }
+        // Cached first, the bytes are kept if the player leaves
+        mStream.write(mPosition, buffer, 0, lCount);
+        if (null != output) output.write(buffer, 0, lCount);
+        mPosition += lCount;
+        if (null != throttle && !throttle.onBytes(lCount)) break;
+      }
+      return mPosition - lStart;
+    }
+
+    // Accessors / Getters
+    private long getPosition() { return mPosition; }
+
+    @Override
+    public void close() {
+      mConnection.disconnect();
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download the beginning of the upcoming tracks to the stream cache while the current
+ * one plays, so that a skip starts from the disk.
+ * Downloads run in low priority threads, within a bandwidth budget, and pause while the
+ * player itself is waiting for bytes of the origin server.
+ */
+@SuppressWarnings("unused")
+public final class PrefetchScheduler implements CachingProxy.OnStreamRequestListener, Closeable {
+  // Default budgets
+  public static final int DEFAULT_TRACK_COUNT = 2;
+  public static final long DEFAULT_PREFETCH_BYTES = 256 * 1024;
+  public static final long DEFAULT_BANDWIDTH = 64 * 1024;
+  public static final int DEFAULT_CONCURRENCY = 1;
+  // Wait while the player downloads
+  private static final long PLAYER_BACKOFF = 200;
+
+  private final CachingProxy mProxy;
+  private final int mTrackCount;
+  private final long mPrefetchBytes;
+  // Bytes per second shared by all the downloads, 0 for no limit
+  private final long mBandwidth;
+  private final ExecutorService mExecutor;
+
+  // Current schedule, a new schedule cancels the previous one
+  private final AtomicInteger mGeneration = new AtomicInteger();
+  private final List<Future<?>> mFutures = new ArrayList<>();
+  // Prefetched urls not played yet
+  private final Set<String> mPrefetched = new HashSet<>();
+
+  // Bandwidth budget, start of the current second and bytes downloaded since
+  private long mWindowStart = 0;
+  private long mWindowBytes = 0;
+
+  // Metrics
+  private final AtomicLong mPrefetchedBytes = new AtomicLong();
+  private final AtomicInteger mCancelCount = new AtomicInteger();
+  private final AtomicInteger mHitCount  = new AtomicInteger();
+  private final AtomicInteger mMissCount = new AtomicInteger();
+
+  /**
+   * Constructor with the default budgets
+   * @param proxy CachingProxy: Proxy of the player, its cache receives the bytes
+   */
+  public PrefetchScheduler(CachingProxy proxy) {
+    this(proxy, DEFAULT_TRACK_COUNT, DEFAULT_PREFETCH_BYTES, DEFAULT_BANDWIDTH, DEFAULT_CONCURRENCY);
+  }
+
+  /**
+   * Constructor
+   * @param proxy CachingProxy: Proxy of the player, its cache receives the bytes
+   * @param trackCount int: Number of upcoming tracks to prefetch
+   * @param prefetchBytes long: Bytes to prefetch at the beginning of each track
+   * @param bandwidth long: Bytes per second for all the downloads, 0 for no limit
+   * @param concurrency int: Maximum number of simultaneous downloads
+   */
+  public PrefetchScheduler(CachingProxy proxy, int trackCount, long prefetchBytes,
+                           long bandwidth, int concurrency) {
+    mProxy = proxy;
+    mTrackCount = trackCount;
+    mPrefetchBytes = prefetchBytes;
+    mBandwidth = bandwidth;
+    final AtomicInteger lThreadCount = new AtomicInteger();
+    mExecutor = Executors.newFixedThreadPool(concurrency, (Runnable r) -> {
+      Thread lThread = new Thread(r, "Prefetch-" + lThreadCount.incrementAndGet());
+      lThread.setDaemon(true);
+      lThread.setPriority(Thread.MIN_PRIORITY);
+      return lThread;
+    });
+    mProxy.setOnStreamRequestListener(this);
+  }
+
+  /**
+   * Number of bytes of a track duration
+   * @param durationMs long: Duration to prefetch in ms
+   * @param bitRate int: Bit rate of the tracks in bit/s
+   * @return long: The prefetch size in bytes
+   */
+  public static long bytesFor(long durationMs, int bitRate) {
+    return durationMs * bitRate / 8000;
+  }
+
+  /**
+   * Replace the schedule by the upcoming tracks of the queue, the running prefetches
+   * are cancelled. Only http and https tracks are prefetched.
+   * @param urls List: The tracks which follow the current one, in playback order
+   */
+  public synchronized void schedule(List<String> urls) {
+    cancel();
+    final int lGeneration = mGeneration.get();
+    int lCount = 0;
+    for (int i = 0; i < urls.size() && lCount < mTrackCount; i++) {
+      final String lUrl = urls.get(i);
+      if (!lUrl.startsWith("http://") && !lUrl.startsWith("https://")) continue;
+      lCount++;
+      mFutures.add(mExecutor.submit(() -> prefetch(lUrl, lGeneration)));
+    }
+  }
+
+  /**
+   * Cancel the running and pending prefetches
+   */
+  public synchronized void cancel() {
+    mGeneration.incrementAndGet();
+    for (Future<?> lFuture : mFutures) {
+      if (!lFuture.isDone()) {
+        lFuture.cancel(false);
+        mCancelCount.incrementAndGet();
+      }
+    }
+    mFutures.clear();
+  }
+
+  @Override
+  public void close() {
+    cancel();
+    mExecutor.shutdownNow();
+    mProxy.setOnStreamRequestListener(null);
+  }
+
+  /**
+   * Called by the proxy for each player request, the first request of a prefetched
+   * track is a hit if its beginning is in the cache
+   * @param url String: The remote URL
+   * @param position long: First requested byte
+   * @param stream CachedStream: The cached stream
+   */
+  @Override
+  public void onStreamRequest(String url, long position, CachedStream stream) {
+    if (0 != position) return;
+    synchronized (this) {
+      if (!mPrefetched.remove(url)) return;
+    }
+    long lTarget = Math.min(mPrefetchBytes, Math.max(0, stream.getLength()));
+    boolean isHit = stream.getLength() >= 0 && stream.getCachedEnd(0) >= lTarget;
+    (isHit ? mHitCount : mMissCount).incrementAndGet();
+  }
+
+  // Accessors / Getters
+  public long getPrefetchedBytes() { return mPrefetchedBytes.get(); }
+  public int getCancelCount()      { return mCancelCount.get(); }
+  public int getHitCount()         { return mHitCount.get(); }
+  public int getMissCount()        { return mMissCount.get(); }
+
+  /**
+   * Returns the ratio of the prefetched tracks which started from the cache
+   * @return float: Hits / played prefetched tracks, 0 if none has been played
+   */
+  public float getHitRatio() {
+    int lHits = mHitCount.get();
+    int lTotal = lHits + mMissCount.get();
+    return (0 == lTotal) ? 0f : (float) lHits / lTotal;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+      "PrefetchScheduler[hits=%d, misses=%d, ratio=%.2f, bytes=%d, cancelled=%d]",
+      mHitCount.get(), mMissCount.get(), getHitRatio(), mPrefetchedBytes.get(), mCancelCount.get());
+  }
+
+  // --------------------------------------------------------------------------
+  // Prefetch threads
+  // --------------------------------------------------------------------------
+
+  /**
+   * Download the beginning of a track unless the schedule has changed
+   * @param url String: The remote URL
+   * @param generation int: Schedule of the prefetch
+   */
+  private void prefetch(String url, int generation) {
+    if (generation != mGeneration.get()) return;
+    synchronized (this) {
+      // Counted as a miss if played before the end of the prefetch
+      mPrefetched.add(url);
+    }
+    try {
+      mPrefetchedBytes.addAndGet(mProxy.fill(url, mPrefetchBytes, (int count) -> pace(count, generation)));
+    } catch (IOException e) {
+      // Track downloaded by the player when played
+    }
+  }
+
+  /**
+   * Keep the downloads within the budget
+   * @param count int: Bytes just downloaded
+   * @param generation int: Schedule of the download
+   * @return boolean: false if the download must stop
+   */
+  private boolean pace(int count, int generation) {
+    try {
+      // The player bytes come first
+      while (mProxy.isPlayerFetching()) {
+        if (generation != mGeneration.get()) return false;
+        Thread.sleep(PLAYER_BACKOFF);
+      }
+      long lDelay = reserve(count);
+      if (lDelay > 0) Thread.sleep(lDelay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return generation == mGeneration.get();
+  }
+
+  /**
+   * Account downloaded bytes in the bandwidth budget
+   * @param count int: Bytes just downloaded
+   * @return long: Time to wait in ms before the next read
+   */
+  private synchronized long reserve(int count) {
+    if (mBandwidth <= 0) return 0;
+    long lNow = System.nanoTime() / 1000000;
+    if (lNow - mWindowStart >= 1000) {
+      mWindowStart = lNow;
+      mWindowBytes = 0;
+    }
+    mWindowBytes += count;
+    if (mWindowBytes < mBandwidth) return 0;
+    // Budget of the current second spent
+    return mWindowStart + 1000 * (mWindowBytes / mBandwidth) - lNow;
+  }
+}
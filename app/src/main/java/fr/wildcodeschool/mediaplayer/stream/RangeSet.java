@@ -0,0 +1,136 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sparse set of byte ranges, overlapping and adjacent ranges are merged.
+ * Ranges are half-open: [start, end).
+ * Not thread safe, the owner synchronizes the accesses.
+ */
+@SuppressWarnings("unused")
+public final class RangeSet {
+  // End of each range by start
+  private final TreeMap<Long, Long> mRanges = new TreeMap<>();
+
+  /**
+   * Add a range
+   * @param start long: First byte of the range
+   * @param end long: Byte after the last byte of the range
+   */
+  public void add(long start, long end) {
+    if (end <= start) return;
+    long lStart = start;
+    long lEnd = end;
+    // Merge with the range which starts before
+    Map.Entry<Long, Long> lBefore = mRanges.floorEntry(start);
+    if (null != lBefore && lBefore.getValue() >= start) {
+      lStart = lBefore.getKey();
+      lEnd = Math.max(lEnd, lBefore.getValue());
+    }
+    // Merge with the ranges which start inside
+    Map.Entry<Long, Long> lAfter = mRanges.ceilingEntry(lStart);
+    while (null != lAfter && lAfter.getKey() <= lEnd) {
+      lEnd = Math.max(lEnd, lAfter.getValue());
+      mRanges.remove(lAfter.getKey());
+      lAfter = mRanges.ceilingEntry(lStart);
+    }
+    mRanges.put(lStart, lEnd);
+  }
+
+  /**
+   * Remove all the ranges
+   */
+  public void clear() {
+    mRanges.clear();
+  }
+
+  /**
+   * Returns the end of the range which contains a byte
+   * @param position long: The byte position
+   * @return long: The end of the range or -1 if the byte is missing
+   */
+  public long getRangeEnd(long position) {
+    Map.Entry<Long, Long> lRange = mRanges.floorEntry(position);
+    return (null != lRange && lRange.getValue() > position) ? lRange.getValue() : -1;
+  }
+
+  /**
+   * Returns the start of the first range after a byte
+   * @param position long: The byte position
+   * @return long: The start of the next range or Long.MAX_VALUE
+   */
+  public long getNextRangeStart(long position) {
+    Long lStart = mRanges.ceilingKey(position);
+    return null == lStart ? Long.MAX_VALUE : lStart;
+  }
+
+  /**
+   * Check if all the bytes of a range are present
+   * @param start long: First byte of the range
+   * @param end long: Byte after the last byte of the range
+   * @return boolean: true if the whole range is present
+   */
+  public boolean contains(long start, long end) {
+    return end <= start || getRangeEnd(start) >= end;
+  }
+
+  /**
+   * Returns the number of bytes present
+   * @return long: Sum of the range lengths
+   */
+  public long getByteCount() {
+    long lCount = 0;
+    for (Map.Entry<Long, Long> lRange : mRanges.entrySet()) {
+      lCount += lRange.getValue() - lRange.getKey();
+    }
+    return lCount;
+  }
+
+  /**
+   * Returns the number of disjoint ranges
+   * @return int: Number of ranges
+   */
+  public int size() {
+    return mRanges.size();
+  }
+
+  /**
+   * Serialize the ranges
+   * @param output DataOutput: Destination of the ranges
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeInt(mRanges.size());
+    for (Map.Entry<Long, Long> lRange : mRanges.entrySet()) {
+      output.writeLong(lRange.getKey());
+      output.writeLong(lRange.getValue());
+    }
+  }
+
+  /**
+   * Read ranges serialized by writeTo and add them to the set
+   * @param input DataInput: Source of the ranges
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public void readFrom(DataInput input) throws IOException {
+    int lCount = input.readInt();
+    if (lCount < 0) throw new IOException("Invalid range count " + lCount);
+    for (int i = 0; i < lCount; i++) {
+      add(input.readLong(), input.readLong());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder lBuilder = new StringBuilder("RangeSet[");
+    for (Map.Entry<Long, Long> lRange : mRanges.entrySet()) {
+      if (lBuilder.length() > 9) lBuilder.append(", ");
+      lBuilder.append(lRange.getKey()).append('-').append(lRange.getValue());
+    }
+    return lBuilder.append(']').toString();
+  }
+}
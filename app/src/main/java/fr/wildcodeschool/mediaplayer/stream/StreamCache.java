@@ -0,0 +1,223 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Directory of the cached streams, one data file and one ranges file per URL.
+ * Streams are opened once and shared by all the proxy connections. The least recently
+ * used streams are deleted when the data files exceed the budget, a stream is never
+ * deleted while a connection uses it.
+ */
+@SuppressWarnings("unused")
+public final class StreamCache implements Closeable {
+  // File extensions
+  private static final String DATA_EXTENSION = ".data";
+  private static final String META_EXTENSION = ".ranges";
+
+  private final File mDirectory;
+  // Maximum size of the data files in bytes
+  private final long mMaxSize;
+  // Streams by key in access order, the eldest entry is the first one
+  private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private long mSize = 0;
+  private boolean isOpened = false;
+
+  /**
+   * Stream of the directory, opened while it is requested
+   */
+  private static final class Entry {
+    // Size of the data file in bytes
+    private long mSize;
+    // Opened stream, null until requested
+    private CachedStream mStream = null;
+    // Connections using the stream
+    private int mUserCount = 0;
+
+    private Entry(long size) {
+      mSize = size;
+    }
+  }
+
+  /**
+   * Constructor
+   * @param directory File: The cache directory, created if needed
+   * @param maxSize long: Maximum size of the data files in bytes
+   */
+  public StreamCache(File directory, long maxSize) {
+    mDirectory = directory;
+    mMaxSize   = maxSize;
+  }
+
+  /**
+   * Returns the cached stream of a URL, created empty if the URL has never been requested.
+   * The stream is kept until it is released.
+   * @param url String: The remote URL
+   * @return CachedStream: The cached stream
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  public synchronized CachedStream get(String url) throws IOException {
+    open();
+    String lKey = keyOf(url);
+    Entry lEntry = mEntries.get(lKey);
+    if (null == lEntry) {
+      lEntry = new Entry(0);
+      mEntries.put(lKey, lEntry);
+    }
+    if (null == lEntry.mStream) {
+      lEntry.mStream = new CachedStream(fileOf(lKey, DATA_EXTENSION), fileOf(lKey, META_EXTENSION));
+    }
+    lEntry.mUserCount++;
+    return lEntry.mStream;
+  }
+
+  /**
+   * Give back a stream returned by get. Its new size is accounted and the least
+   * recently used streams are deleted if the budget is exceeded.
+   * @param url String: The remote URL
+   */
+  public synchronized void release(String url) {
+    String lKey = keyOf(url);
+    Entry lEntry = mEntries.get(lKey);
+    if (null == lEntry || 0 == lEntry.mUserCount) return;
+    lEntry.mUserCount--;
+    File lFile = fileOf(lKey, DATA_EXTENSION);
+    // Persist the access order for the next launches
+    //noinspection ResultOfMethodCallIgnored
+    lFile.setLastModified(System.currentTimeMillis());
+    mSize += lFile.length() - lEntry.mSize;
+    lEntry.mSize = lFile.length();
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Returns the size of the data files
+   * @return long: Size in bytes
+   */
+  public synchronized long getSize() {
+    return mSize;
+  }
+
+  /**
+   * Close all the opened streams, their ranges are saved
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    IOException lError = null;
+    for (Entry lEntry : mEntries.values()) {
+      if (null == lEntry.mStream) continue;
+      try {
+        lEntry.mStream.close();
+      } catch (IOException e) {
+        lError = e;
+      }
+    }
+    mEntries.clear();
+    mSize = 0;
+    isOpened = false;
+    if (null != lError) throw lError;
+  }
+
+  /**
+   * Build the file name of a URL
+   * @param url String: The remote URL
+   * @return String: The file name, without extension
+   */
+  static String keyOf(String url) {
+    try {
+      byte[] lDigest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(Charset.forName("UTF-8")));
+      StringBuilder lBuilder = new StringBuilder(lDigest.length * 2);
+      for (byte lByte : lDigest) {
+        lBuilder.append(String.format(Locale.US, "%02x", lByte));
+      }
+      return lBuilder.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-1 is always available on Android
+      return Integer.toHexString(url.hashCode());
+    }
+  }
+
+  // --------------------------------------------------------------------------
+  // Helpers
+  // --------------------------------------------------------------------------
+
+  /**
+   * Build the in-memory index from the directory content.
+   * Streams are ordered by last access date, files without data are deleted.
+   * @throws IOException If the directory can't be created
+   */
+  private void open() throws IOException {
+    if (isOpened) return;
+    if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+      throw new IOException("Unable to create " + mDirectory);
+    isOpened = true;
+
+    File[] lFiles = mDirectory.listFiles();
+    if (null == lFiles) return;
+    Arrays.sort(lFiles, (File a, File b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+    for (File lFile : lFiles) {
+      String lName = lFile.getName();
+      if (lName.endsWith(DATA_EXTENSION)) {
+        mEntries.put(lName.substring(0, lName.length() - DATA_EXTENSION.length()), new Entry(lFile.length()));
+        mSize += lFile.length();
+      }
+    }
+    for (File lFile : lFiles) {
+      String lName = lFile.getName();
+      boolean isRanges = lName.endsWith(META_EXTENSION)
+        && mEntries.containsKey(lName.substring(0, lName.length() - META_EXTENSION.length()));
+      if (!isRanges && !lName.endsWith(DATA_EXTENSION)) {
+        // Interrupted save, ranges without data or unknown file
+        //noinspection ResultOfMethodCallIgnored
+        lFile.delete();
+      }
+    }
+    trimToSize(mMaxSize);
+  }
+
+  /**
+   * Delete the least recently used streams which are not in use until the size fits in the budget
+   * @param maxSize long: Budget in bytes
+   */
+  private void trimToSize(long maxSize) {
+    Iterator<Map.Entry<String, Entry>> lIterator = mEntries.entrySet().iterator();
+    while (mSize > maxSize && lIterator.hasNext()) {
+      Map.Entry<String, Entry> lEldest = lIterator.next();
+      Entry lEntry = lEldest.getValue();
+      if (lEntry.mUserCount > 0) continue;
+      if (null != lEntry.mStream) {
+        try {
+          lEntry.mStream.close();
+        } catch (IOException e) {
+          // Deleted anyway
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      fileOf(lEldest.getKey(), DATA_EXTENSION).delete();
+      //noinspection ResultOfMethodCallIgnored
+      fileOf(lEldest.getKey(), META_EXTENSION).delete();
+      mSize -= lEntry.mSize;
+      lIterator.remove();
+    }
+  }
+
+  /**
+   * Returns the file related to the key
+   * @param key String: The key built by keyOf
+   * @param extension String: The file extension
+   * @return File: The file in the cache directory
+   */
+  private File fileOf(String key, String extension) {
+    return new File(mDirectory, key + extension);
+  }
+}
@@ -0,0 +1,108 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.util.Locale;
+
+/**
+ * Network throughput measured on the downloaded chunks.
+ * Two exponentially weighted moving averages are kept, weighted by the chunk durations:
+ * the fast one reacts to drops, the slow one ignores short bursts. The estimate is the
+ * lowest of both, so that the bit rate goes down quickly and up slowly.
+ */
+@SuppressWarnings("unused")
+public final class ThroughputEstimator {
+  // Half lives of the averages in ns
+  public static final long DEFAULT_FAST_HALF_LIFE = 2000000000L;
+  public static final long DEFAULT_SLOW_HALF_LIFE = 8000000000L;
+  // Smaller chunks mostly measure the latency
+  public static final long MIN_SAMPLE_BYTES = 16 * 1024;
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final Average mFast;
+  private final Average mSlow;
+  private int mSampleCount = 0;
+
+  /**
+   * Constructor with the default half lives
+   */
+  public ThroughputEstimator() {
+    this(DEFAULT_FAST_HALF_LIFE, DEFAULT_SLOW_HALF_LIFE);
+  }
+
+  /**
+   * Constructor
+   * @param fastHalfLife long: Half life of the fast average in ns
+   * @param slowHalfLife long: Half life of the slow average in ns
+   */
+  public ThroughputEstimator(long fastHalfLife, long slowHalfLife) {
+    mFast = new Average(fastHalfLife);
+    mSlow = new Average(slowHalfLife);
+  }
+
+  /**
+   * Add a downloaded chunk to the estimate
+   * @param bytes long: Size of the chunk
+   * @param nanos long: Download duration of the chunk in ns
+   */
+  public synchronized void addSample(long bytes, long nanos) {
+    if (bytes < MIN_SAMPLE_BYTES || nanos <= 0) return;
+    double lBitsPerSecond = bytes * 8 * NANOS_PER_SECOND / nanos;
+    mFast.add(lBitsPerSecond, nanos);
+    mSlow.add(lBitsPerSecond, nanos);
+    mSampleCount++;
+  }
+
+  /**
+   * Returns the estimated throughput
+   * @return long: The throughput in bit/s or -1 if nothing has been measured
+   */
+  public synchronized long getEstimate() {
+    if (0 == mSampleCount) return -1;
+    return (long) Math.min(mFast.get(), mSlow.get());
+  }
+
+  // Accessors / Getters
+  public synchronized int getSampleCount() { return mSampleCount; }
+
+  /**
+   * Forget the measures, after a network change for example
+   */
+  public synchronized void reset() {
+    mFast.reset();
+    mSlow.reset();
+    mSampleCount = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(Locale.US, "ThroughputEstimator[%d kbit/s, samples=%d]",
+      getEstimate() / 1000, mSampleCount);
+  }
+
+  /**
+   * Exponentially weighted moving average, corrected for its zero initial value
+   */
+  private static final class Average {
+    private final double mHalfLife;
+    private double mValue = 0;
+    private double mTotalWeight = 0;
+
+    private Average(long halfLife) {
+      mHalfLife = halfLife;
+    }
+
+    private void add(double value, long weight) {
+      double lAlpha = Math.pow(0.5, weight / mHalfLife);
+      mValue = value * (1 - lAlpha) + mValue * lAlpha;
+      mTotalWeight += weight;
+    }
+
+    private double get() {
+      return mValue / (1 - Math.pow(0.5, mTotalWeight / mHalfLife));
+    }
+
+    private void reset() {
+      mValue = 0;
+      mTotalWeight = 0;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Encodings of the same song at several bit rates, sorted by increasing bit rate.
+ */
+@SuppressWarnings("unused")
+public final class VariantSet {
+  private final List<Variant> mVariants;
+
+  /**
+   * One encoding of a song
+   */
+  public static final class Variant {
+    private final String mUrl;
+    // Bit rate in bit/s
+    private final int mBitRate;
+
+    public Variant(String url, int bitRate) {
+      mUrl     = url;
+      mBitRate = bitRate;
+    }
+
+    // Accessors / Getters
+    public String getUrl()  { return mUrl; }
+    public int getBitRate() { return mBitRate; }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%d kbit/s %s", mBitRate / 1000, mUrl);
+    }
+  }
+
+  /**
+   * Constructor
+   * @param variants List: The encodings of the song, at least one
+   */
+  public VariantSet(List<Variant> variants) {
+    if (variants.isEmpty()) throw new IllegalArgumentException("No variant");
+    List<Variant> lVariants = new ArrayList<>(variants);
+    Collections.sort(lVariants, (Variant v1, Variant v2) -> v1.mBitRate - v2.mBitRate);
+    mVariants = Collections.unmodifiableList(lVariants);
+  }
+
+  /**
+   * Build a variant set from its text form
+   * @param variants String[]: One "bitrate url" entry per variant, bit rate in bit/s
+   * @return VariantSet: The variant set
+   */
+  public static VariantSet parse(String... variants) {
+    List<Variant> lVariants = new ArrayList<>(variants.length);
+    for (String lVariant : variants) {
+      String lTrimmed = lVariant.trim();
+      int lSeparator = lTrimmed.indexOf(' ');
+      if (lSeparator < 0) throw new IllegalArgumentException("Invalid variant " + lVariant);
+      lVariants.add(new Variant(lTrimmed.substring(lSeparator + 1).trim(),
+        Integer.parseInt(lTrimmed.substring(0, lSeparator))));
+    }
+    return new VariantSet(lVariants);
+  }
+
+  // Accessors / Getters
+  public int size()                  { return mVariants.size(); }
+  public Variant get(int index)      { return mVariants.get(index); }
+  public List<Variant> getVariants() { return mVariants; }
+
+  /**
+   * Returns the position of a variant
+   * @param variant Variant: A variant of the set
+   * @return int: The position in bit rate order or -1
+   */
+  public int indexOf(Variant variant) {
+    return mVariants.indexOf(variant);
+  }
+
+  @Override
+  public String toString() {
+    return "VariantSet" + mVariants;
+  }
+}
@@ -0,0 +1,47 @@
+package fr.wildcodeschool.mediaplayer.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Stream over a buffer, the bytes are not copied.
+ * The buffer is duplicated, its position is not changed by the reads.
+ */
+@SuppressWarnings("unused")
+public final class ByteBufferInputStream extends InputStream {
+  private final ByteBuffer mBuffer;
+
+  /**
+   * Constructor
+   * @param buffer ByteBuffer: The bytes between its position and its limit are read
+   */
+  public ByteBufferInputStream(ByteBuffer buffer) {
+    mBuffer = buffer.duplicate();
+  }
+
+  @Override
+  public int read() {
+    return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) {
+    if (0 == length) return 0;
+    if (!mBuffer.hasRemaining()) return -1;
+    int lCount = Math.min(length, mBuffer.remaining());
+    mBuffer.get(buffer, offset, lCount);
+    return lCount;
+  }
+
+  @Override
+  public long skip(long count) {
+    int lCount = (int) Math.max(0, Math.min(count, mBuffer.remaining()));
+    mBuffer.position(mBuffer.position() + lCount);
+    return lCount;
+  }
+
+  @Override
+  public int available() {
+    return mBuffer.remaining();
+  }
+}
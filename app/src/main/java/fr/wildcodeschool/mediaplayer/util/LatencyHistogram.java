@@ -0,0 +1,85 @@
+package fr.wildcodeschool.mediaplayer.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of call durations, in power of two buckets of nanoseconds.
+ * Recording is lock free and may happen from any thread.
+ */
+@SuppressWarnings("unused")
+public final class LatencyHistogram {
+  // Bucket i counts the durations in [2^(i-1), 2^i[ ns, bucket 0 counts 0 ns
+  private static final int BUCKET_COUNT = 40;
+
+  private final String mName;
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mTotal = new AtomicLong();
+
+  /**
+   * Constructor
+   * @param name String: Name of the measured call in the logs
+   */
+  public LatencyHistogram(String name) {
+    mName = name;
+  }
+
+  /**
+   * Record a call duration
+   * @param nanos long: Duration of the call in ns
+   */
+  public void record(long nanos) {
+    long lNanos = Math.max(0, nanos);
+    int lBucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(lNanos));
+    mBuckets.incrementAndGet(lBucket);
+    mCount.incrementAndGet();
+    mTotal.addAndGet(lNanos);
+  }
+
+  // Accessors / Getters
+  public String getName() { return mName; }
+  public long getCount()  { return mCount.get(); }
+
+  /**
+   * Returns the mean duration
+   * @return long: Mean duration in ns, 0 without record
+   */
+  public long getMean() {
+    long lCount = mCount.get();
+    return (0 == lCount) ? 0 : mTotal.get() / lCount;
+  }
+
+  /**
+   * Returns an upper bound of a percentile, the precision is a factor 2
+   * @param percent int: Percentile between 0 and 100
+   * @return long: Upper bound of the bucket of the percentile in ns, 0 without record
+   */
+  public long getPercentile(int percent) {
+    long lCount = mCount.get();
+    if (0 == lCount) return 0;
+    long lRank = Math.max(1, (lCount * percent + 99) / 100);
+    long lSeen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      lSeen += mBuckets.get(i);
+      if (lSeen >= lRank) return (0 == i) ? 0 : (1L << i) - 1;
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Forget the recorded durations
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) mBuckets.set(i, 0);
+    mCount.set(0);
+    mTotal.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "%s[count=%d, mean=%.1f us, p50<=%.1f us, p99<=%.1f us]",
+      mName, mCount.get(), getMean() / 1000f, getPercentile(50) / 1000f, getPercentile(99) / 1000f);
+  }
+}
@@ -0,0 +1,85 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static fr.wildcodeschool.mediaplayer.catalog.BinaryCatalog.*;
+import static org.junit.Assert.*;
+
+public class BinaryCatalogTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void writeThenOpen_returnsSameFields() throws IOException {
+    CatalogWriter lWriter = new CatalogWriter();
+    lWriter.addSong("Green Day", "Revolution Radio", "songs/1.mp3", "covers/1.jpg");
+    lWriter.addSong("Green Day", "Bang Bang", "songs/2.mp3", "");
+    lWriter.addSong("Björk", "Jóga", "songs/3.mp3", "covers/3.jpg");
+
+    File lFile = mFolder.newFile("data.catalog");
+    lWriter.write(lFile, 3, new CatalogFingerprint(1234L, 5678L, 42L));
+
+    BinaryCatalog lCatalog = BinaryCatalog.open(lFile);
+    assertEquals(3, lCatalog.getSongCount());
+    assertEquals(3, lCatalog.getNumberOfSongs());
+    assertEquals(1234L, lCatalog.getSourceSize());
+    assertEquals(5678L, lCatalog.getSourceDate());
+    assertTrue(lCatalog.isCompiledFrom(new CatalogFingerprint(1234L, 5678L, 42L)));
+    assertFalse(lCatalog.isCompiledFrom(new CatalogFingerprint(1234L, 5678L, 43L)));
+    assertEquals("Green Day", lCatalog.getField(1, FIELD_ARTIST));
+    assertEquals("Bang Bang", lCatalog.getField(1, FIELD_TITLE));
+    assertEquals("", lCatalog.getField(1, FIELD_COVER));
+    assertEquals("Björk", lCatalog.getField(2, FIELD_ARTIST));
+    assertEquals("Jóga", lCatalog.getField(2, FIELD_TITLE));
+    assertEquals("covers/3.jpg", lCatalog.getField(2, FIELD_COVER));
+  }
+
+  @Test(expected = IOException.class)
+  public void open_rejectsTruncatedFile() throws IOException {
+    CatalogWriter lWriter = new CatalogWriter();
+    lWriter.addSong("Artist", "Title", "path", "cover");
+    File lFile = mFolder.newFile("data.catalog");
+    lWriter.write(lFile, 1, new CatalogFingerprint(0L, 0L, 0L));
+
+    try (RandomAccessFile lRaw = new RandomAccessFile(lFile, "rw")) {
+      lRaw.setLength(HEADER_SIZE + 4);
+    }
+    BinaryCatalog.open(lFile);
+  }
+
+  @Test(expected = IOException.class)
+  public void open_rejectsOverflowingSongCount() throws IOException {
+    // 2^27 songs * 4 fields * 8 bytes wraps to 0 in int
+    BinaryCatalog.open(corrupt(8, 1 << 27));
+  }
+
+  @Test(expected = IOException.class)
+  public void open_rejectsFieldOutOfThePool() throws IOException {
+    BinaryCatalog.open(corrupt(HEADER_SIZE + FIELD_TITLE * ENTRY_SIZE + 4, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Compile a catalog of one song and overwrite an int of the file
+   * @param position int: Position of the int in the file
+   * @param value int: The corrupt value
+   * @return File: The compiled catalog
+   */
+  private File corrupt(int position, int value) throws IOException {
+    CatalogWriter lWriter = new CatalogWriter();
+    lWriter.addSong("Artist", "Title", "path", "cover");
+    File lFile = mFolder.newFile("data.catalog");
+    lWriter.write(lFile, 1, new CatalogFingerprint(0L, 0L, 0L));
+
+    try (RandomAccessFile lRaw = new RandomAccessFile(lFile, "rw")) {
+      lRaw.seek(position);
+      lRaw.writeInt(value);
+    }
+    return lFile;
+  }
+}
@@ -0,0 +1,69 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CatalogFingerprintTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void of_isStableForUnchangedFile() throws IOException {
+    File lFile = createFile(3 * CatalogFingerprint.BLOCK_SIZE);
+    assertEquals(CatalogFingerprint.of(lFile), CatalogFingerprint.of(lFile));
+  }
+
+  @Test
+  public void of_detectsChangeInLastBlock() throws IOException {
+    File lFile = createFile(3 * CatalogFingerprint.BLOCK_SIZE);
+    long lDate = lFile.lastModified();
+    CatalogFingerprint lBefore = CatalogFingerprint.of(lFile);
+
+    try (RandomAccessFile lRaw = new RandomAccessFile(lFile, "rw")) {
+      lRaw.seek(lRaw.length() - 1);
+      lRaw.write('x');
+    }
+    // Same size and date, only the content differs
+    assertTrue(lFile.setLastModified(lDate));
+    assertNotEquals(lBefore, CatalogFingerprint.of(lFile));
+  }
+
+  @Test
+  public void of_handlesSmallFile() throws IOException {
+    File lFile = createFile(10);
+    assertEquals(10, CatalogFingerprint.of(lFile).getSize());
+  }
+
+  @Test
+  public void of_bufferMatchesFile() throws IOException {
+    File lFile = createFile(3 * CatalogFingerprint.BLOCK_SIZE + 7);
+    // Catalog in the middle of a larger buffer, like a slice of the OBB archive
+    byte[] lContent = Files.readAllBytes(lFile.toPath());
+    ByteBuffer lBuffer = ByteBuffer.allocate(lContent.length + 20);
+    lBuffer.position(10);
+    lBuffer.put(lContent);
+    lBuffer.position(10).limit(10 + lContent.length);
+
+    assertEquals(CatalogFingerprint.of(lFile), CatalogFingerprint.of(lBuffer, lFile.lastModified()));
+    assertEquals(10, lBuffer.position());
+  }
+
+  private File createFile(int size) throws IOException {
+    File lFile = mFolder.newFile("data.json");
+    try (RandomAccessFile lRaw = new RandomAccessFile(lFile, "rw")) {
+      byte[] lContent = new byte[size];
+      for (int i = 0; i < size; i++) lContent[i] = (byte) ('a' + i % 26);
+      lRaw.write(lContent);
+    }
+    return lFile;
+  }
+}
@@ -0,0 +1,53 @@
+package fr.wildcodeschool.mediaplayer.catalog;
+
+import org.junit.Test;
+
+import static fr.wildcodeschool.mediaplayer.catalog.Catalog.*;
+import static org.junit.Assert.*;
+
+public class CatalogStoreTest {
+  @Test
+  public void addSong_sharesRepeatedStrings() {
+    CatalogStore lStore = new CatalogStore();
+    lStore.addSong("Green Day", "Revolution Radio", "songs/1.mp3", "covers/gd.jpg");
+    lStore.addSong(new String("Green Day"), "Bang Bang", "songs/2.mp3", new String("covers/gd.jpg"));
+    lStore.trimToSize();
+
+    assertEquals(2, lStore.getSongCount());
+    // "", artist, 2 titles, 2 paths, cover
+    assertEquals(7, lStore.getStringCount());
+    assertSame(lStore.getField(0, FIELD_ARTIST), lStore.getField(1, FIELD_ARTIST));
+    assertSame(lStore.getField(0, FIELD_COVER), lStore.getField(1, FIELD_COVER));
+    assertEquals("Bang Bang", lStore.getField(1, FIELD_TITLE));
+  }
+
+  @Test
+  public void trimToSize_keepsTheSongsOfGrownColumns() {
+    CatalogStore lStore = new CatalogStore();
+    for (int i = 0; i < 200; i++) {
+      lStore.addSong("Artist " + (i / 20), "Title " + i, "songs/" + i + ".mp3", "covers/" + (i / 10) + ".jpg");
+    }
+    lStore.trimToSize();
+
+    assertEquals(200, lStore.getSongCount());
+    // "", 10 artists, 200 titles, 200 paths, 20 covers
+    assertEquals(431, lStore.getStringCount());
+    assertEquals("Artist 9", lStore.getField(199, FIELD_ARTIST));
+    assertEquals("Title 150", lStore.getField(150, FIELD_TITLE));
+    assertEquals("songs/64.mp3", lStore.getField(64, FIELD_PATH));
+    assertSame(lStore.getField(30, FIELD_COVER), lStore.getField(39, FIELD_COVER));
+  }
+
+  @Test
+  public void addSong_storesNullAsEmpty() {
+    CatalogStore lStore = new CatalogStore();
+    lStore.addSong("Artist", "Title", null, null);
+    assertEquals("", lStore.getField(0, FIELD_PATH));
+    assertEquals("", lStore.getField(0, FIELD_COVER));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void getField_rejectsUnknownSong() {
+    new CatalogStore().getField(0, FIELD_TITLE);
+  }
+}
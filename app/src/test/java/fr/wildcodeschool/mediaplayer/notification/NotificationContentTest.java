@@ -0,0 +1,41 @@
+package fr.wildcodeschool.mediaplayer.notification;
+
+import org.junit.Test;
+
+import fr.wildcodeschool.mediaplayer.player.PlaybackAnchor;
+
+import static org.junit.Assert.*;
+
+public class NotificationContentTest {
+  // Playing at 10 s of a 100 s song since date 0
+  private final PlaybackAnchor mAnchor = new PlaybackAnchor(10000, 0, 1f, 100000);
+  private final Object mIcon = new Object();
+
+  @Test
+  public void equals_ignoresTheMovesInsideAProgressStep() {
+    NotificationContent lFirst = new NotificationContent("Title", "Artist", mIcon, mAnchor, 0);
+    assertEquals(10, lFirst.getProgress());
+    assertTrue(lFirst.isPlaying());
+    assertEquals(lFirst, new NotificationContent(new StringBuilder("Title"), "Artist", mIcon, mAnchor, 999));
+    assertEquals(lFirst.hashCode(),
+      new NotificationContent("Title", "Artist", mIcon, mAnchor, 500).hashCode());
+
+    assertNotEquals(lFirst, new NotificationContent("Title", "Artist", mIcon, mAnchor, 1000));
+    assertNotEquals(lFirst, new NotificationContent("Title", "Artist", new Object(), mAnchor, 0));
+    PlaybackAnchor lPaused = new PlaybackAnchor(10000, 0, 0f, 100000);
+    assertNotEquals(lFirst, new NotificationContent("Title", "Artist", mIcon, lPaused, 0));
+  }
+
+  @Test
+  public void delayToNextStep_followsTheRunningPlayback() {
+    assertEquals(1000, NotificationContent.delayToNextStep(mAnchor, 0));
+    assertEquals(700, NotificationContent.delayToNextStep(mAnchor, 300));
+    // Twice as fast
+    assertEquals(500, NotificationContent.delayToNextStep(new PlaybackAnchor(10000, 0, 2f, 100000), 0));
+
+    assertEquals(-1, NotificationContent.delayToNextStep(new PlaybackAnchor(10000, 0, 0f, 100000), 0));
+    assertEquals(-1, NotificationContent.delayToNextStep(new PlaybackAnchor(10000, 0, 1f, 0), 0));
+    assertEquals(NotificationContent.NO_PROGRESS,
+      new NotificationContent("Title", null, null, PlaybackAnchor.NONE, 0).getProgress());
+  }
+}
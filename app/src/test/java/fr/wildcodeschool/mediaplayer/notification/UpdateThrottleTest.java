@@ -0,0 +1,42 @@
+package fr.wildcodeschool.mediaplayer.notification;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UpdateThrottleTest {
+  private final UpdateThrottle mThrottle = new UpdateThrottle(1000);
+
+  @Test
+  public void request_delaysAndCoalescesTheBursts() {
+    // First post at once
+    assertEquals(0, mThrottle.request(5000));
+    mThrottle.onRun();
+    mThrottle.onPosted(5000);
+
+    // Too soon, delayed then coalesced
+    assertEquals(800, mThrottle.request(5200));
+    assertEquals(UpdateThrottle.SCHEDULED, mThrottle.request(5300));
+    assertEquals(UpdateThrottle.SCHEDULED, mThrottle.request(5900));
+    assertTrue(mThrottle.isScheduled());
+    mThrottle.onRun();
+    mThrottle.onPosted(6000);
+
+    assertEquals(0, mThrottle.request(7500));
+    assertEquals(5, mThrottle.getRequestCount());
+    assertEquals(2, mThrottle.getCoalescedCount());
+  }
+
+  @Test
+  public void request_isImmediateWhenNothingWasPosted() {
+    assertEquals(0, mThrottle.request(5000));
+    // Unchanged content, nothing posted
+    mThrottle.onRun();
+    assertEquals(0, mThrottle.request(5100));
+
+    mThrottle.onRun();
+    mThrottle.onPosted(5100);
+    mThrottle.reset();
+    assertEquals(0, mThrottle.request(5200));
+  }
+}
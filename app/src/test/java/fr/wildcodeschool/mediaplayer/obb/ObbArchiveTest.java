@@ -0,0 +1,150 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ObbArchiveTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  /**
+   * Build an OBB with a stored song, a compressed catalog and a directory
+   */
+  private File createObb(byte[] song) throws IOException {
+    File lFile = mFolder.newFile("main.obb");
+    try (ZipOutputStream lZip = new ZipOutputStream(new FileOutputStream(lFile))) {
+      lZip.setComment("OBB comment");
+      lZip.putNextEntry(new ZipEntry("data.json"));
+      lZip.write("{\"music\":[]}".getBytes("UTF-8"));
+      lZip.putNextEntry(new ZipEntry("songs/"));
+
+      ZipEntry lSong = new ZipEntry("songs/é 1.mp3");
+      lSong.setMethod(ZipEntry.STORED);
+      lSong.setSize(song.length);
+      CRC32 lCrc = new CRC32();
+      lCrc.update(song);
+      lSong.setCrc(lCrc.getValue());
+      // Local extra field, absent from the central directory offsets
+      lSong.setExtra(new byte[] { (byte) 0xCA, (byte) 0xFE, 4, 0, 1, 2, 3, 4 });
+      lZip.putNextEntry(lSong);
+      lZip.write(song);
+    }
+    return lFile;
+  }
+
+  @Test
+  public void getDataOffset_pointsToTheStoredBytes() throws IOException {
+    byte[] lSong = new byte[10000];
+    new Random(7).nextBytes(lSong);
+    try (ObbArchive lArchive = new ObbArchive(createObb(lSong))) {
+      assertEquals(2, lArchive.size());
+      ObbArchive.Entry lEntry = entryOf(lArchive, "songs/é 1.mp3");
+      assertTrue(lEntry.isStored());
+      assertEquals(lSong.length, lEntry.getSize());
+
+      byte[] lRead = new byte[lSong.length];
+      try (RandomAccessFile lRaf = new RandomAccessFile(lArchive.getFile(), "r")) {
+        lRaf.seek(lArchive.getDataOffset(lEntry));
+        lRaf.readFully(lRead);
+      }
+      assertArrayEquals(lSong, lRead);
+      assertTrue(lArchive.getFileDescriptor().valid());
+    }
+  }
+
+  @Test
+  public void entryAt_reportsCompressedEntries() throws IOException {
+    try (ObbArchive lArchive = new ObbArchive(createObb(new byte[16]))) {
+      ObbArchive.Entry lEntry = entryOf(lArchive, "data.json");
+      assertFalse(lEntry.isStored());
+      assertEquals(ObbArchive.METHOD_DEFLATED, lEntry.getMethod());
+      assertEquals(12, lEntry.getSize());
+      // Directories have no slot name
+      assertEquals(3, lArchive.slotCount());
+      assertNull(lArchive.nameAt(1));
+      assertNull(entryOf(lArchive, "songs/"));
+    }
+  }
+
+  @Test
+  public void getBuffer_slicesStoredAndInflatesCompressedEntries() throws IOException {
+    byte[] lSong = new byte[5000];
+    new Random(3).nextBytes(lSong);
+    try (ObbArchive lArchive = new ObbArchive(createObb(lSong))) {
+      ByteBuffer lStored = lArchive.getBuffer(entryOf(lArchive, "songs/é 1.mp3"));
+      assertTrue(lStored.isDirect());
+      assertTrue(lStored.isReadOnly());
+      byte[] lRead = new byte[lStored.remaining()];
+      lStored.get(lRead);
+      assertArrayEquals(lSong, lRead);
+
+      ByteBuffer lCatalog = lArchive.getBuffer(entryOf(lArchive, "data.json"));
+      byte[] lJson = new byte[lCatalog.remaining()];
+      lCatalog.get(lJson);
+      assertEquals("{\"music\":[]}", new String(lJson, "UTF-8"));
+    }
+  }
+
+  /**
+   * Find an entry by scanning the slots, the lookup table is built by ObbOverlay
+   */
+  private static ObbArchive.Entry entryOf(ObbArchive archive, String name) {
+    for (int lSlot = 0; lSlot < archive.slotCount(); lSlot++) {
+      if (name.equals(archive.nameAt(lSlot))) return archive.entryAt(lSlot);
+    }
+    return null;
+  }
+
+  @Test
+  public void overlay_findsEveryFileOfALargeIndex() throws IOException {
+    File lFile = mFolder.newFile("covers.obb");
+    try (ZipOutputStream lZip = new ZipOutputStream(new FileOutputStream(lFile))) {
+      for (int i = 0; i < 2000; i++) {
+        lZip.putNextEntry(new ZipEntry("covers/" + i + ".jpg"));
+        lZip.write(("cover " + i).getBytes("UTF-8"));
+      }
+    }
+    try (ObbOverlay lOverlay = ObbOverlay.open(lFile, null)) {
+      assertEquals(2000, lOverlay.size());
+      for (int i = 0; i < 2000; i++) {
+        ObbArchive.Entry lEntry = lOverlay.getEntry("covers/" + i + ".jpg");
+        assertEquals(("cover " + i).length(), lEntry.getSize());
+      }
+      assertNull(lOverlay.getEntry("covers/2000.jpg"));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void constructor_rejectsCorruptDirectories() throws IOException {
+    File lFile = createObb(new byte[16]);
+    try (RandomAccessFile lRaf = new RandomAccessFile(lFile, "rw")) {
+      // Central directory offset of the end record beyond the file
+      long lEocd = lRaf.length() - 22 - "OBB comment".length();
+      lRaf.seek(lEocd + 16);
+      lRaf.write(new byte[] { (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, 0x7F });
+    }
+    new ObbArchive(lFile);
+  }
+
+  @Test(expected = IOException.class)
+  public void constructor_rejectsMountableImages() throws IOException {
+    File lFile = mFolder.newFile("fat.obb");
+    try (FileOutputStream lOutput = new FileOutputStream(lFile)) {
+      lOutput.write(new byte[4096]);
+    }
+    new ObbArchive(lFile);
+  }
+}
@@ -0,0 +1,81 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ObbOverlayTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  /**
+   * Build an OBB, each file contains its name followed by a tag
+   */
+  private File createObb(String name, String tag, String... files) throws IOException {
+    File lFile = mFolder.newFile(name);
+    try (ZipOutputStream lZip = new ZipOutputStream(new FileOutputStream(lFile))) {
+      for (String lPath : files) {
+        lZip.putNextEntry(new ZipEntry(lPath));
+        lZip.write((lPath + tag).getBytes("UTF-8"));
+      }
+    }
+    return lFile;
+  }
+
+  private static String read(ByteBuffer buffer) throws IOException {
+    byte[] lContent = new byte[buffer.remaining()];
+    buffer.get(lContent);
+    return new String(lContent, "UTF-8");
+  }
+
+  @Test
+  public void getEntry_prefersThePatch() throws IOException {
+    File lMain = createObb("main.obb", "@main", "data.json", "covers/1.jpg", "covers/2.jpg");
+    File lPatch = createObb("patch.obb", "@patch", "data.json", "covers/3.jpg");
+    try (ObbOverlay lOverlay = ObbOverlay.open(lMain, lPatch)) {
+      assertEquals(4, lOverlay.size());
+      assertEquals("data.json@patch", read(lOverlay.getBuffer("data.json")));
+      assertEquals("covers/1.jpg@main", read(lOverlay.getBuffer("covers/1.jpg")));
+      assertEquals("covers/3.jpg@patch", read(lOverlay.getBuffer("covers/3.jpg")));
+      assertSame(lOverlay.getPatch(), lOverlay.getEntry("data.json").getArchive());
+      assertSame(lOverlay.getMain(), lOverlay.getEntry("covers/2.jpg").getArchive());
+      assertNull(lOverlay.getEntry("covers/4.jpg"));
+    }
+  }
+
+  @Test
+  public void open_withoutPatchServesTheMainObb() throws IOException {
+    File lMain = createObb("main.obb", "@main", "data.json");
+    try (ObbOverlay lOverlay = ObbOverlay.open(lMain, new File(mFolder.getRoot(), "patch.obb"))) {
+      assertNull(lOverlay.getPatch());
+      assertEquals(1, lOverlay.size());
+      assertEquals("data.json@main", read(lOverlay.getBuffer("data.json")));
+      assertEquals(lMain.length(), lOverlay.length());
+    }
+  }
+
+  @Test
+  public void getEntry_findsEveryFileOfLargeArchives() throws IOException {
+    String[] lMainFiles = new String[1500];
+    for (int i = 0; i < lMainFiles.length; i++) lMainFiles[i] = "covers/" + i + ".jpg";
+    String[] lPatchFiles = new String[300];
+    for (int i = 0; i < lPatchFiles.length; i++) lPatchFiles[i] = "covers/" + (3 * i) + ".jpg";
+    try (ObbOverlay lOverlay = ObbOverlay.open(
+      createObb("main.obb", "@main", lMainFiles), createObb("patch.obb", "@patch", lPatchFiles))) {
+      assertEquals(1500, lOverlay.size());
+      for (int i = 0; i < lMainFiles.length; i++) {
+        ObbArchive lExpected = (0 == i % 3 && i < 900) ? lOverlay.getPatch() : lOverlay.getMain();
+        assertSame(lExpected, lOverlay.getEntry("covers/" + i + ".jpg").getArchive());
+      }
+    }
+  }
+}
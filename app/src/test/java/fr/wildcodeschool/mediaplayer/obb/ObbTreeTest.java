@@ -0,0 +1,55 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ObbTreeTest {
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File createFile(File root, String path) throws IOException {
+    File lFile = new File(root, path);
+    assertTrue(lFile.getParentFile().isDirectory() || lFile.getParentFile().mkdirs());
+    assertTrue(lFile.createNewFile());
+    return lFile;
+  }
+
+  @Test
+  public void getPath_prefersThePatch() throws IOException {
+    File lMain = mFolder.newFolder("main");
+    File lPatch = mFolder.newFolder("patch");
+    createFile(lMain, "data.json");
+    createFile(lMain, "covers/1.jpg");
+    File lPatched = createFile(lPatch, "covers/1.jpg");
+
+    ObbTree lTree = new ObbTree(lMain.getPath(), lPatch.getPath());
+    assertEquals(1, lTree.getPatchSize());
+    assertEquals(lPatched.getAbsolutePath(), lTree.getPath("covers/1.jpg"));
+    assertEquals(lMain.getPath() + File.separator + "data.json", lTree.getPath("data.json"));
+  }
+
+  @Test
+  public void exists_usesTheListingOnceIndexed() throws IOException {
+    File lMain = mFolder.newFolder("main");
+    createFile(lMain, "songs/a.mp3");
+
+    ObbTree lTree = new ObbTree(lMain.getPath(), null);
+    assertFalse(lTree.isIndexed());
+    // File system checks until the main tree is listed
+    assertTrue(lTree.exists("songs/a.mp3"));
+    assertFalse(lTree.exists("songs/b.mp3"));
+
+    assertEquals(1, lTree.indexMainFiles());
+    assertTrue(lTree.isIndexed());
+    // Files added afterwards are not seen, a mounted OBB is read-only
+    createFile(lMain, "songs/b.mp3");
+    assertTrue(lTree.exists("songs/a.mp3"));
+    assertFalse(lTree.exists("songs/b.mp3"));
+  }
+}
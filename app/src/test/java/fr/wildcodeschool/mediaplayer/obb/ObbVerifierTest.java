@@ -0,0 +1,133 @@
+package fr.wildcodeschool.mediaplayer.obb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ObbVerifierTest {
+  // Small leaves, the OBB spans several of them
+  private static final int LEAF_SIZE = 4096;
+  private static final int LEAF_COUNT = 10;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private ExecutorService mExecutor;
+  private File mObb;
+  private File mCache;
+  private ObbManifest mManifest;
+
+  @Before
+  public void setUp() throws Exception {
+    mExecutor = Executors.newFixedThreadPool(4);
+    mObb = mFolder.newFile("main.obb");
+    byte[] lContent = new byte[LEAF_COUNT * LEAF_SIZE - 100];
+    new Random(5).nextBytes(lContent);
+    try (FileOutputStream lOutput = new FileOutputStream(mObb)) {
+      lOutput.write(lContent);
+    }
+    mCache = new File(mFolder.getRoot(), "obb.verified");
+    mManifest = ObbManifest.build(mObb, LEAF_SIZE, mExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void read_restoresTheWrittenManifest() throws IOException {
+    ByteArrayOutputStream lOutput = new ByteArrayOutputStream();
+    mManifest.write(lOutput);
+    ObbManifest lRead = ObbManifest.read(new ByteArrayInputStream(lOutput.toByteArray()));
+    assertEquals(LEAF_COUNT, lRead.getLeafCount());
+    assertEquals(mObb.length(), lRead.getFileSize());
+    assertArrayEquals(mManifest.getRoot(), lRead.getRoot());
+
+    // A tampered leaf no longer matches the root
+    byte[] lTampered = lOutput.toByteArray();
+    lTampered[30] ^= 1;
+    try {
+      ObbManifest.read(new ByteArrayInputStream(lTampered));
+      fail("Tampered manifest accepted");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void verifyRange_onlyHashesTheCoveredLeaves() throws Exception {
+    corrupt(8 * LEAF_SIZE + 1);
+    try (ObbVerifier lVerifier = new ObbVerifier(mObb, mManifest, mCache, mExecutor)) {
+      assertTrue(lVerifier.verifyRange(LEAF_SIZE - 1, 2));
+      assertEquals(2, lVerifier.getHashedCount());
+      // Already verified leaves are not hashed again
+      assertTrue(lVerifier.verifyRange(LEAF_SIZE, 10));
+      assertEquals(2, lVerifier.getHashedCount());
+
+      assertFalse(lVerifier.verifyRange(8 * LEAF_SIZE, LEAF_SIZE));
+      assertFalse(lVerifier.verifyAll());
+    }
+  }
+
+  @Test
+  public void verifyAll_isCachedForTheSameFile() throws Exception {
+    try (ObbVerifier lVerifier = new ObbVerifier(mObb, mManifest, mCache, mExecutor)) {
+      assertTrue(lVerifier.verifyAll());
+      assertEquals(LEAF_COUNT, lVerifier.getHashedCount());
+    }
+    try (ObbVerifier lVerifier = new ObbVerifier(mObb, mManifest, mCache, mExecutor)) {
+      assertEquals(LEAF_COUNT, lVerifier.getVerifiedCount());
+      assertTrue(lVerifier.verifyAll());
+      assertEquals(0, lVerifier.getHashedCount());
+    }
+
+    // A rewritten OBB is hashed again
+    assertTrue(mObb.setLastModified(mObb.lastModified() - 10000));
+    try (ObbVerifier lVerifier = new ObbVerifier(mObb, mManifest, mCache, mExecutor)) {
+      assertEquals(0, lVerifier.getVerifiedCount());
+      assertTrue(lVerifier.verifyAll());
+      assertEquals(LEAF_COUNT, lVerifier.getHashedCount());
+    }
+  }
+
+  @Test
+  public void verifyAll_rejectsTruncatedFile() throws Exception {
+    try (RandomAccessFile lRaf = new RandomAccessFile(mObb, "rw")) {
+      lRaf.setLength(lRaf.length() - 1);
+    }
+    try (ObbVerifier lVerifier = new ObbVerifier(mObb, mManifest, mCache, mExecutor)) {
+      assertFalse(lVerifier.verifyAll());
+      assertFalse(lVerifier.verifyRange(0, 1));
+      assertEquals(0, lVerifier.getHashedCount());
+    }
+  }
+
+  /**
+   * Flip a byte of the OBB, its size and date are kept
+   */
+  private void corrupt(long position) throws IOException {
+    long lDate = mObb.lastModified();
+    try (RandomAccessFile lRaf = new RandomAccessFile(mObb, "rw")) {
+      lRaf.seek(position);
+      int lByte = lRaf.read();
+      lRaf.seek(position);
+      lRaf.write(lByte ^ 0xFF);
+    }
+    assertTrue(mObb.setLastModified(lDate));
+  }
+}
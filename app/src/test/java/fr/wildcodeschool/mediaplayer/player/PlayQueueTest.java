@@ -0,0 +1,28 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PlayQueueTest {
+  @Test
+  public void moveToNext_walksTheQueue() {
+    PlayQueue lQueue = new PlayQueue(Arrays.asList("a.mp3", "b.mp3", "c.mp3"), 1);
+    assertEquals("b.mp3", lQueue.getCurrent());
+    assertEquals("c.mp3", lQueue.peekNext());
+
+    assertTrue(lQueue.moveToNext());
+    assertEquals(2, lQueue.getIndex());
+    assertNull(lQueue.peekNext());
+    assertFalse(lQueue.moveToNext());
+    assertEquals("c.mp3", lQueue.getCurrent());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void constructor_rejectsInvalidIndex() {
+    new PlayQueue(Collections.singletonList("a.mp3"), 1);
+  }
+}
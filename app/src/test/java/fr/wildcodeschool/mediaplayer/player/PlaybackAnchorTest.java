@@ -0,0 +1,33 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackAnchorTest {
+  @Test
+  public void getPositionAt_extrapolatesFromTheRate() {
+    PlaybackAnchor lAnchor = new PlaybackAnchor(10000, 5000L, 1f, 60000);
+    assertEquals(10000, lAnchor.getPositionAt(5000L));
+    assertEquals(12500, lAnchor.getPositionAt(7500L));
+
+    PlaybackAnchor lFast = new PlaybackAnchor(10000, 5000L, 1.5f, 60000);
+    assertEquals(13000, lFast.getPositionAt(7000L));
+  }
+
+  @Test
+  public void getPositionAt_isBoundedByTheDuration() {
+    PlaybackAnchor lAnchor = new PlaybackAnchor(59000, 0L, 1f, 60000);
+    assertEquals(60000, lAnchor.getPositionAt(5000L));
+    // Clock earlier than the anchor
+    assertEquals(59000, lAnchor.getPositionAt(-100L));
+  }
+
+  @Test
+  public void getPositionAt_isFixedWhenPaused() {
+    PlaybackAnchor lAnchor = new PlaybackAnchor(42000, 1000L, 0f, 60000);
+    assertFalse(lAnchor.isRunning());
+    assertEquals(42000, lAnchor.getPositionAt(90000L));
+    assertEquals(0, PlaybackAnchor.NONE.getPositionAt(90000L));
+  }
+}
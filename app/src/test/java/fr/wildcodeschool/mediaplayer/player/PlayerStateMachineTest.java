@@ -0,0 +1,61 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import org.junit.Test;
+
+import static fr.wildcodeschool.mediaplayer.player.PlayerState.*;
+import static org.junit.Assert.*;
+
+public class PlayerStateMachineTest {
+  // Clock advanced by hand, in ns
+  private long mNow = 0;
+
+  @Test
+  public void moveTo_followsTheMediaPlayerDiagram() {
+    PlayerStateMachine lMachine = new PlayerStateMachine(IDLE, () -> mNow);
+    assertTrue(lMachine.moveTo(INITIALIZED));
+    assertTrue(lMachine.moveTo(PREPARING));
+    assertTrue(lMachine.moveTo(PREPARED));
+    assertTrue(lMachine.moveTo(STARTED));
+    assertTrue(lMachine.moveTo(COMPLETED));
+    assertTrue(lMachine.moveTo(STARTED));
+    assertTrue(lMachine.moveTo(STOPPED));
+    assertTrue(lMachine.moveTo(PREPARING));
+    assertTrue(lMachine.moveTo(RELEASED));
+    assertEquals(0, lMachine.getRejectedCount());
+  }
+
+  @Test
+  public void moveTo_rejectsIllegalTransitions() {
+    PlayerStateMachine lMachine = new PlayerStateMachine(IDLE, () -> mNow);
+    assertFalse(lMachine.moveTo(STARTED));
+    assertFalse(lMachine.moveTo(PREPARING));
+    assertEquals(IDLE, lMachine.getState());
+
+    lMachine.moveTo(INITIALIZED);
+    lMachine.moveTo(PREPARING);
+    assertFalse(lMachine.moveTo(STOPPED));
+    lMachine.moveTo(ERROR);
+    assertFalse(lMachine.moveTo(PREPARED));
+    lMachine.moveTo(RELEASED);
+    assertFalse(lMachine.moveTo(IDLE));
+    assertEquals(RELEASED, lMachine.getState());
+    assertEquals(5, lMachine.getRejectedCount());
+  }
+
+  @Test
+  public void moveTo_measuresTheTimeSpentInEachState() {
+    PlayerStateMachine lMachine = new PlayerStateMachine(INITIALIZED, () -> mNow);
+    lMachine.moveTo(PREPARING);
+    mNow += 300 * 1000000L;
+    lMachine.moveTo(PREPARED);
+    lMachine.moveTo(STOPPED);
+    lMachine.moveTo(PREPARING);
+    mNow += 100 * 1000000L;
+    lMachine.moveTo(PREPARED);
+
+    assertEquals(100, lMachine.getLastLatency(PREPARING, PREPARED));
+    assertEquals(200, lMachine.getAverageLatency(PREPARING, PREPARED));
+    assertEquals(2, lMachine.getTransitionCount(PREPARING, PREPARED));
+    assertEquals(-1, lMachine.getLastLatency(STARTED, PAUSED));
+  }
+}
@@ -0,0 +1,49 @@
+package fr.wildcodeschool.mediaplayer.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SeekSchedulerTest {
+  // Seeks received by the fake player
+  private final List<String> mIssued = new ArrayList<>();
+  private final SeekScheduler mScheduler =
+    new SeekScheduler((int position, boolean exact) -> mIssued.add(position + (exact ? "" : "~")));
+
+  @Test
+  public void seekTo_keepsTheLatestRequestWhileInFlight() {
+    mScheduler.seekTo(1000, false);
+    mScheduler.seekTo(2000, false);
+    mScheduler.seekTo(3000, false);
+    mScheduler.seekTo(4000, true);
+    assertEquals(1, mIssued.size());
+
+    mScheduler.onSeekComplete();
+    mScheduler.onSeekComplete();
+    assertEquals(2, mIssued.size());
+    assertEquals("1000~", mIssued.get(0));
+    assertEquals("4000", mIssued.get(1));
+    assertFalse(mScheduler.isSeeking());
+
+    assertEquals(4, mScheduler.getRequestCount());
+    assertEquals(2, mScheduler.getIssuedCount());
+    assertEquals(2, mScheduler.getCoalescedCount());
+  }
+
+  @Test
+  public void cancel_dropsThePendingRequest() {
+    mScheduler.seekTo(1000, true);
+    mScheduler.seekTo(2000, true);
+    mScheduler.cancel();
+    mScheduler.onSeekComplete();
+    assertEquals(1, mIssued.size());
+
+    // Not in flight anymore, issued at once
+    mScheduler.seekTo(5000, true);
+    assertEquals("5000", mIssued.get(1));
+    assertEquals(1, mScheduler.getCoalescedCount());
+  }
+}
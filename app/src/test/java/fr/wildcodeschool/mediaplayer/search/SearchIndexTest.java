@@ -0,0 +1,74 @@
+package fr.wildcodeschool.mediaplayer.search;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+  private static SearchIndex createIndex() {
+    SearchIndex lIndex = new SearchIndex();
+    lIndex.addSong(0, "Green Day", "Revolution Radio");
+    lIndex.addSong(1, "Björk", "Army of Me");
+    lIndex.addSong(2, "Green Day", "Bang Bang");
+    lIndex.addSong(3, "Édith Piaf", "La Vie en rose");
+    return lIndex;
+  }
+
+  @Test
+  public void search_matchesWordPrefixes() {
+    SearchIndex lIndex = createIndex();
+    assertArrayEquals(new int[] { 0, 2 }, lIndex.search("gre", 10));
+    assertArrayEquals(new int[] { 0 }, lIndex.search("radio", 10));
+    assertArrayEquals(new int[] { 3 }, lIndex.search("ros", 10));
+    assertArrayEquals(new int[0], lIndex.search("adio", 10));
+  }
+
+  @Test
+  public void search_foldsCaseAndDiacritics() {
+    SearchIndex lIndex = createIndex();
+    assertArrayEquals(new int[] { 1 }, lIndex.search("BJORK", 10));
+    assertArrayEquals(new int[] { 3 }, lIndex.search("edith", 10));
+    assertArrayEquals(new int[] { 3 }, lIndex.search("Édi", 10));
+  }
+
+  @Test
+  public void search_intersectsQueryWords() {
+    SearchIndex lIndex = createIndex();
+    assertArrayEquals(new int[] { 2 }, lIndex.search("green  ban", 10));
+    assertArrayEquals(new int[0], lIndex.search("green army", 10));
+    assertArrayEquals(new int[0], lIndex.search(" - ", 10));
+  }
+
+  @Test
+  public void search_appliesLimitInCatalogOrder() {
+    SearchIndex lIndex = new SearchIndex();
+    for (int i = 0; i < 100; i++) {
+      lIndex.addSong(i, "Artist " + i, "Title");
+    }
+    assertArrayEquals(new int[] { 0, 1, 2 }, lIndex.search("title", 3));
+    assertArrayEquals(new int[] { 42 }, lIndex.search("artist 42", 10));
+  }
+
+  @Test
+  public void search_mergesTheWordsOfALongPrefix() {
+    SearchIndex lIndex = new SearchIndex();
+    lIndex.addSong(0, "Radiohead", "Creep");
+    lIndex.addSong(1, "Queen", "Radio Ga Ga");
+    lIndex.addSong(2, "Radio Radio", "Radiohead");
+    lIndex.addSong(3, "Muse", "Uprising");
+    assertArrayEquals(new int[] { 0, 1, 2 }, lIndex.search("radio", 10));
+    assertArrayEquals(new int[] { 0, 2 }, lIndex.search("radioh", 10));
+    assertArrayEquals(new int[] { 1 }, lIndex.search("ga radi", 10));
+  }
+
+  @Test
+  public void search_keepsCatalogOrderOfSongsAddedOutOfOrder() {
+    SearchIndex lIndex = new SearchIndex();
+    lIndex.addSong(5, "Artist", "Title");
+    lIndex.addSong(2, "Artist", "Title");
+    lIndex.addSong(9, "Artist", "Other");
+    lIndex.addSong(2, "Artist", "Title");
+    assertArrayEquals(new int[] { 2, 5, 9 }, lIndex.search("art", 10));
+    assertArrayEquals(new int[] { 2, 5 }, lIndex.search("artist title", 10));
+  }
+}
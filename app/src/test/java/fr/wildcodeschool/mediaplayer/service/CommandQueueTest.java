@@ -0,0 +1,73 @@
+package fr.wildcodeschool.mediaplayer.service;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+  // Runs of the fake worker thread, executed on demand
+  private final ArrayDeque<Runnable> mWorker = new ArrayDeque<>();
+  // Commands run and results received, in order
+  private final List<String> mRun = new ArrayList<>();
+  private final List<String> mResults = new ArrayList<>();
+  private final CommandQueue mQueue = new CommandQueue(mWorker::add, Runnable::run);
+
+  private void post(int kind, final String name) {
+    mQueue.post(kind, () -> mRun.add(name), (boolean isDone) -> mResults.add(name + "=" + isDone));
+  }
+
+  private void drain() {
+    while (!mWorker.isEmpty()) mWorker.poll().run();
+  }
+
+  @Test
+  public void post_keepsTheLatestOfATransportBurst() {
+    post(CommandQueue.PLAY, "play");
+    post(CommandQueue.PAUSE, "pause");
+    post(CommandQueue.PLAY, "play2");
+    assertEquals(1, mQueue.getPendingCount());
+    // Superseded commands are answered at once
+    assertEquals("[play=false, pause=false]", mResults.toString());
+
+    drain();
+    assertEquals("[play2]", mRun.toString());
+    assertEquals("play2=true", mResults.get(2));
+    assertEquals(3, mQueue.getRequestCount());
+    assertEquals(1, mQueue.getRunCount());
+    assertEquals(2, mQueue.getCoalescedCount());
+  }
+
+  @Test
+  public void post_keepsTheOrderAroundOtherCommands() {
+    post(CommandQueue.PLAY, "play");
+    post(CommandQueue.OTHER, "queue");
+    post(CommandQueue.PAUSE, "pause");
+    post(CommandQueue.STOP, "stop");
+    post(CommandQueue.PLAY, "play2");
+    post(CommandQueue.SEEK, "seek1");
+    post(CommandQueue.SEEK, "seek2");
+
+    drain();
+    assertEquals("[play, queue, stop, play2, seek2]", mRun.toString());
+    assertEquals(2, mQueue.getCoalescedCount());
+    assertEquals(0, mQueue.getPendingCount());
+  }
+
+  @Test
+  public void post_doesNotCoalesceWithARunningCommand() {
+    mQueue.post(CommandQueue.PLAY, () -> {
+      // Posted while the play runs, after it in the worker
+      post(CommandQueue.PAUSE, "pause");
+      return mRun.add("play");
+    }, null);
+
+    drain();
+    assertEquals("[play, pause]", mRun.toString());
+    assertEquals(0, mQueue.getCoalescedCount());
+    assertEquals(2, mQueue.getRunLatency().getCount());
+  }
+}
@@ -0,0 +1,110 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+public class BitrateSelectorTest {
+  private static final VariantSet VARIANTS = VariantSet.parse(
+    "320000 http://example.com/320.mp3", "128000 http://example.com/128.mp3",
+    "1000000 http://example.com/1000.flac", "3000000 http://example.com/3000.flac");
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  // Fake clock of the stall penalty
+  private long mNow = 0;
+
+  @Test
+  public void select_fitsTheThroughputShare() {
+    ThroughputEstimator lEstimator = new ThroughputEstimator();
+    BitrateSelector lSelector = new BitrateSelector(lEstimator, 0.75f, 1000, () -> mNow);
+    // No measure yet
+    assertEquals(128000, lSelector.select(VARIANTS).getBitRate());
+
+    // 1 Mbit/s, 750 kbit/s for the audio
+    lEstimator.addSample(125000, 1000000000L);
+    assertEquals(320000, lSelector.select(VARIANTS).getBitRate());
+    // 2 Mbit/s
+    lEstimator.reset();
+    lEstimator.addSample(250000, 1000000000L);
+    assertEquals(1000000, lSelector.select(VARIANTS).getBitRate());
+    assertEquals(2, lSelector.getUpSwitchCount());
+  }
+
+  @Test
+  public void onStall_capsTheSelectionForAWhile() {
+    ThroughputEstimator lEstimator = new ThroughputEstimator();
+    lEstimator.addSample(1000000, 1000000000L);
+    BitrateSelector lSelector = new BitrateSelector(lEstimator, 0.75f, 1000, () -> mNow);
+    VariantSet.Variant lSelected = lSelector.select(VARIANTS);
+    assertEquals(3000000, lSelected.getBitRate());
+
+    assertEquals(1000000, lSelector.onStall(VARIANTS, lSelected).getBitRate());
+    assertEquals(1000000, lSelector.select(VARIANTS).getBitRate());
+    mNow += 1000;
+    assertEquals(3000000, lSelector.select(VARIANTS).getBitRate());
+    assertEquals(1, lSelector.getStallCount());
+    assertEquals(1, lSelector.getDownSwitchCount());
+  }
+
+  @Test
+  public void select_followsAThrottledServer() throws Exception {
+    // Origin limited to 2 Mbit/s
+    final byte[] lSong = new byte[512 * 1024];
+    HttpServer lOrigin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    lOrigin.createContext("/", (HttpExchange exchange) -> {
+      exchange.sendResponseHeaders(200, lSong.length);
+      try (OutputStream lOutput = exchange.getResponseBody()) {
+        for (int lOffset = 0; lOffset < lSong.length; lOffset += 25000) {
+          lOutput.write(lSong, lOffset, Math.min(25000, lSong.length - lOffset));
+          lOutput.flush();
+          sleep(100);
+        }
+      }
+    });
+    lOrigin.start();
+    ThroughputEstimator lEstimator = new ThroughputEstimator();
+    CachingProxy lProxy = new CachingProxy(new StreamCache(new File(mFolder.getRoot(), "streams"), Long.MAX_VALUE));
+    lProxy.setThroughputEstimator(lEstimator);
+    lProxy.start();
+    try {
+      String lUrl = "http://127.0.0.1:" + lOrigin.getAddress().getPort() + "/song.mp3";
+      HttpURLConnection lConnection = (HttpURLConnection) new URL(lProxy.getProxyUrl(lUrl)).openConnection();
+      try (InputStream lInput = lConnection.getInputStream()) {
+        byte[] lBuffer = new byte[8192];
+        while (lInput.read(lBuffer) >= 0) {
+          // Play the song
+        }
+      }
+
+      long lEstimate = lEstimator.getEstimate();
+      assertTrue("Estimate " + lEstimate, lEstimate > 1500000 && lEstimate < 2500000);
+      assertEquals(1000000, new BitrateSelector(lEstimator).select(VARIANTS).getBitRate());
+    } finally {
+      lProxy.close();
+      lOrigin.stop(0);
+    }
+  }
+
+  private static void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
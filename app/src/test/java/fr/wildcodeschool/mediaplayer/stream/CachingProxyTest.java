@@ -0,0 +1,193 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CachingProxyTest {
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+  private static final int LENGTH = 300 * 1024;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  // Origin server and the bytes it has sent
+  private final byte[] mSong = new byte[LENGTH];
+  private final AtomicLong mServedBytes = new AtomicLong();
+  private HttpServer mOrigin;
+  private String mUrl;
+  private CachingProxy mProxy;
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(42).nextBytes(mSong);
+    mOrigin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    mOrigin.createContext("/song.mp3", this::serveSong);
+    mOrigin.start();
+    mUrl = "http://127.0.0.1:" + mOrigin.getAddress().getPort() + "/song.mp3";
+    mProxy = startProxy();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mProxy.close();
+    mOrigin.stop(0);
+  }
+
+  @Test
+  public void get_replaysFromCache() throws IOException {
+    assertArrayEquals(mSong, fetch(null));
+    assertEquals(LENGTH, mServedBytes.get());
+
+    assertArrayEquals(mSong, fetch(null));
+    assertEquals(LENGTH, mServedBytes.get());
+    assertEquals(LENGTH, mProxy.getCacheBytes());
+  }
+
+  @Test
+  public void get_fetchesOnlyMissingRanges() throws IOException {
+    assertArrayEquals(Arrays.copyOfRange(mSong, 1000, 2000), fetch("bytes=1000-1999"));
+    assertArrayEquals(Arrays.copyOfRange(mSong, 100000, LENGTH), fetch("bytes=100000-"));
+    long lServed = mServedBytes.get();
+
+    assertArrayEquals(mSong, fetch(null));
+    assertEquals(LENGTH, mServedBytes.get() - lServed + 1000 + (LENGTH - 100000));
+  }
+
+  @Test
+  public void get_resumesPartialDownloadAfterRestart() throws IOException {
+    assertArrayEquals(Arrays.copyOfRange(mSong, 0, LENGTH / 2), fetch("bytes=0-" + (LENGTH / 2 - 1)));
+    mProxy.close();
+    mProxy = startProxy();
+
+    assertArrayEquals(mSong, fetch(null));
+    assertEquals(LENGTH, mServedBytes.get());
+    assertEquals(LENGTH / 2, mProxy.getCacheBytes());
+  }
+
+  @Test
+  public void getProxyUrl_keepsLocalPaths() {
+    assertEquals("/sdcard/song.mp3", mProxy.getProxyUrl("/sdcard/song.mp3"));
+    assertNotEquals(mUrl, mProxy.getProxyUrl(mUrl));
+  }
+
+  @Test
+  public void get_rejectsMalformedRequests() throws IOException {
+    // Local files are never fetched
+    String lFileUrl = mProxy.getProxyUrl(mUrl).replaceFirst("url=.*",
+      "url=" + URLEncoder.encode("file:///etc/hosts", "UTF-8"));
+    assertEquals(400, statusOf(lFileUrl, null));
+    // Positions which don't fit a long
+    assertEquals(416, statusOf(mProxy.getProxyUrl(mUrl), "bytes=99999999999999999999-"));
+    assertEquals(416, statusOf(mProxy.getProxyUrl(mUrl), "bytes=2000-1000"));
+
+    // The proxy still serves
+    assertArrayEquals(mSong, fetch(null));
+  }
+
+  @Test
+  public void get_rejectsUrlsNotHandedOut() throws IOException {
+    String lProxyUrl = mProxy.getProxyUrl(mUrl);
+    String lOther = mUrl + "?other";
+    // Without signature
+    assertEquals(403, statusOf(lProxyUrl.replaceFirst("&sig=.*", ""), null));
+    // Signature of another URL
+    assertEquals(403, statusOf(lProxyUrl.replaceFirst("url=[^&]*",
+      "url=" + URLEncoder.encode(lOther, "UTF-8")), null));
+    // Signature of another process
+    CachingProxy lOtherProxy = startProxy();
+    try {
+      String lForeign = lOtherProxy.getProxyUrl(mUrl);
+      assertEquals(403, statusOf(lProxyUrl.replaceFirst("&sig=.*", lForeign.substring(lForeign.indexOf("&sig="))), null));
+    } finally {
+      lOtherProxy.close();
+    }
+    assertEquals(0, mServedBytes.get());
+  }
+
+  private CachingProxy startProxy() throws IOException {
+    CachingProxy lProxy = new CachingProxy(new StreamCache(new File(mFolder.getRoot(), "streams"), Long.MAX_VALUE));
+    lProxy.start();
+    return lProxy;
+  }
+
+  /**
+   * Send a request to the proxy
+   * @param url String: The proxy URL
+   * @param range String: Range header or null
+   * @return int: The response status
+   */
+  private int statusOf(String url, String range) throws IOException {
+    HttpURLConnection lConnection = (HttpURLConnection) new URL(url).openConnection();
+    if (null != range) lConnection.setRequestProperty("Range", range);
+    try {
+      return lConnection.getResponseCode();
+    } finally {
+      lConnection.disconnect();
+    }
+  }
+
+  /**
+   * Request the song to the proxy
+   * @param range String: Range header or null
+   * @return byte[]: The response body
+   */
+  private byte[] fetch(String range) throws IOException {
+    HttpURLConnection lConnection = (HttpURLConnection) new URL(mProxy.getProxyUrl(mUrl)).openConnection();
+    if (null != range) lConnection.setRequestProperty("Range", range);
+    assertEquals(null == range ? 200 : 206, lConnection.getResponseCode());
+    try (InputStream lInput = lConnection.getInputStream()) {
+      ByteArrayOutputStream lBody = new ByteArrayOutputStream();
+      byte[] lBuffer = new byte[8192];
+      for (int lCount; (lCount = lInput.read(lBuffer)) >= 0; ) lBody.write(lBuffer, 0, lCount);
+      return lBody.toByteArray();
+    } finally {
+      lConnection.disconnect();
+    }
+  }
+
+  /**
+   * Origin server with range support
+   * @param exchange HttpExchange: The proxy request
+   */
+  private void serveSong(HttpExchange exchange) throws IOException {
+    int lStart = 0;
+    int lEnd = LENGTH;
+    String lRange = exchange.getRequestHeaders().getFirst("Range");
+    Matcher lMatcher = (null == lRange) ? null : RANGE.matcher(lRange);
+    if (null != lMatcher && lMatcher.matches()) {
+      lStart = Integer.parseInt(lMatcher.group(1));
+      if (!lMatcher.group(2).isEmpty()) lEnd = Integer.parseInt(lMatcher.group(2)) + 1;
+      exchange.getResponseHeaders().add("Content-Range",
+        "bytes " + lStart + "-" + (lEnd - 1) + "/" + LENGTH);
+    }
+    exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+    exchange.sendResponseHeaders(null == lRange ? 200 : 206, lEnd - lStart);
+    try (OutputStream lOutput = exchange.getResponseBody()) {
+      lOutput.write(mSong, lStart, lEnd - lStart);
+    }
+    mServedBytes.addAndGet(lEnd - lStart);
+  }
+}
@@ -0,0 +1,144 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class PrefetchSchedulerTest {
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+  private static final int LENGTH = 512 * 1024;
+  private static final int PREFETCH_BYTES = 64 * 1024;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  private final byte[] mSong = new byte[LENGTH];
+  private final AtomicLong mServedBytes = new AtomicLong();
+  private HttpServer mOrigin;
+  private CachingProxy mProxy;
+  private List<String> mUrls;
+
+  @Before
+  public void setUp() throws IOException {
+    mOrigin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    mOrigin.createContext("/", this::serveSong);
+    mOrigin.start();
+    String lRoot = "http://127.0.0.1:" + mOrigin.getAddress().getPort() + "/";
+    mUrls = Arrays.asList("/sdcard/local.mp3", lRoot + "a.mp3", lRoot + "b.mp3", lRoot + "c.mp3");
+    mProxy = new CachingProxy(new StreamCache(new File(mFolder.getRoot(), "streams"), Long.MAX_VALUE));
+    mProxy.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mProxy.close();
+    mOrigin.stop(0);
+  }
+
+  @Test
+  public void schedule_prefetchesTheBeginningOfTheNextTracks() throws Exception {
+    PrefetchScheduler lScheduler = new PrefetchScheduler(mProxy, 2, PREFETCH_BYTES, 0, 1);
+    lScheduler.schedule(mUrls);
+    waitFor(lScheduler, 2 * PREFETCH_BYTES);
+    assertEquals(2 * PREFETCH_BYTES, mServedBytes.get());
+
+    // First played track starts from the cache, the third one was not prefetched
+    assertEquals(PREFETCH_BYTES, play(mUrls.get(1)));
+    play(mUrls.get(3));
+    assertEquals(1, lScheduler.getHitCount());
+    assertEquals(0, lScheduler.getMissCount());
+    assertEquals(1f, lScheduler.getHitRatio(), 0f);
+    lScheduler.close();
+  }
+
+  @Test
+  public void schedule_cancelsThePreviousQueue() throws Exception {
+    // 16 KB/s, the prefetch of a track takes 4 s
+    PrefetchScheduler lScheduler = new PrefetchScheduler(mProxy, 2, PREFETCH_BYTES, 16 * 1024, 1);
+    lScheduler.schedule(mUrls);
+    Thread.sleep(300);
+    lScheduler.schedule(Collections.<String>emptyList());
+    assertEquals(2, lScheduler.getCancelCount());
+
+    Thread.sleep(1500);
+    assertTrue(lScheduler.getPrefetchedBytes() < PREFETCH_BYTES);
+    lScheduler.close();
+  }
+
+  @Test
+  public void bytesFor_convertsDuration() {
+    assertEquals(160000, PrefetchScheduler.bytesFor(10000, 128000));
+  }
+
+  /**
+   * Wait until the prefetches are over
+   */
+  private static void waitFor(PrefetchScheduler scheduler, long bytes) throws InterruptedException {
+    for (int i = 0; i < 100 && scheduler.getPrefetchedBytes() < bytes; i++) {
+      Thread.sleep(50);
+    }
+  }
+
+  /**
+   * Request a track to the proxy as the player does
+   * @return long: Number of origin bytes not downloaded for the track
+   */
+  private long play(String url) throws IOException {
+    long lServed = mServedBytes.get();
+    HttpURLConnection lConnection = (HttpURLConnection) new URL(mProxy.getProxyUrl(url)).openConnection();
+    try (InputStream lInput = lConnection.getInputStream()) {
+      byte[] lBuffer = new byte[8192];
+      while (lInput.read(lBuffer) >= 0) {
+        // Drain the song
+      }
+    } finally {
+      lConnection.disconnect();
+    }
+    return LENGTH - (mServedBytes.get() - lServed);
+  }
+
+  /**
+   * Origin server with range support
+   */
+  private void serveSong(HttpExchange exchange) throws IOException {
+    int lStart = 0;
+    int lEnd = LENGTH;
+    String lRange = exchange.getRequestHeaders().getFirst("Range");
+    Matcher lMatcher = (null == lRange) ? null : RANGE.matcher(lRange);
+    if (null != lMatcher && lMatcher.matches()) {
+      lStart = Integer.parseInt(lMatcher.group(1));
+      if (!lMatcher.group(2).isEmpty()) lEnd = Integer.parseInt(lMatcher.group(2)) + 1;
+      exchange.getResponseHeaders().add("Content-Range",
+        "bytes " + lStart + "-" + (lEnd - 1) + "/" + LENGTH);
+    }
+    exchange.sendResponseHeaders(null == lRange ? 200 : 206, lEnd - lStart);
+    try (OutputStream lOutput = exchange.getResponseBody()) {
+      lOutput.write(mSong, lStart, lEnd - lStart);
+    } catch (IOException e) {
+      // Download cancelled by the proxy
+      return;
+    }
+    mServedBytes.addAndGet(lEnd - lStart);
+  }
+}
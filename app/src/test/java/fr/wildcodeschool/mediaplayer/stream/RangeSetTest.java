@@ -0,0 +1,47 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RangeSetTest {
+  @Test
+  public void add_mergesOverlappingAndAdjacentRanges() {
+    RangeSet lRanges = new RangeSet();
+    lRanges.add(0, 10);
+    lRanges.add(20, 30);
+    lRanges.add(10, 15);
+    lRanges.add(25, 40);
+    assertEquals(2, lRanges.size());
+    assertEquals(35, lRanges.getByteCount());
+    assertEquals(15, lRanges.getRangeEnd(3));
+    assertEquals(-1, lRanges.getRangeEnd(15));
+    assertEquals(20, lRanges.getNextRangeStart(15));
+    assertEquals(Long.MAX_VALUE, lRanges.getNextRangeStart(40));
+
+    lRanges.add(12, 22);
+    assertEquals(1, lRanges.size());
+    assertTrue(lRanges.contains(0, 40));
+    assertFalse(lRanges.contains(0, 41));
+  }
+
+  @Test
+  public void writeTo_roundTrips() throws IOException {
+    RangeSet lRanges = new RangeSet();
+    lRanges.add(5, 8);
+    lRanges.add(100, 200);
+    ByteArrayOutputStream lBytes = new ByteArrayOutputStream();
+    lRanges.writeTo(new DataOutputStream(lBytes));
+
+    RangeSet lRead = new RangeSet();
+    lRead.readFrom(new DataInputStream(new ByteArrayInputStream(lBytes.toByteArray())));
+    assertEquals(lRanges.toString(), lRead.toString());
+    assertEquals(103, lRead.getByteCount());
+  }
+}
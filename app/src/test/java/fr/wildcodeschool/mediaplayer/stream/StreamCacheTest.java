@@ -0,0 +1,93 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StreamCacheTest {
+  private static final int LENGTH = 1000;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void release_deletesLeastRecentlyUsedStreams() throws IOException {
+    StreamCache lCache = newCache(2 * LENGTH);
+    download(lCache, "http://a");
+    download(lCache, "http://b");
+    lCache.get("http://a");
+    lCache.release("http://a");
+    download(lCache, "http://c");
+
+    assertEquals(2 * LENGTH, lCache.getSize());
+    assertEquals(LENGTH, cachedBytes(lCache, "http://a"));
+    assertEquals(0, cachedBytes(lCache, "http://b"));
+    assertEquals(LENGTH, cachedBytes(lCache, "http://c"));
+    lCache.close();
+  }
+
+  @Test
+  public void release_keepsStreamsInUse() throws IOException {
+    StreamCache lCache = newCache(LENGTH);
+    CachedStream lPlaying = lCache.get("http://a");
+    lPlaying.write(0, new byte[LENGTH], 0, LENGTH);
+    download(lCache, "http://b");
+
+    assertEquals(LENGTH, lPlaying.getCachedBytes());
+    lCache.release("http://a");
+    assertEquals(LENGTH, lCache.getSize());
+    assertEquals(LENGTH, cachedBytes(lCache, "http://a"));
+    lCache.close();
+  }
+
+  @Test
+  public void open_restoresTheBudgetAfterRestart() throws IOException {
+    StreamCache lCache = newCache(2 * LENGTH);
+    download(lCache, "http://a");
+    download(lCache, "http://b");
+    lCache.close();
+    // Access order of the previous launch
+    File lDirectory = new File(mFolder.getRoot(), "streams");
+    assertTrue(new File(lDirectory, StreamCache.keyOf("http://a") + ".data").setLastModified(1000000000000L));
+    assertTrue(new File(lDirectory, StreamCache.keyOf("http://b") + ".data").setLastModified(1000001000000L));
+
+    lCache = newCache(LENGTH);
+    assertEquals(LENGTH, cachedBytes(lCache, "http://b"));
+    assertEquals(LENGTH, lCache.getSize());
+    assertEquals(0, cachedBytes(lCache, "http://a"));
+    lCache.close();
+  }
+
+  private StreamCache newCache(long maxSize) {
+    return new StreamCache(new File(mFolder.getRoot(), "streams"), maxSize);
+  }
+
+  /**
+   * Cache a whole remote file, as a proxy connection does
+   * @param cache StreamCache: The cache
+   * @param url String: The remote URL
+   */
+  private static void download(StreamCache cache, String url) throws IOException {
+    CachedStream lStream = cache.get(url);
+    try {
+      lStream.setRemoteInfo(LENGTH, null);
+      lStream.write(0, new byte[LENGTH], 0, LENGTH);
+      lStream.save();
+    } finally {
+      cache.release(url);
+    }
+  }
+
+  private static long cachedBytes(StreamCache cache, String url) throws IOException {
+    try {
+      return cache.get(url).getCachedBytes();
+    } finally {
+      cache.release(url);
+    }
+  }
+}
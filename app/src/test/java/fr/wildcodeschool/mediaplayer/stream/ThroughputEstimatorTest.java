@@ -0,0 +1,40 @@
+package fr.wildcodeschool.mediaplayer.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThroughputEstimatorTest {
+  // 64 KB in 0.5 s, 1 Mbit/s
+  private static final long CHUNK = 64 * 1024;
+  private static final long HALF_SECOND = 500000000L;
+
+  @Test
+  public void getEstimate_isUnbiasedAfterOneSample() {
+    ThroughputEstimator lEstimator = new ThroughputEstimator();
+    assertEquals(-1, lEstimator.getEstimate());
+    lEstimator.addSample(CHUNK, HALF_SECOND);
+    assertEquals(CHUNK * 16, lEstimator.getEstimate(), 1);
+  }
+
+  @Test
+  public void getEstimate_dropsFasterThanItRises() {
+    ThroughputEstimator lEstimator = new ThroughputEstimator();
+    for (int i = 0; i < 20; i++) lEstimator.addSample(CHUNK, HALF_SECOND);
+    // Throughput divided by 4 for 2 s
+    for (int i = 0; i < 2; i++) lEstimator.addSample(CHUNK, 4 * HALF_SECOND);
+    long lDropped = lEstimator.getEstimate();
+    assertTrue(lDropped < CHUNK * 16 * 6 / 10);
+
+    // Back to normal for 2 s, the slow average keeps the estimate low
+    for (int i = 0; i < 4; i++) lEstimator.addSample(CHUNK, HALF_SECOND);
+    assertTrue(lEstimator.getEstimate() < CHUNK * 16 * 9 / 10);
+  }
+
+  @Test
+  public void addSample_ignoresSmallChunks() {
+    ThroughputEstimator lEstimator = new ThroughputEstimator();
+    lEstimator.addSample(1000, 1000);
+    assertEquals(0, lEstimator.getSampleCount());
+  }
+}
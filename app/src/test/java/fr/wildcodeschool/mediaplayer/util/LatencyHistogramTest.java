@@ -0,0 +1,32 @@
+package fr.wildcodeschool.mediaplayer.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+  @Test
+  public void getPercentile_boundsTheRecordedDurations() {
+    LatencyHistogram lHistogram = new LatencyHistogram("test");
+    for (int i = 0; i < 99; i++) lHistogram.record(1000);
+    lHistogram.record(1000000);
+
+    assertEquals(100, lHistogram.getCount());
+    assertEquals((99 * 1000 + 1000000) / 100, lHistogram.getMean());
+    // Bucket upper bounds, precision of a factor 2
+    assertEquals(1023, lHistogram.getPercentile(50));
+    assertEquals(1023, lHistogram.getPercentile(99));
+    assertEquals(1048575, lHistogram.getPercentile(100));
+  }
+
+  @Test
+  public void reset_forgetsTheDurations() {
+    LatencyHistogram lHistogram = new LatencyHistogram("test");
+    lHistogram.record(0);
+    lHistogram.record(-5);
+    assertEquals(0, lHistogram.getPercentile(100));
+    lHistogram.reset();
+    assertEquals(0, lHistogram.getCount());
+    assertEquals(0, lHistogram.getMean());
+  }
+}
@@ -0,0 +1,33 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Desktop replacement of the Android JsonReader, backed by the Gson reader which has
+ * the same streaming API. Only the methods used by the application are exposed.
+ */
+@SuppressWarnings("unused")
+public class JsonReader implements Closeable {
+  private final com.google.gson.stream.JsonReader mReader;
+
+  public JsonReader(Reader in) {
+    mReader = new com.google.gson.stream.JsonReader(in);
+  }
+
+  public void beginArray() throws IOException  { mReader.beginArray(); }
+  public void endArray() throws IOException    { mReader.endArray(); }
+  public void beginObject() throws IOException { mReader.beginObject(); }
+  public void endObject() throws IOException   { mReader.endObject(); }
+  public boolean hasNext() throws IOException  { return mReader.hasNext(); }
+  public String nextName() throws IOException  { return mReader.nextName(); }
+  public String nextString() throws IOException { return mReader.nextString(); }
+  public int nextInt() throws IOException      { return mReader.nextInt(); }
+  public void skipValue() throws IOException   { mReader.skipValue(); }
+
+  @Override
+  public void close() throws IOException {
+    mReader.close();
+  }
+}
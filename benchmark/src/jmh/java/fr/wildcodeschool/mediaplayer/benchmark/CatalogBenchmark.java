@@ -0,0 +1,158 @@
+package fr.wildcodeschool.mediaplayer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.wildcodeschool.mediaplayer.catalog.BinaryCatalog;
+import fr.wildcodeschool.mediaplayer.catalog.Catalog;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogFingerprint;
+import fr.wildcodeschool.mediaplayer.catalog.CatalogWriter;
+import fr.wildcodeschool.mediaplayer.json.JsonParser;
+import fr.wildcodeschool.mediaplayer.list.Item;
+import fr.wildcodeschool.mediaplayer.search.SearchIndex;
+
+/**
+ * Compiled catalog: compilation, opening, item building, search indexing and search.
+ */
+@State(Scope.Benchmark)
+public class CatalogBenchmark {
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int numberOfSongs;
+
+  private static final CatalogFingerprint SOURCE = new CatalogFingerprint(0L, 0L, 0L);
+  // Same limit as the search field of MainActivity
+  private static final int SEARCH_LIMIT = 1000;
+
+  private File mCompiled;
+  private File mOutput;
+  private BinaryCatalog mCatalog;
+  private SearchIndex mSearchIndex;
+
+  @Setup
+  public void setUp() throws IOException {
+    JsonParser.getInstance().readJsonStream(
+      new ByteArrayInputStream(SyntheticCatalog.json(numberOfSongs)));
+    mCompiled = File.createTempFile("benchmark", ".catalog");
+    mOutput   = File.createTempFile("benchmark", ".out");
+    CatalogWriter lWriter = new CatalogWriter();
+    addSongs(lWriter);
+    lWriter.write(mCompiled, numberOfSongs, SOURCE);
+    mCatalog = BinaryCatalog.open(mCompiled);
+    mSearchIndex = buildSearchIndex();
+  }
+
+  @TearDown
+  public void tearDown() {
+    //noinspection ResultOfMethodCallIgnored
+    mCompiled.delete();
+    //noinspection ResultOfMethodCallIgnored
+    mOutput.delete();
+  }
+
+  /**
+   * Compile the parsed catalog and write it on disk
+   */
+  @Benchmark
+  public File compile() throws IOException {
+    CatalogWriter lWriter = new CatalogWriter();
+    addSongs(lWriter);
+    lWriter.write(mOutput, numberOfSongs, SOURCE);
+    return mOutput;
+  }
+
+  /**
+   * Map the compiled catalog, as done when data.json is unchanged
+   */
+  @Benchmark
+  public BinaryCatalog open() throws IOException {
+    return BinaryCatalog.open(mCompiled);
+  }
+
+  /**
+   * Decode every field of the compiled catalog
+   */
+  @Benchmark
+  public void readAllFields(Blackhole blackhole) {
+    for (int i = 0; i < mCatalog.getSongCount(); i++) {
+      for (int lField = 0; lField < Catalog.FIELD_COUNT; lField++) {
+        blackhole.consume(mCatalog.getField(i, lField));
+      }
+    }
+  }
+
+  /**
+   * Build the playlist items from the compiled catalog
+   */
+  @Benchmark
+  public List<Item> buildItems() {
+    List<Item> lItems = new ArrayList<>(mCatalog.getSongCount());
+    for (int i = 0; i < mCatalog.getSongCount(); i++) {
+      lItems.add(new Item(mCatalog.getField(i, Catalog.FIELD_ARTIST),
+        mCatalog.getField(i, Catalog.FIELD_TITLE), mCatalog.getField(i, Catalog.FIELD_PATH),
+        mCatalog.getField(i, Catalog.FIELD_COVER)));
+    }
+    return lItems;
+  }
+
+  /**
+   * Build the search index of the compiled catalog
+   */
+  @Benchmark
+  public SearchIndex buildSearchIndex() {
+    SearchIndex lIndex = new SearchIndex();
+    for (int i = 0; i < mCatalog.getSongCount(); i++) {
+      lIndex.addSong(i, mCatalog.getField(i, Catalog.FIELD_ARTIST),
+        mCatalog.getField(i, Catalog.FIELD_TITLE));
+    }
+    return lIndex;
+  }
+
+  /**
+   * Query the search index with the first letter typed by the user, the largest result
+   */
+  @Benchmark
+  public int[] searchFirstLetter() {
+    return mSearchIndex.search("r", SEARCH_LIMIT);
+  }
+
+  /**
+   * Query the search index with a two letter prefix
+   */
+  @Benchmark
+  public int[] searchTwoLetters() {
+    return mSearchIndex.search("lo", SEARCH_LIMIT);
+  }
+
+  /**
+   * Query the search index with two short prefixes, each matching many songs
+   */
+  @Benchmark
+  public int[] searchTwoPrefixes() {
+    return mSearchIndex.search("r n", SEARCH_LIMIT);
+  }
+
+  /**
+   * Query the search index with two words, as the user refines the query
+   */
+  @Benchmark
+  public int[] searchTwoWords() {
+    return mSearchIndex.search("love ra", SEARCH_LIMIT);
+  }
+
+  private static void addSongs(CatalogWriter writer) {
+    for (JsonParser.Song lSong : JsonParser.getInstance().getSongList()) {
+      writer.addSong(lSong.artist, lSong.title, lSong.path, lSong.cover);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package fr.wildcodeschool.mediaplayer.benchmark;
+
+import android.util.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+import fr.wildcodeschool.mediaplayer.catalog.CatalogStore;
+
+/**
+ * Heap footprint of the parsed catalog: one object per song with its own strings, as the
+ * parser kept them before, against the interned columns of CatalogStore.
+ * The retained heap per song is measured once per trial, after full collections, and printed
+ * in the run log. The benchmarks build each layout, the gc profiler gives their allocations.
+ */
+@State(Scope.Benchmark)
+public class CatalogFootprintBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  public int numberOfSongs;
+
+  private byte[] mJson;
+  // Layout being measured, reachable until its heap is read
+  private Object mCatalog;
+
+  /**
+   * Song object of the parser before the columns
+   */
+  private static final class SongObject {
+    private final String mArtist;
+    private final String mTitle;
+    private final String mPath;
+    private final String mCover;
+
+    private SongObject(String artist, String title, String path, String cover) {
+      mArtist = artist;
+      mTitle  = title;
+      mPath   = path;
+      mCover  = cover;
+    }
+  }
+
+  /**
+   * Destination of the parsed songs
+   */
+  private interface SongSink {
+    void add(String artist, String title, String path, String cover);
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    mJson = SyntheticCatalog.json(numberOfSongs);
+    report("songObjects", retainedHeap(this::songObjects));
+    report("catalogStore", retainedHeap(this::catalogStore));
+  }
+
+  /**
+   * Parse the catalog into one object per song
+   */
+  @Benchmark
+  public List<SongObject> songObjects() throws IOException {
+    final List<SongObject> lSongs = new ArrayList<>();
+    read((String artist, String title, String path, String cover) ->
+      lSongs.add(new SongObject(artist, title, path, cover)));
+    return lSongs;
+  }
+
+  /**
+   * Parse the catalog into interned columns, as JsonParser does
+   */
+  @Benchmark
+  public CatalogStore catalogStore() throws IOException {
+    CatalogStore lStore = new CatalogStore();
+    read(lStore::addSong);
+    lStore.trimToSize();
+    return lStore;
+  }
+
+  /**
+   * Read the songs of the synthetic catalog, each field is a new string
+   * @param sink SongSink: Destination of the songs
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  private void read(SongSink sink) throws IOException {
+    try (JsonReader lReader = new JsonReader(
+      new InputStreamReader(new ByteArrayInputStream(mJson), StandardCharsets.UTF_8))) {
+      lReader.beginObject();
+      while (lReader.hasNext()) {
+        if (!"songs".equals(lReader.nextName())) {
+          lReader.skipValue();
+          continue;
+        }
+        lReader.beginArray();
+        while (lReader.hasNext()) {
+          String[] lFields = { "", "", "", "" };
+          lReader.beginObject();
+          while (lReader.hasNext()) {
+            switch (lReader.nextName()) {
+              case "artist": lFields[0] = lReader.nextString(); break;
+              case "title":  lFields[1] = lReader.nextString(); break;
+              case "path":   lFields[2] = lReader.nextString(); break;
+              case "cover":  lFields[3] = lReader.nextString(); break;
+              default:       lReader.skipValue();
+            }
+          }
+          lReader.endObject();
+          sink.add(lFields[0], lFields[1], lFields[2], lFields[3]);
+        }
+        lReader.endArray();
+      }
+      lReader.endObject();
+    }
+  }
+
+  /**
+   * Returns the heap retained by a layout of the catalog
+   * @param builder Callable: Parse the catalog in the layout
+   * @return long: Retained heap in bytes
+   * @throws Exception If the catalog can't be parsed
+   */
+  private long retainedHeap(Callable<Object> builder) throws Exception {
+    long lBase = usedHeap();
+    mCatalog = builder.call();
+    long lRetained = usedHeap() - lBase;
+    mCatalog = null;
+    return lRetained;
+  }
+
+  /**
+   * Returns the heap used by the reachable objects
+   * @return long: Used heap in bytes, after full collections
+   */
+  private static long usedHeap() {
+    Runtime lRuntime = Runtime.getRuntime();
+    long lUsed = Long.MAX_VALUE;
+    // A single collection may leave garbage behind, the lowest reading is kept
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      lUsed = Math.min(lUsed, lRuntime.totalMemory() - lRuntime.freeMemory());
+    }
+    return lUsed;
+  }
+
+  private void report(String layout, long bytes) {
+    System.out.println(String.format(Locale.US, "Retained heap, %s, %d songs: %d bytes per song",
+      layout, numberOfSongs, bytes / numberOfSongs));
+  }
+}
@@ -0,0 +1,62 @@
+package fr.wildcodeschool.mediaplayer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.wildcodeschool.mediaplayer.json.JsonParser;
+import fr.wildcodeschool.mediaplayer.list.Item;
+
+/**
+ * Parsing of data.json and building of the playlist items.
+ */
+@State(Scope.Benchmark)
+public class JsonParserBenchmark {
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int numberOfSongs;
+
+  private byte[] mJson;
+
+  @Setup
+  public void setUp() throws IOException {
+    mJson = SyntheticCatalog.json(numberOfSongs);
+  }
+
+  /**
+   * Parse the whole catalog in memory
+   */
+  @Benchmark
+  public List<JsonParser.Song> readJsonStream() throws IOException {
+    JsonParser lParser = JsonParser.getInstance();
+    lParser.readJsonStream(new ByteArrayInputStream(mJson));
+    return lParser.getSongList();
+  }
+
+  /**
+   * Parse the catalog and build the items batch by batch, as the catalog loader does
+   */
+  @Benchmark
+  public List<Item> readJsonStreamToItems() throws IOException {
+    final List<Item> lItems = new ArrayList<>();
+    JsonParser.getInstance().readJsonStream(new ByteArrayInputStream(mJson),
+      JsonParser.DEFAULT_BATCH_SIZE, new JsonParser.OnSongBatchListener() {
+        @Override
+        public void onSongBatch(List<JsonParser.Song> batch) {
+          for (JsonParser.Song lSong : batch) {
+            lItems.add(new Item(lSong.artist, lSong.title, lSong.path, lSong.cover));
+          }
+        }
+
+        @Override
+        public void onSongsLoaded(int count) {}
+      });
+    return lItems;
+  }
+}
@@ -0,0 +1,53 @@
+package fr.wildcodeschool.mediaplayer.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generate data.json catalogs of any size, shaped like the one of the OBB:
+ * about ten songs per artist, songs of an artist share the same cover.
+ */
+final class SyntheticCatalog {
+  // Same catalog for every run
+  private static final long SEED = 42L;
+  private static final String[] WORDS = {
+    "love", "night", "radio", "revolution", "blue", "heart", "fire", "street", "dance", "rain",
+    "été", "cœur", "nuit", "soleil", "rêve", "ciel", "route", "mer", "ville", "étoile"
+  };
+
+  private SyntheticCatalog() {}
+
+  /**
+   * Returns the JSON catalog
+   * @param numberOfSongs int: Number of songs in the catalog
+   * @return byte[]: The UTF-8 encoded catalog
+   * @throws IOException Signals that an Input/Output exception of some sort has occurred.
+   */
+  static byte[] json(int numberOfSongs) throws IOException {
+    Random lRandom = new Random(SEED);
+    int lNumberOfArtists = Math.max(1, numberOfSongs / 10);
+    ByteArrayOutputStream lBytes = new ByteArrayOutputStream(numberOfSongs * 160);
+    try (Writer lWriter = new OutputStreamWriter(lBytes, StandardCharsets.UTF_8)) {
+      lWriter.write("{\"numberOfSongs\":" + numberOfSongs + ",\"songs\":[");
+      for (int i = 0; i < numberOfSongs; i++) {
+        int lArtist = lRandom.nextInt(lNumberOfArtists);
+        if (i > 0) lWriter.write(',');
+        lWriter.write(String.format(Locale.US,
+          "{\"artist\":\"%s %d\",\"title\":\"%s %s %d\",\"path\":\"songs/%d.mp3\",\"cover\":\"covers/%d.jpg\"}",
+          word(lRandom), lArtist, word(lRandom), word(lRandom), i, i, lArtist));
+      }
+      lWriter.write("]}");
+    }
+    return lBytes.toByteArray();
+  }
+
+  private static String word(Random random) {
+    String lWord = WORDS[random.nextInt(WORDS.length)];
+    return Character.toUpperCase(lWord.charAt(0)) + lWord.substring(1);
+  }
+}